@@ -0,0 +1,163 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * On-device tests that list reads are not held up by writes. These need the platform's SQLite
+ * and connection pool, which the JVM tests don't have.
+ *
+ * The reads bind their selection arguments, which TaskCache leaves to SQLite, so they time and
+ * check the database rather than the copy in memory; each test asserts the cache answered none.
+ */
+public class TodoListProviderConcurrencyTest extends ProviderTestCase2<TodoListProvider> {
+
+    private static final String TAG = "ConcurrencyTest";
+
+    private ExecutorService executor;
+
+    public TodoListProviderConcurrencyTest() {
+        super(TodoListProvider.class, TodoListProvider.CONTENT_URI.getAuthority());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newFixedThreadPool(2);
+        ContentValues[] tasks = new ContentValues[1000];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new ContentValues();
+            tasks[i].put(TodoItem.TITLE, "Task " + i);
+            tasks[i].put(TodoItem.DEADLINE, 1000L + i);
+        }
+        getMockContentResolver().bulkInsert(TodoListProvider.CONTENT_URI, tasks);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testDatabaseUsesWriteAheadLog() {
+        Cursor c = database().rawQuery("PRAGMA journal_mode", null);
+        c.moveToFirst();
+        assertEquals("wal", c.getString(0).toLowerCase());
+        c.close();
+    }
+
+    public void testReadsProceedWhileAWriteTransactionIsOpen() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch finishWriting = new CountDownLatch(1);
+        Future<?> writer = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                SQLiteDatabase db = database();
+                db.beginTransactionNonExclusive();
+                try {
+                    db.insert(TodoListProvider.TaskEntry.TABLE_NAME, null, task("Uncommitted"));
+                    writing.countDown();
+                    finishWriting.await(); //hold the transaction open
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                return null;
+            }
+        });
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        long hits = cacheHits();
+
+        //would block until the write finishes with a rollback journal
+        Future<Integer> reader = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return countTasks();
+            }
+        });
+        assertEquals(1000, (int) reader.get(2, TimeUnit.SECONDS)); //the uncommitted task is not seen yet
+
+        finishWriting.countDown();
+        writer.get(5, TimeUnit.SECONDS);
+        assertEquals(1001, countTasks());
+        assertEquals("counts were answered from the cache", hits, cacheHits());
+    }
+
+    public void testReadLatencyUnderConcurrentWrites() throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean();
+        Future<Integer> writer = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                int writes = 0;
+                while (!stop.get()) {
+                    ContentValues values = new ContentValues();
+                    values.put(TodoItem.COMPLETED, writes % 2);
+                    getMockContentResolver().update(TodoListProvider.CONTENT_URI, values,
+                            TodoItem.ID + "=" + (1 + writes % 1000), null);
+                    writes++;
+                }
+                return writes;
+            }
+        });
+
+        long hits = cacheHits();
+        long[] latencies = new long[200];
+        for (int i = 0; i < latencies.length; i++) {
+            long start = System.nanoTime();
+            Cursor c = getMockContentResolver().query(TodoListProvider.pageUri(50, null),
+                    new String[]{TodoItem.ID, TodoItem.TITLE, TodoItem.DEADLINE}, TodoItem.COMPLETED + "=?",
+                    new String[]{"0"}, TodoItem.DEADLINE);
+            while (c.moveToNext()) {
+                c.getString(1);
+            }
+            c.close();
+            latencies[i] = System.nanoTime() - start;
+        }
+        stop.set(true);
+        int writes = writer.get(5, TimeUnit.SECONDS);
+
+        Arrays.sort(latencies);
+        long median = latencies[latencies.length / 2] / 1000;
+        long p95 = latencies[latencies.length * 95 / 100] / 1000;
+        Log.i(TAG, "page read latency during " + writes + " writes: median " + median + "us, p95 " + p95 + "us");
+        assertTrue("writer made no progress", writes > 0);
+        assertEquals("pages were read from the cache", hits, cacheHits());
+        assertTrue("p95 read latency " + p95 + "us", p95 < 100 * 1000);
+    }
+
+    private SQLiteDatabase database() {
+        return getProvider().getDatabaseHelper().getWritableDatabase();
+    }
+
+    //counted by SQLite: the cache would not see the raw insert above
+    private int countTasks() {
+        Cursor c = getMockContentResolver().query(TodoListProvider.CONTENT_URI, new String[]{"count(*)"},
+                TodoItem.ID + ">?", new String[]{"0"}, null);
+        c.moveToFirst();
+        int count = c.getInt(0);
+        c.close();
+        return count;
+    }
+
+    private long cacheHits() {
+        return getProvider().call(TodoListProvider.METHOD_CACHE_STATS, null, null).getLong(TodoListProvider.STAT_CACHE_HITS);
+    }
+
+    private static ContentValues task(String title) {
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, title);
+        return values;
+    }
+}
@@ -0,0 +1,196 @@
+package edu.uw.todoer.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A small JMH-style harness for timing code on the JVM.
+ * Each benchmark is warmed up, then timed over several iterations, each running the body
+ * as many times as fits in a fixed time slice. Results are printed and appended as one
+ * JSON object per line to the file named by the benchmark.output system property.
+ *
+ * Iteration counts and time slices can be changed with the benchmark.warmup,
+ * benchmark.iterations and benchmark.iterationMillis system properties.
+ */
+public final class Bench {
+
+    private static final int WARMUP = Integer.getInteger("benchmark.warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 10);
+    private static final long ITERATION_NANOS = Long.getLong("benchmark.iterationMillis", 200L) * 1000 * 1000;
+    private static final String OUTPUT = System.getProperty("benchmark.output", "build/benchmark/results.jsonl");
+
+    //class cannot be instantiated
+    private Bench(){}
+
+    /**
+     * The code being timed. It is called with an increasing operation number, which it can use
+     * to vary its input (e.g. to pick a different task each time).
+     */
+    public interface Body {
+        public void run(int op) throws Exception;
+    }
+
+    /**
+     * Times the body and records the result.
+     *
+     * @param name what is being measured, e.g. "query.todo.deadline"
+     * @param tasks how many tasks the database held
+     * @return the median time of one call, in nanoseconds
+     */
+    public static double measure(String name, int tasks, Body body) throws Exception {
+        return measureRows(name, tasks, 0, body);
+    }
+
+    /**
+     * Times a body that writes rows, such as a batch of inserts, and records it like measure() along
+     * with the rows written per second, so writing one row at a time and writing many compare directly.
+     *
+     * @param rowsPerOp rows each call of the body writes, or 0 not to report rows per second
+     * @return the median time of one call, in nanoseconds
+     */
+    public static double measureRows(String name, int tasks, int rowsPerOp, Body body) throws Exception {
+        int op = 0;
+        for(int i = 0; i < WARMUP; i++){
+            op = runIteration(body, op, null);
+        }
+
+        double[] nanosPerOp = new double[ITERATIONS];
+        long totalOps = 0;
+        for(int i = 0; i < ITERATIONS; i++){
+            long[] timing = new long[2]; //{elapsed nanos, ops}
+            op = runIteration(body, op, timing);
+            nanosPerOp[i] = (double) timing[0] / timing[1];
+            totalOps += timing[1];
+        }
+        return summarize(name, tasks, nanosPerOp, totalOps, rowsPerOp);
+    }
+
+    /**
+     * Records timings the caller took itself, one per run, for code that needs setup or cleanup
+     * between runs that must not be timed.
+     *
+     * @return the median run, in nanoseconds
+     */
+    public static double samples(String name, int tasks, long[] nanos) throws IOException {
+        double[] nanosPerOp = new double[nanos.length];
+        for(int i = 0; i < nanos.length; i++){
+            nanosPerOp[i] = nanos[i];
+        }
+        return summarize(name, tasks, nanosPerOp, nanos.length, 0);
+    }
+
+    private static double summarize(String name, int tasks, double[] nanosPerOp, long totalOps, int rowsPerOp)
+            throws IOException {
+        Arrays.sort(nanosPerOp);
+        double mean = 0;
+        for(double t : nanosPerOp){
+            mean += t / nanosPerOp.length;
+        }
+        double median = nanosPerOp[nanosPerOp.length / 2];
+        String rows = rowsPerOp > 0 ? String.format(Locale.US, ",\"rows_per_sec\":%.0f", rowsPerOp * 1e9 / median) : "";
+        record(String.format(Locale.US,
+                "{\"benchmark\":\"%s\",\"tasks\":%d,\"iterations\":%d,\"ops\":%d," +
+                        "\"mean_ns\":%.1f,\"median_ns\":%.1f,\"min_ns\":%.1f,\"max_ns\":%.1f%s}",
+                name, tasks, nanosPerOp.length, totalOps, mean, median, nanosPerOp[0], nanosPerOp[nanosPerOp.length - 1], rows));
+        return median;
+    }
+
+    /**
+     * Times a single run of a body too slow to repeat, such as a whole export, and records it along
+     * with the most heap in use while it ran (sampled every few milliseconds, after a GC beforehand).
+     *
+     * @return the time taken, in nanoseconds
+     */
+    public static long once(String name, int tasks, Body body) throws Exception {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long baseline = runtime.totalMemory() - runtime.freeMemory();
+        final long[] peak = {baseline};
+        final boolean[] done = {false};
+        Thread sampler = new Thread() {
+            @Override
+            public void run() {
+                while(true){
+                    synchronized (peak) {
+                        if(done[0]){
+                            return;
+                        }
+                        peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory());
+                    }
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        sampler.setDaemon(true);
+        sampler.start();
+
+        long start = System.nanoTime();
+        long elapsed;
+        try {
+            body.run(0);
+        } finally {
+            elapsed = System.nanoTime() - start;
+            synchronized (peak) {
+                done[0] = true;
+            }
+            sampler.join();
+        }
+
+        record(String.format(Locale.US,
+                "{\"benchmark\":\"%s\",\"tasks\":%d,\"iterations\":1,\"ops\":1,\"elapsed_ns\":%d," +
+                        "\"baseline_heap_bytes\":%d,\"peak_heap_bytes\":%d}",
+                name, tasks, elapsed, baseline, peak[0]));
+        return elapsed;
+    }
+
+    /**
+     * Records a count the caller made rather than a time, such as how many statements a run compiled.
+     *
+     * @param unit what was counted, e.g. "compilations"
+     */
+    public static void count(String name, int tasks, String unit, long value) throws IOException {
+        record(String.format(Locale.US, "{\"benchmark\":\"%s\",\"tasks\":%d,\"%s\":%d}",
+                name, tasks, unit, value));
+    }
+
+    //runs the body until the time slice is used up; returns the next operation number
+    private static int runIteration(Body body, int op, long[] timing) throws Exception {
+        long start = System.nanoTime();
+        long elapsed;
+        int ops = 0;
+        do {
+            body.run(op++);
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while(elapsed < ITERATION_NANOS);
+
+        if(timing != null){
+            timing[0] = elapsed;
+            timing[1] = ops;
+        }
+        return op;
+    }
+
+    private static synchronized void record(String json) throws IOException {
+        System.out.println(json);
+        File file = new File(OUTPUT);
+        if(file.getParentFile() != null){
+            file.getParentFile().mkdirs();
+        }
+        Writer out = new FileWriter(file, true);
+        try {
+            out.write(json);
+            out.write('\n');
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package edu.uw.todoer.provider;
+
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import edu.uw.todoer.benchmark.Bench;
+import edu.uw.ztianai.todoer.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the statements SQLite compiles for the same queries written with their values in the
+ * SQL and with them bound through TaskFilter, and times both. Bound queries should compile each
+ * shape once per connection and then be found in its statement cache.
+ *
+ * Compilations are counted by the provider, as the queries it runs that a statement cache the
+ * size of each connection's would not hold (TodoListProvider.STAT_COMPILATIONS).
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class StatementCacheBenchmark {
+
+    private static final int TASKS = 10000;
+    private static final int OPS = 1000; //queries per counted run
+    private static final int PAGE_SIZE = 50; //as PagedTaskAdapter loads
+    private static final String[] ROW_PROJECTION = {TodoItem.TITLE, TodoItem.DETAILS, TodoItem.DEADLINE,
+            TodoItem.COMPLETED};
+    private static final String[] LIST_PROJECTION = {TodoItem.ID, TodoItem.TITLE, TodoItem.DEADLINE,
+            TodoItem.COMPLETED, TodoItem.TIME_CREATED};
+
+    private TodoListProvider provider;
+    private final Random random = new Random(42);
+
+    @Before
+    public void setUp() {
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null); //also calls onCreate()
+        TodoListProviderBenchmark.seed(provider, random, TASKS, 0);
+    }
+
+    @After
+    public void tearDown() {
+        provider.getDatabaseHelper().close();
+    }
+
+    @Test
+    public void boundQueriesAreCompiledOnce() throws Exception {
+        //a task by id, as the detail view and notifications look them up
+        run("statements.row.literal", new Bench.Body() {
+            public void run(int op) {
+                readAll(provider.query(TodoListProvider.CONTENT_URI, ROW_PROJECTION,
+                        TodoItem.ID + "=" + (1 + random.nextInt(TASKS)), null, null));
+            }
+        });
+        assertEquals(1, run("statements.row.bound", new Bench.Body() {
+            public void run(int op) {
+                TaskFilter filter = TaskFilter.all().ids(1 + random.nextInt(TASKS));
+                readAll(provider.query(TodoListProvider.CONTENT_URI, ROW_PROJECTION,
+                        filter.getSelection(), filter.getSelectionArgs(), null));
+            }
+        }));
+
+        //sets of up to a window of ids, as a list reloads the tasks a change names
+        run("statements.ids.literal", new Bench.Body() {
+            public void run(int op) {
+                StringBuilder where = new StringBuilder(TodoItem.ID).append(" IN (");
+                for(long id : someIds()){
+                    where.append(id).append(',');
+                }
+                where.setCharAt(where.length() - 1, ')');
+                readAll(provider.query(TodoListProvider.CONTENT_URI, LIST_PROJECTION, where.toString(), null, null));
+            }
+        });
+        long ids = run("statements.ids.bound", new Bench.Body() {
+            public void run(int op) {
+                TaskFilter filter = TaskFilter.all().ids(someIds());
+                readAll(provider.query(TodoListProvider.CONTENT_URI, LIST_PROJECTION,
+                        filter.getSelection(), filter.getSelectionArgs(), null));
+            }
+        });
+        assertTrue("ids compiled " + ids + " times", ids <= 7); //padded to 1, 2, 4 ... 64 ids
+
+        //paging down the to-do tasks by deadline, with the page key bound by the provider
+        //(a deadline condition, so the pages come from the database rather than TaskCache)
+        final TaskFilter due = TaskFilter.todo().deadlineFrom(0);
+        final long[] key = new long[2];
+        assertEquals(2, run("statements.pages.bound", new Bench.Body() { //the first page, and those after a key
+            public void run(int op) {
+                Cursor c = provider.query(TodoListProvider.pageUri(PAGE_SIZE, op % 100 == 0 ? null : key),
+                        LIST_PROJECTION, due.getSelection(), due.getSelectionArgs(), TodoItem.DEADLINE);
+                try {
+                    if(c.moveToLast()){
+                        key[0] = c.getLong(c.getColumnIndexOrThrow(TodoItem.DEADLINE));
+                        key[1] = c.getLong(c.getColumnIndexOrThrow(TodoItem.ID));
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+        }));
+    }
+
+    //counts the compilations of OPS runs of the body, then times it; returns the compilations
+    private long run(String name, Bench.Body body) throws Exception {
+        long before = compilations();
+        for(int op = 0; op < OPS; op++){
+            body.run(op);
+        }
+        long compiled = compilations() - before;
+        Bench.count(name, TASKS, "compilations", compiled);
+        Bench.measure(name, TASKS, body);
+        return compiled;
+    }
+
+    //1 to 64 random ids
+    private long[] someIds() {
+        long[] ids = new long[1 + random.nextInt(64)];
+        for(int i = 0; i < ids.length; i++){
+            ids[i] = 1 + random.nextInt(TASKS);
+        }
+        return ids;
+    }
+
+    private long compilations() {
+        return provider.call(TodoListProvider.METHOD_CACHE_STATS, null, null).getLong(TodoListProvider.STAT_COMPILATIONS);
+    }
+
+    //walks the cursor, so the query actually runs
+    private static void readAll(Cursor c) {
+        try {
+            while(c.moveToNext()){
+                c.getString(0);
+            }
+        } finally {
+            c.close();
+        }
+    }
+}
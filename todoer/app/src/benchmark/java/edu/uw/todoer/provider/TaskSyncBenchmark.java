@@ -0,0 +1,119 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.uw.todoer.benchmark.Bench;
+import edu.uw.ztianai.todoer.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Times syncing 100k tasks with the in-process server, first all of them and then after 1% of them
+ * changed here and as many on another device, and records the bytes each sync sent and received.
+ * The second sync should cost about 1% of the first.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TaskSyncBenchmark {
+
+    private static final int TASKS = 100000;
+    private static final int CHURN = TASKS / 100; //changes on each side
+    private static final String OTHER = "other device";
+
+    private TodoListProvider provider;
+    private ContentResolver resolver;
+    private final Random random = new Random(42);
+
+    @Before
+    public void setUp() {
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null); //also calls onCreate()
+        ShadowContentResolver.registerProvider(TodoListProvider.CONTENT_URI.getAuthority(), provider);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+        TodoListProviderBenchmark.seed(provider, random, TASKS, 0);
+    }
+
+    @After
+    public void tearDown() {
+        provider.getDatabaseHelper().close();
+    }
+
+    @Test
+    public void deltaSync() throws Exception {
+        FakeSyncServer server = new FakeSyncServer();
+        TaskSync.Result full = sync("sync.full", server);
+        assertEquals(TASKS, full.pushed);
+
+        //here, half the changes are edits, a quarter deletes and a quarter new tasks
+        for (int i = 0; i < CHURN / 2; i++) {
+            ContentValues values = new ContentValues();
+            values.put(TodoItem.TITLE, "Edited here " + i);
+            provider.update(taskUri(1 + random.nextInt(TASKS)), values, null, null);
+        }
+        for (int i = 0; i < CHURN / 4; i++) {
+            provider.delete(taskUri(1 + random.nextInt(TASKS)), null, null);
+        }
+        TodoListProviderBenchmark.seed(provider, random, CHURN / 4, TASKS);
+
+        //there, edits of tasks this device has and new tasks
+        long later = System.currentTimeMillis() + 60000;
+        List<ContentValues> changes = new ArrayList<ContentValues>();
+        for (int i = 0; i < CHURN; i++) {
+            ContentValues change = TodoListProviderBenchmark.task(random, TASKS + i);
+            change.put(TodoItem.TIME_CREATED, later);
+            change.put(SyncItem.SYNC_ID, i % 4 == 0 ? "new " + i : syncId(1 + random.nextInt(TASKS)));
+            change.put(SyncItem.UPDATED_AT, later);
+            change.put(SyncItem.DELETED, false);
+            changes.add(change);
+        }
+        server.push(OTHER, TaskSync.encode(new TaskSync.Batch(changes, 0, false)));
+
+        sync("sync.churn", server);
+    }
+
+    //runs one sync, recording its time, the bytes each way and the changes each way
+    private TaskSync.Result sync(String name, final FakeSyncServer server) throws Exception {
+        final TaskSync.Result[] result = new TaskSync.Result[1];
+        Bench.once(name, TASKS, new Bench.Body() {
+            public void run(int op) throws Exception {
+                result[0] = TaskSync.sync(resolver, server);
+            }
+        });
+        Bench.count(name + ".sent", TASKS, "bytes", result[0].bytesSent);
+        Bench.count(name + ".received", TASKS, "bytes", result[0].bytesReceived);
+        Bench.count(name + ".pushed", TASKS, "changes", result[0].pushed);
+        Bench.count(name + ".pulled", TASKS, "changes", result[0].pulled);
+        return result[0];
+    }
+
+    //the sync id of a task, or a made up one if it was deleted, which the server then takes as new
+    private String syncId(long id) {
+        Cursor c = provider.query(taskUri(id), new String[]{SyncItem.SYNC_ID}, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getString(0) : "gone " + id;
+        } finally {
+            c.close();
+        }
+    }
+
+    private static Uri taskUri(long id) {
+        return ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, id);
+    }
+}
@@ -0,0 +1,86 @@
+package edu.uw.todoer.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import edu.uw.todoer.benchmark.Bench;
+import edu.uw.ztianai.todoer.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Times exporting and importing 100k and 1M tasks in each format. The peak heap recorded with
+ * each run should not grow with the number of tasks.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TaskTransferBenchmark {
+
+    private static final int[] SIZES = {100000, 1000000};
+
+    private TodoListProvider provider;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null); //also calls onCreate()
+        ShadowContentResolver.registerProvider(TodoListProvider.CONTENT_URI.getAuthority(), provider);
+        file = File.createTempFile("tasks", ".export");
+    }
+
+    @After
+    public void tearDown() {
+        provider.getDatabaseHelper().close();
+        file.delete();
+    }
+
+    @Test
+    public void exportAndImport() throws Exception {
+        Random random = new Random(42);
+        int seeded = 0;
+        for (final int size : SIZES) {
+            TodoListProviderBenchmark.seed(provider, random, size - seeded, seeded);
+            seeded = size;
+            for (final TaskTransfer.Format format : TaskTransfer.Format.values()) {
+                String name = format.name().toLowerCase();
+                Bench.once("export." + name, size, new Bench.Body() {
+                    public void run(int op) throws Exception {
+                        FileChannel out = new FileOutputStream(file).getChannel();
+                        try {
+                            assertEquals(size, TaskTransfer.exportTasks(RuntimeEnvironment.application.getContentResolver(),
+                                    out, format, null));
+                        } finally {
+                            out.close();
+                        }
+                    }
+                });
+
+                provider.delete(TodoListProvider.CONTENT_URI, null, null);
+                Bench.once("import." + name, size, new Bench.Body() {
+                    public void run(int op) throws Exception {
+                        FileChannel in = new FileInputStream(file).getChannel();
+                        try {
+                            assertEquals(size, TaskTransfer.importTasks(RuntimeEnvironment.application.getContentResolver(),
+                                    in, format, null));
+                        } finally {
+                            in.close();
+                        }
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import edu.uw.todoer.benchmark.Bench;
+import edu.uw.ztianai.todoer.BuildConfig;
+
+/**
+ * Times the TodoListProvider calls the app makes, on databases of 1k, 10k and 100k tasks.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TodoListProviderBenchmark {
+
+    public static final int[] SIZES = {1000, 10000, 100000};
+    private static final int PAGE_SIZE = 50; //as PagedTaskAdapter loads
+    private static final int WRITE_BATCH = 100; //rows per bulkInsert or applyBatch, e.g. an import
+    private static final String TODO = TodoItem.COMPLETED + "=0";
+    private static final String[] LIST_PROJECTION = {TodoItem.ID, TodoItem.TITLE, TodoItem.DEADLINE,
+            TodoItem.COMPLETED, TodoItem.TIME_CREATED};
+
+    private static final String[] VERBS = {"buy", "call", "email", "fix", "review", "plan", "clean", "pay", "book", "write"};
+    private static final String[] NOUNS = {"groceries", "mom", "report", "bike", "budget", "trip", "garage", "rent",
+            "dentist", "essay", "car", "slides", "taxes", "flowers", "tickets"};
+
+    private TodoListProvider provider;
+    private final Random random = new Random(42);
+    private int seeded;
+
+    @Before
+    public void setUp() {
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null); //also calls onCreate()
+    }
+
+    @After
+    public void tearDown() {
+        provider.getDatabaseHelper().close();
+    }
+
+    @Test
+    public void providerHotPaths() throws Exception {
+        for (int size : SIZES) {
+            seed(provider, random, size - seeded, seeded);
+            seeded = size;
+            measureQueries(size);
+            measureWrites(size);
+        }
+    }
+
+    private void measureQueries(final int size) throws Exception {
+        //the first page of the to-do list, in both of MasterList's sort orders, which the cache answers however big the table
+        Bundle before = provider.call(TodoListProvider.METHOD_CACHE_STATS, null, null);
+        Bench.measure("query.page.deadline", size, new Bench.Body() {
+            public void run(int op) {
+                readAll(provider.query(TodoListProvider.pageUri(PAGE_SIZE, null), LIST_PROJECTION, TODO, null,
+                        TodoItem.DEADLINE));
+            }
+        });
+        Bench.measure("query.page.created", size, new Bench.Body() {
+            public void run(int op) {
+                readAll(provider.query(TodoListProvider.pageUri(PAGE_SIZE, null), LIST_PROJECTION, TODO, null,
+                        TodoItem.TIME_CREATED));
+            }
+        });
+
+        Bundle after = provider.call(TodoListProvider.METHOD_CACHE_STATS, null, null);
+        Bench.count("query.page.cacheHits", size, "queries",
+                after.getLong(TodoListProvider.STAT_CACHE_HITS) - before.getLong(TodoListProvider.STAT_CACHE_HITS));
+        Bench.count("query.page.cacheMisses", size, "queries",
+                after.getLong(TodoListProvider.STAT_CACHE_MISSES) - before.getLong(TodoListProvider.STAT_CACHE_MISSES));
+
+        //a page from the middle of the list, which keyset paging should make as cheap as the first
+        final long[] middle = keyAt(TodoItem.DEADLINE, size / 3);
+        Bench.measure("query.page.deadline.middle", size, new Bench.Body() {
+            public void run(int op) {
+                readAll(provider.query(TodoListProvider.pageUri(PAGE_SIZE, middle), LIST_PROJECTION, TODO, null,
+                        TodoItem.DEADLINE));
+            }
+        });
+
+        //the count the list adapter makes on every refresh
+        Bench.measure("query.count", size, new Bench.Body() {
+            public void run(int op) {
+                readAll(provider.query(TodoListProvider.CONTENT_URI, new String[]{"count(*)"}, TODO, null,
+                        TodoItem.DEADLINE));
+            }
+        });
+
+        //the single task the detail view loads
+        Bench.measure("query.row", size, new Bench.Body() {
+            public void run(int op) {
+                readAll(provider.query(taskUri(1 + random.nextInt(size)),
+                        new String[]{TodoItem.TITLE, TodoItem.DETAILS, TodoItem.DEADLINE, TodoItem.COMPLETED},
+                        null, null, null));
+            }
+        });
+
+        //searches as typed into the search box
+        Bench.measure("query.search", size, new Bench.Body() {
+            public void run(int op) {
+                readAll(provider.query(TodoListProvider.searchUri(VERBS[op % VERBS.length].substring(0, 3), 100),
+                        LIST_PROJECTION, null, null, null));
+            }
+        });
+    }
+
+    private void measureWrites(final int size) throws Exception {
+        //adding tasks one at a time, each its own transaction, then a batch at a time in one transaction,
+        //all reported in rows per second
+        Bench.measureRows("insert", size, 1, new Bench.Body() {
+            public void run(int op) {
+                provider.insert(TodoListProvider.CONTENT_URI, task(random, op));
+            }
+        });
+        resetTo(size);
+
+        final ContentValues[] batch = new ContentValues[WRITE_BATCH];
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = task(random, i);
+            operations.add(ContentProviderOperation.newInsert(TodoListProvider.CONTENT_URI).withValues(batch[i]).build());
+        }
+        Bench.measureRows("insert.bulk", size, WRITE_BATCH, new Bench.Body() {
+            public void run(int op) {
+                provider.bulkInsert(TodoListProvider.CONTENT_URI, batch);
+            }
+        });
+        resetTo(size);
+        Bench.measureRows("insert.batch", size, WRITE_BATCH, new Bench.Body() {
+            public void run(int op) throws Exception {
+                provider.applyBatch(operations);
+            }
+        });
+        resetTo(size);
+
+        Bench.measure("update.row", size, new Bench.Body() {
+            public void run(int op) {
+                ContentValues values = new ContentValues();
+                values.put(TodoItem.TITLE, title(random));
+                provider.update(taskUri(1 + random.nextInt(size)), values, null, null);
+            }
+        });
+    }
+
+    //back to the seeded tasks, with ids carrying on from them
+    private void resetTo(int size) {
+        provider.delete(TodoListProvider.CONTENT_URI, TodoItem.ID + ">?", new String[]{String.valueOf(size)}); //so the cache follows
+        SQLiteDatabase db = provider.getDatabaseHelper().getWritableDatabase();
+        db.execSQL("UPDATE sqlite_sequence SET seq=" + size + " WHERE name='" + TodoListProvider.TaskEntry.TABLE_NAME + "'");
+    }
+
+    //adds count tasks, a third of them completed, with deadlines spread over a year
+    public static void seed(TodoListProvider provider, Random random, int count, int first) {
+        ContentValues[] batch = new ContentValues[Math.min(count, 1000)];
+        for (int done = 0; done < count; done += batch.length) {
+            int n = Math.min(batch.length, count - done);
+            ContentValues[] values = n == batch.length ? batch : new ContentValues[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = task(random, first + done + i);
+            }
+            provider.bulkInsert(TodoListProvider.CONTENT_URI, values);
+        }
+    }
+
+    public static ContentValues task(Random random, int n) {
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, title(random));
+        values.put(TodoItem.DETAILS, "Task number " + n + ", " + title(random).toLowerCase());
+        values.put(TodoItem.DEADLINE, 1460000000000L + (long) (random.nextDouble() * 365 * 24 * 60 * 60 * 1000));
+        values.put(TodoItem.COMPLETED, n % 3 == 0 ? 1 : 0);
+        return values;
+    }
+
+    private static String title(Random random) {
+        String verb = VERBS[random.nextInt(VERBS.length)];
+        return Character.toUpperCase(verb.charAt(0)) + verb.substring(1) + " " + NOUNS[random.nextInt(NOUNS.length)];
+    }
+
+    private long[] keyAt(String sortColumn, int position) {
+        Cursor c = provider.getDatabaseHelper().getReadableDatabase().rawQuery(
+                "SELECT " + sortColumn + "," + TodoItem.ID + " FROM tasks WHERE " + TODO +
+                        " ORDER BY " + sortColumn + "," + TodoItem.ID + " LIMIT 1 OFFSET " + position, null);
+        try {
+            c.moveToFirst();
+            return new long[]{c.getLong(0), c.getLong(1)};
+        } finally {
+            c.close();
+        }
+    }
+
+    private static Uri taskUri(long id) {
+        return ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, id);
+    }
+
+    //walks the cursor the way the app does, so the rows are actually read
+    private static void readAll(Cursor c) {
+        try {
+            while (c.moveToNext()) {
+                for (int i = 0; i < c.getColumnCount(); i++) {
+                    c.getString(i);
+                }
+            }
+        } finally {
+            c.close();
+        }
+    }
+}
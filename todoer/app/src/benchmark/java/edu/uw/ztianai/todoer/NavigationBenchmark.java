@@ -0,0 +1,123 @@
+package edu.uw.ztianai.todoer;
+
+import android.content.ContentValues;
+import android.view.MenuItem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.fakes.RoboMenuItem;
+import org.robolectric.shadows.ShadowContentResolver;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ActivityController;
+
+import java.util.Random;
+
+import edu.uw.todoer.benchmark.Bench;
+import edu.uw.todoer.metrics.Histogram;
+import edu.uw.todoer.metrics.Metrics;
+import edu.uw.todoer.provider.TodoItem;
+import edu.uw.todoer.provider.TodoListProvider;
+import edu.uw.todoer.provider.TodoListProviderBenchmark;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Times going back and forth between the to-do and completed lists from the menu, until the list
+ * shown has its fragment, views and rows in place, on databases of 1k, 10k and 100k tasks: when
+ * nothing changed in between, so the ListStore's rows are shown as they are without a query, and
+ * when a task was added in between, so the list shown is refreshed. A list made from scratch, as
+ * every navigation used to, costs at least what PagedTaskAdapterBenchmark's adapter.open does.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class NavigationBenchmark {
+
+    private static final int RUNS = 50;
+    private static final int WARMUP = 10;
+
+    private TodoListProvider provider;
+    private MainActivity activity;
+    private final MenuItem todo = new RoboMenuItem(R.id.to_do_menu_item);
+    private final MenuItem completed = new RoboMenuItem(R.id.completed_menu_item);
+
+    @Before
+    public void setUp() {
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null); //also calls onCreate()
+        ShadowContentResolver.registerProvider(TodoListProvider.CONTENT_URI.getAuthority(), provider);
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void todoAndCompleted() throws Exception {
+        Random random = new Random(42);
+        int seeded = 0;
+        for (int size : TodoListProviderBenchmark.SIZES) {
+            TodoListProviderBenchmark.seed(provider, random, size - seeded, seeded);
+            seeded = size;
+
+            ActivityController<MainActivity> controller = Robolectric.buildActivity(MainActivity.class).setup();
+            activity = controller.get();
+            settle();
+            navigate(0); //both lists loaded once
+            navigate(1);
+
+            long loads = loads();
+            timeNavigation("navigation.unchanged", size, false);
+            assertEquals("lists shown again were queried", loads, loads());
+            timeNavigation("navigation.afterChange", size, true);
+            controller.pause().stop().destroy(); //closes the kept lists
+        }
+    }
+
+    //times showing one list then the other, adding a task before each when asked, which is not timed
+    private void timeNavigation(String name, int size, boolean change) throws Exception {
+        long[] nanos = new long[RUNS];
+        for (int run = -WARMUP; run < nanos.length; run++) {
+            if (change) {
+                ContentValues values = new ContentValues();
+                values.put(TodoItem.TITLE, "Added " + run);
+                values.put(TodoItem.COMPLETED, run % 2 == 0);
+                provider.insert(TodoListProvider.CONTENT_URI, values);
+                ShadowLooper.runUiThreadTasksIncludingDelayedTasks(); //the hidden list notes it
+            }
+            long start = System.nanoTime();
+            navigate(run + WARMUP);
+            long elapsed = System.nanoTime() - start;
+            if (run >= 0) {
+                nanos[run] = elapsed;
+            }
+        }
+        Bench.samples(name, size, nanos);
+    }
+
+    //picks the completed list on even runs and the to-do list on odd ones, and waits until it is shown
+    private void navigate(int run) {
+        activity.onOptionsItemSelected(run % 2 == 0 ? completed : todo);
+        settle();
+    }
+
+    //runs the fragment transactions, then any loads they started and their results
+    private void settle() {
+        activity.getSupportFragmentManager().executePendingTransactions();
+        for (int i = 0; i < 2; i++) { //a refresh may start the page after it
+            Robolectric.flushBackgroundThreadScheduler();
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+    }
+
+    private static long loads() {
+        Histogram loads = Metrics.getLatency("list.load");
+        return loads != null ? loads.getCount() : 0;
+    }
+}
@@ -0,0 +1,133 @@
+package edu.uw.ztianai.todoer;
+
+import android.widget.FrameLayout;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.Random;
+
+import edu.uw.todoer.benchmark.Bench;
+import edu.uw.todoer.provider.TaskFilter;
+import edu.uw.todoer.provider.TodoItem;
+import edu.uw.todoer.provider.TodoListProvider;
+import edu.uw.todoer.provider.TodoListProviderBenchmark;
+
+/**
+ * Times loading and binding the to-do list, on databases of 1k, 10k and 100k tasks, and how long
+ * a newly created list takes to have its first row ready to draw, with and without a ListSnapshot.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PagedTaskAdapterBenchmark {
+
+    private static final String[] PROJECTION = {TodoItem.ID, TodoItem.TITLE, TodoItem.DEADLINE, TodoItem.COMPLETED,
+            TodoItem.TIME_CREATED};
+    private static final TaskFilter TODO = TaskFilter.todo();
+    private static final int BOUND_ROWS = 30; //rows bound over and over; close enough to the top not to page
+    private static final int FIRST_FRAME_RUNS = 50;
+    private static final int FIRST_FRAME_WARMUP = 10;
+
+    private TodoListProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null); //also calls onCreate()
+        ShadowContentResolver.registerProvider(TodoListProvider.CONTENT_URI.getAuthority(), provider);
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void loadAndBind() throws Exception {
+        Random random = new Random(42);
+        int seeded = 0;
+        for (int size : TodoListProviderBenchmark.SIZES) {
+            TodoListProviderBenchmark.seed(provider, random, size - seeded, seeded);
+            seeded = size;
+
+            //opening the list: the count and first page, then delivering them to the adapter
+            Bench.measure("adapter.open", size, new Bench.Body() {
+                public void run(int op) {
+                    open().close();
+                }
+            });
+
+            //binding rows that are already loaded, as when scrolling through them
+            final PagedTaskAdapter adapter = open();
+            final PagedTaskAdapter.ViewHolder holder =
+                    adapter.onCreateViewHolder(new FrameLayout(RuntimeEnvironment.application), 0);
+            Bench.measure("adapter.bind", size, new Bench.Body() {
+                public void run(int op) {
+                    adapter.onBindViewHolder(holder, op % BOUND_ROWS);
+                }
+            });
+            adapter.close();
+        }
+    }
+
+    @Test
+    public void firstFrame() throws Exception {
+        Random random = new Random(42);
+        int seeded = 0;
+        for (int size : TodoListProviderBenchmark.SIZES) {
+            TodoListProviderBenchmark.seed(provider, random, size - seeded, seeded);
+            seeded = size;
+            timeFirstFrame("adapter.firstFrame.database", size, false);
+            timeFirstFrame("adapter.firstFrame.snapshot", size, true);
+        }
+    }
+
+    //times creating the to-do list until its first row is loaded, from the database or from the snapshot
+    //the last list saved; the process stays warm, so this leaves out opening the database
+    private void timeFirstFrame(String name, int size, boolean fromSnapshot) throws Exception {
+        ListSnapshot snapshot = new ListSnapshot(RuntimeEnvironment.application, TODO.toString(), TodoItem.TIME_CREATED);
+        long[] nanos = new long[FIRST_FRAME_RUNS];
+        for (int run = -FIRST_FRAME_WARMUP; run < nanos.length; run++) {
+            if (!fromSnapshot) {
+                snapshot.delete();
+                Robolectric.flushBackgroundThreadScheduler();
+            }
+
+            long start = System.nanoTime();
+            PagedTaskAdapter adapter = new PagedTaskAdapter(RuntimeEnvironment.application, PROJECTION, TODO,
+                    TodoItem.TIME_CREATED);
+            while (adapter.getItemId(0) < 0) { //still a placeholder
+                Robolectric.flushBackgroundThreadScheduler();
+                ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            //let the refresh finish, which saves the snapshot again
+            Robolectric.flushBackgroundThreadScheduler();
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            Robolectric.flushBackgroundThreadScheduler();
+            adapter.close();
+            if (run >= 0) {
+                nanos[run] = elapsed;
+            }
+        }
+        Bench.samples(name, size, nanos);
+    }
+
+    //creates the to-do list adapter and runs its first load to completion
+    private PagedTaskAdapter open() {
+        PagedTaskAdapter adapter = new PagedTaskAdapter(RuntimeEnvironment.application, PROJECTION,
+                TODO, TodoItem.TIME_CREATED);
+        Robolectric.flushBackgroundThreadScheduler();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        return adapter;
+    }
+}
@@ -0,0 +1,70 @@
+package edu.uw.todoer.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets doubling in width from one microsecond, so adding one is a few
+ * atomic increments and the histogram stays the same small size however many are added.
+ * Percentiles are read as the upper bound of the bucket they fall in, so are within a factor of two.
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 32; //the last holds everything over about 35 minutes
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void add(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)); //0 for under 1us, then by powers of two
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxNanos.get();
+        } while(nanos > max && !maxNanos.compareAndSet(max, nanos));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMeanMicros() {
+        long n = count.get();
+        return n > 0 ? totalNanos.get() / n / 1000 : 0;
+    }
+
+    public long getMaxMicros() {
+        return maxNanos.get() / 1000;
+    }
+
+    /**
+     * Returns the latency, in microseconds, that the given fraction (e.g. 0.99) of samples are under.
+     */
+    public long getPercentileMicros(double fraction) {
+        long n = count.get();
+        if(n == 0){
+            return 0;
+        }
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += buckets.get(i);
+            if(seen >= fraction * n){
+                return Math.min(1L << i, getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "count=%d mean=%dus p50=%dus p90=%dus p99=%dus max=%dus", getCount(),
+                getMeanMicros(), getPercentileMicros(0.5), getPercentileMicros(0.9), getPercentileMicros(0.99),
+                getMaxMicros());
+    }
+}
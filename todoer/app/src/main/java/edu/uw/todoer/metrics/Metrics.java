@@ -0,0 +1,153 @@
+package edu.uw.todoer.metrics;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.uw.ztianai.todoer.BuildConfig;
+
+/**
+ * Counters and latency histograms for the app's hot paths, with systrace sections around the
+ * synchronous ones. Everything is keyed by name and safe to use from any thread.
+ *
+ * Only debug builds record anything: in release builds every method returns at once, and the
+ * checks against ENABLED are removed as dead code when the app is optimized.
+ *
+ * A section is timed with
+ * <pre>
+ *     long start = Metrics.begin("provider.query");
+ *     try {
+ *         ...
+ *     } finally {
+ *         Metrics.end("provider.query", start);
+ *     }
+ * </pre>
+ * and anything spanning threads or main-loop messages with now() and record(), which leave the
+ * systrace alone. The results can be read in the app or dumped as text (see dump()).
+ */
+public final class Metrics {
+
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    private static final ConcurrentMap<String, AtomicLong> sCounters = new ConcurrentHashMap<String, AtomicLong>();
+    private static final ConcurrentMap<String, Histogram> sLatencies = new ConcurrentHashMap<String, Histogram>();
+
+    //class cannot be instantiated
+    private Metrics(){}
+
+    //The time to pass to record() later, or 0 when not recording
+    public static long now() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    //Starts a systrace section and returns its start time; must be ended on the same thread
+    public static long begin(String name) {
+        if(!ENABLED){
+            return 0;
+        }
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2){
+            beginSection(name);
+        }
+        return System.nanoTime();
+    }
+
+    //Ends the section begun last, recording how long it took
+    public static void end(String name, long start) {
+        if(!ENABLED){
+            return;
+        }
+        record(name, start);
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2){
+            Trace.endSection();
+        }
+    }
+
+    //Records the time since start, as returned by now() or begin()
+    public static void record(String name, long start) {
+        if(!ENABLED){
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        Histogram histogram = sLatencies.get(name);
+        if(histogram == null){
+            sLatencies.putIfAbsent(name, new Histogram());
+            histogram = sLatencies.get(name);
+        }
+        histogram.add(nanos);
+    }
+
+    public static void count(String name) {
+        count(name, 1);
+    }
+
+    public static void count(String name, long delta) {
+        if(!ENABLED){
+            return;
+        }
+        AtomicLong counter = sCounters.get(name);
+        if(counter == null){
+            sCounters.putIfAbsent(name, new AtomicLong());
+            counter = sCounters.get(name);
+        }
+        counter.addAndGet(delta);
+    }
+
+    //The value of a counter, 0 if never counted
+    public static long getCount(String name) {
+        AtomicLong counter = sCounters.get(name);
+        return counter != null ? counter.get() : 0;
+    }
+
+    //The latencies recorded under a name, or null if none were
+    public static Histogram getLatency(String name) {
+        return sLatencies.get(name);
+    }
+
+    //Forgets everything recorded so far
+    public static void reset() {
+        sCounters.clear();
+        sLatencies.clear();
+    }
+
+    /**
+     * Writes every counter and histogram, sorted by name, one per line. Latencies are in microseconds.
+     */
+    public static void dump(PrintWriter out) {
+        if(!ENABLED){
+            out.println("Metrics are only recorded in debug builds");
+            return;
+        }
+        for(Map.Entry<String, AtomicLong> counter : new TreeMap<String, AtomicLong>(sCounters).entrySet()){
+            out.println("count   " + counter.getKey() + " " + counter.getValue().get());
+        }
+        for(Map.Entry<String, Histogram> latency : new TreeMap<String, Histogram>(sLatencies).entrySet()){
+            out.println("latency " + latency.getKey() + " " + latency.getValue());
+        }
+        out.flush();
+    }
+
+    //Writes dump() to a file, replacing it
+    public static void dump(File file) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            dump(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+}
@@ -0,0 +1,250 @@
+package edu.uw.todoer.provider;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.support.v4.util.LongSparseArray;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.uw.todoer.provider.TodoListProvider.TaskEntry;
+
+/**
+ * Keeps a single alarm set for the earliest deadline among the incomplete tasks, rather than one
+ * alarm per task. An insert can only move it earlier, which needs no query; other writes look the
+ * earliest deadline up again, a single step along the (completed, deadline) index.
+ *
+ * When the alarm goes off, every task due within BATCH_WINDOW of then is reminded of at once, so
+ * deadlines close together share one wakeup. Each task is reminded of once: remindedThrough is
+ * when the last reminder was made, and only later deadlines are looked at. The tasks that reminder
+ * covered ahead of their deadlines are kept by id and deadline, so they are not reminded of again;
+ * a task added or moved into that window afterwards still is. At most MAX_EARLY are covered early,
+ * the first due, however many fall in the window; the rest get reminders of their own.
+ *
+ * All methods are thread safe.
+ */
+class DeadlineReminders {
+
+    static final long BATCH_WINDOW = 15 * 60 * 1000; //tasks due this soon after the alarm share its reminder
+    static final int MAX_LISTED = 5; //titles a reminder lists; it still counts every task due
+    static final long NONE = Long.MAX_VALUE; //no alarm set
+    static final int MAX_EARLY = 100; //tasks a reminder covers before they are due, each stepped over by nextDeadline()
+
+    private static final String PREFS_NAME = "reminders";
+    private static final String KEY_REMINDED_THROUGH = "reminded_through";
+    private static final String KEY_REMINDED_EARLY = "reminded_early"; //"id:deadline,..."
+    private static final String KEY_ALARM_AT = "alarm_at";
+
+    private static final String WHERE_PENDING = TaskEntry.COL_COMPLETED + "=0 AND " + TaskEntry.COL_DEADLINE + ">?";
+
+    //the time, replaceable so tests can move it on
+    interface Clock {
+        long currentTimeMillis();
+    }
+
+    //the alarm that wakes the app up; setting it again replaces it
+    interface Alarm {
+        void set(long triggerAtMillis);
+        void cancel();
+    }
+
+    private final SharedPreferences prefs;
+    private final Clock clock;
+    private final Alarm alarm;
+    private long remindedThrough; //every deadline up to this has been dealt with
+    private LongSparseArray<Long> early; //deadlines of tasks reminded of before they were due, by id
+    private long alarmAt;
+
+    DeadlineReminders(SharedPreferences prefs, Clock clock, Alarm alarm) {
+        this.prefs = prefs;
+        this.clock = clock;
+        this.alarm = alarm;
+        remindedThrough = prefs.getLong(KEY_REMINDED_THROUGH, -1);
+        early = parseEarly(prefs.getString(KEY_REMINDED_EARLY, ""));
+        alarmAt = prefs.getLong(KEY_ALARM_AT, NONE);
+        if(remindedThrough < 0){ //first run: tasks already overdue are not reminded of
+            remindedThrough = clock.currentTimeMillis();
+            prefs.edit().putLong(KEY_REMINDED_THROUGH, remindedThrough).apply();
+        }
+    }
+
+    //reminders using the system clock and AlarmManager, broadcasting ACTION_REMIND to this app
+    static DeadlineReminders create(Context context) {
+        final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(TodoListProvider.ACTION_REMIND).setPackage(context.getPackageName());
+        final PendingIntent operation = PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        return new DeadlineReminders(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE),
+                new Clock() {
+                    @Override
+                    public long currentTimeMillis() {
+                        return System.currentTimeMillis();
+                    }
+                },
+                new Alarm() {
+                    @Override
+                    public void set(long triggerAtMillis) {
+                        alarmManager.set(AlarmManager.RTC_WAKEUP, triggerAtMillis, operation); //inexact from API 19, which saves wakeups
+                    }
+
+                    @Override
+                    public void cancel() {
+                        alarmManager.cancel(operation);
+                    }
+                });
+    }
+
+    synchronized long getAlarmTime() {
+        return alarmAt;
+    }
+
+    /**
+     * An incomplete task with this deadline was added; sets the alarm for it if it is due first.
+     */
+    synchronized void taskAdded(long deadline) {
+        if(deadline > remindedThrough && deadline < alarmAt){ //a new task was never reminded of
+            setAlarm(deadline);
+        }
+    }
+
+    /**
+     * Tasks were deleted, or their deadlines or completion changed; finds which is due first now.
+     */
+    synchronized void tasksChanged(SQLiteDatabase db) {
+        long next = nextDeadline(db);
+        if(next != alarmAt){
+            setAlarm(next);
+        }
+    }
+
+    /**
+     * The alarm went off (or the device restarted): returns the tasks due by now, plus BATCH_WINDOW,
+     * that have not been reminded of, and sets the alarm for the next deadline after them.
+     */
+    synchronized Bundle remind(SQLiteDatabase db) {
+        long now = clock.currentTimeMillis();
+        String[] args = {String.valueOf(remindedThrough), String.valueOf(now + BATCH_WINDOW)};
+        String where = WHERE_PENDING + " AND " + TaskEntry.COL_DEADLINE + "<=?";
+
+        //every task due since the last reminder, and the first due within the window up to MAX_EARLY
+        //in all with those the last reminder covered, which stay covered
+        List<Long> ids = new ArrayList<Long>();
+        List<String> titles = new ArrayList<String>();
+        int count = 0;
+        LongSparseArray<Long> covered = new LongSparseArray<Long>(); //due after now, so not to be reminded of again
+        int carried = 0; //of those the last reminder covered, still ahead
+        for(int i = 0; i < early.size(); i++){
+            if(early.valueAt(i) > now){
+                carried++;
+            }
+        }
+        Cursor c = db.query(TaskEntry.TABLE_NAME, new String[]{TaskEntry._ID, TaskEntry.COL_TITLE, TaskEntry.COL_DEADLINE},
+                where, args, null, null, TaskEntry.COL_DEADLINE + "," + TaskEntry._ID);
+        try {
+            while(c.moveToNext()){
+                long id = c.getLong(0);
+                long deadline = c.getLong(2);
+                Long reminded = early.get(id);
+                if(reminded != null && reminded == deadline){ //already, by the last reminder
+                    if(deadline > now){
+                        covered.put(id, deadline);
+                        carried--;
+                    }
+                    continue;
+                }
+                if(deadline > now){
+                    if(covered.size() + carried >= MAX_EARLY){ //this and later ones are reminded of when due
+                        if(carried <= 0){
+                            break;
+                        }
+                        continue;
+                    }
+                    covered.put(id, deadline);
+                }
+                count++;
+                if(ids.size() < MAX_LISTED){
+                    ids.add(id);
+                    titles.add(c.getString(1));
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        Bundle due = new Bundle();
+        due.putInt(TodoListProvider.REMIND_COUNT, count);
+        if(count > 0){
+            long[] listed = new long[ids.size()];
+            for(int i = 0; i < listed.length; i++){
+                listed[i] = ids.get(i);
+            }
+            due.putLongArray(TodoListProvider.REMIND_IDS, listed);
+            due.putStringArray(TodoListProvider.REMIND_TITLES, titles.toArray(new String[titles.size()]));
+        }
+
+        remindedThrough = Math.max(remindedThrough, now); //the clock may have been set back
+        early = covered;
+        prefs.edit().putLong(KEY_REMINDED_THROUGH, remindedThrough).putString(KEY_REMINDED_EARLY, formatEarly(early)).apply();
+
+        setAlarm(nextDeadline(db)); //even if unchanged, as a restart clears alarms
+        return due;
+    }
+
+    //the earliest deadline not reminded of yet, or NONE
+    private long nextDeadline(SQLiteDatabase db) {
+        //still a range of the (completed, deadline) index, stepping over the few tasks reminded of early;
+        //MAX_EARLY keeps the arguments well under SQLite's limit of 999
+        StringBuilder where = new StringBuilder(WHERE_PENDING);
+        String[] args = new String[1 + 2 * early.size()];
+        args[0] = String.valueOf(remindedThrough);
+        for(int i = 0; i < early.size(); i++){
+            where.append(" AND NOT (" + TaskEntry._ID + "=? AND " + TaskEntry.COL_DEADLINE + "=?)");
+            args[1 + 2 * i] = String.valueOf(early.keyAt(i));
+            args[2 + 2 * i] = String.valueOf(early.valueAt(i));
+        }
+        Cursor c = db.query(TaskEntry.TABLE_NAME, new String[]{TaskEntry.COL_DEADLINE}, where.toString(),
+                args, null, null, TaskEntry.COL_DEADLINE, "1");
+        try {
+            return c.moveToFirst() ? c.getLong(0) : NONE;
+        } finally {
+            c.close();
+        }
+    }
+
+    private static LongSparseArray<Long> parseEarly(String saved) {
+        LongSparseArray<Long> early = new LongSparseArray<Long>();
+        for(String pair : TextUtils.split(saved, ",")){
+            String[] parts = pair.split(":");
+            early.put(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+        }
+        return early;
+    }
+
+    private static String formatEarly(LongSparseArray<Long> early) {
+        StringBuilder saved = new StringBuilder();
+        for(int i = 0; i < early.size(); i++){
+            if(i > 0){
+                saved.append(',');
+            }
+            saved.append(early.keyAt(i)).append(':').append(early.valueAt(i));
+        }
+        return saved.toString();
+    }
+
+    private void setAlarm(long at) {
+        alarmAt = at;
+        if(at == NONE){
+            alarm.cancel();
+        }else{
+            alarm.set(at);
+        }
+        prefs.edit().putLong(KEY_ALARM_AT, alarmAt).apply();
+    }
+}
@@ -0,0 +1,151 @@
+package edu.uw.todoer.provider;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * When a repeating task recurs: every interval days, weeks, months or years from its first deadline,
+ * in the device's time zone, optionally only count times. Written as a subset of an iCalendar
+ * RRULE, e.g. "FREQ=WEEKLY;INTERVAL=2;COUNT=10", and stored as that in the task's recurrence column.
+ *
+ * Occurrences are worked out from the first one, not from each other, so a monthly task due on the
+ * 31st falls on the last day of shorter months and is back on the 31st after them.
+ */
+public final class Recurrence {
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    public enum Frequency {
+        //the shortest each unit can be, allowing for a daylight saving change
+        DAILY(Calendar.DAY_OF_MONTH, DAY_MILLIS - HOUR_MILLIS),
+        WEEKLY(Calendar.WEEK_OF_YEAR, 7 * DAY_MILLIS - HOUR_MILLIS),
+        MONTHLY(Calendar.MONTH, 28 * DAY_MILLIS - HOUR_MILLIS),
+        YEARLY(Calendar.YEAR, 365 * DAY_MILLIS - HOUR_MILLIS);
+
+        final int field;
+        final long shortest;
+
+        Frequency(int field, long shortest) {
+            this.field = field;
+            this.shortest = shortest;
+        }
+    }
+
+    public final Frequency frequency;
+    public final int interval;
+    public final int count; //0 for no end
+
+    public Recurrence(Frequency frequency, int interval, int count) {
+        if(frequency == null || interval < 1 || count < 0){
+            throw new IllegalArgumentException("Bad recurrence " + frequency + " " + interval + " " + count);
+        }
+        this.frequency = frequency;
+        this.interval = interval;
+        this.count = count;
+    }
+
+    /**
+     * Reads a rule as written by toString(). FREQ is required; INTERVAL defaults to 1.
+     *
+     * @throws IllegalArgumentException if the rule is malformed or uses parts not supported
+     */
+    public static Recurrence parse(String rule) {
+        if(rule == null){
+            throw new IllegalArgumentException("No recurrence rule");
+        }
+        Frequency frequency = null;
+        int interval = 1;
+        int count = 0;
+        try {
+            for(String part : rule.split(";")){
+                int equals = part.indexOf('=');
+                String name = equals > 0 ? part.substring(0, equals).trim().toUpperCase(Locale.US) : part;
+                String value = part.substring(equals + 1).trim();
+                if("FREQ".equals(name)){
+                    try {
+                        frequency = Frequency.valueOf(value.toUpperCase(Locale.US));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Unsupported recurrence " + part + " in " + rule, e);
+                    }
+                }else if("INTERVAL".equals(name)){
+                    interval = Integer.parseInt(value);
+                }else if("COUNT".equals(name)){
+                    count = Integer.parseInt(value);
+                    if(count < 1){
+                        throw new IllegalArgumentException("Bad recurrence count in " + rule);
+                    }
+                }else{
+                    throw new IllegalArgumentException("Unsupported recurrence " + part + " in " + rule);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed recurrence " + rule, e);
+        }
+        if(frequency == null){
+            throw new IllegalArgumentException("No FREQ in recurrence " + rule);
+        }
+        return new Recurrence(frequency, interval, count);
+    }
+
+    /**
+     * The occurrences of a task first due at start, from one time up to, but not including, another.
+     * Finding the first takes a binary search, so how far from start the window is doesn't matter.
+     *
+     * @param max the most to return
+     */
+    public long[] between(long start, long from, long until, int max) {
+        long[] occurrences = new long[16];
+        int size = 0;
+        Calendar calendar = Calendar.getInstance();
+        for(long n = firstAtOrAfter(calendar, start, from); size < max && (count == 0 || n < count); n++){
+            long time = occurrence(calendar, start, n);
+            if(time >= until){
+                break;
+            }
+            if(size == occurrences.length){
+                occurrences = Arrays.copyOf(occurrences, size * 2);
+            }
+            occurrences[size++] = time;
+        }
+        return Arrays.copyOf(occurrences, size);
+    }
+
+    //whether a task first due at start is due at time
+    public boolean occursAt(long start, long time) {
+        Calendar calendar = Calendar.getInstance();
+        long n = firstAtOrAfter(calendar, start, time);
+        return (count == 0 || n < count) && occurrence(calendar, start, n) == time;
+    }
+
+    //the index of the first occurrence at or after time
+    private long firstAtOrAfter(Calendar calendar, long start, long time) {
+        if(time <= start){
+            return 0;
+        }
+        long low = 0;
+        long high = (time - start) / (frequency.shortest * interval) + 1; //due after time, however long its units
+        while(low < high){
+            long mid = (low + high) >>> 1;
+            if(occurrence(calendar, start, mid) < time){
+                low = mid + 1;
+            }else{
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    //the nth occurrence, counting the first as 0
+    private long occurrence(Calendar calendar, long start, long n) {
+        calendar.setTimeInMillis(start);
+        calendar.add(frequency.field, (int) Math.min(Integer.MAX_VALUE, n * interval));
+        return calendar.getTimeInMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "FREQ=" + frequency + (interval != 1 ? ";INTERVAL=" + interval : "") + (count != 0 ? ";COUNT=" + count : "");
+    }
+}
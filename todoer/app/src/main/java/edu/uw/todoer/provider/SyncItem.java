@@ -0,0 +1,19 @@
+package edu.uw.todoer.provider;
+
+/**
+ * Convenience class of constants for working with the changes TodoListProvider syncs, see TaskSync.
+ * A change also has its task's columns, named as in TodoItem, unless it is a deletion; an
+ * occurrence names its series by SERIES rather than TodoItem.SERIES_ID, which differs on each device.
+ */
+public class SyncItem {
+
+    public static final String ID = TodoListProvider.SyncEntry._ID; //the change's position in the log
+    public static final String SYNC_ID = TodoListProvider.TaskEntry.COL_SYNC_ID; //the task's id on every device
+    public static final String UPDATED_AT = TodoListProvider.TaskEntry.COL_TIME_UPDATED; //when the task last changed, or was deleted
+    public static final String DELETED = "deleted"; //1 if the task was deleted
+    public static final String SERIES = "series_sync_id"; //an occurrence's series, by its SYNC_ID
+
+    //the columns of SYNC_STATE_URI
+    public static final String CLIENT_ID = TodoListProvider.SyncEntry.COL_CLIENT_ID;
+    public static final String CURSOR = TodoListProvider.SyncEntry.COL_CURSOR;
+}
@@ -0,0 +1,148 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import edu.uw.todoer.provider.TodoListProvider.SyncEntry;
+import edu.uw.todoer.provider.TodoListProvider.TaskEntry;
+
+/**
+ * The local side of syncing. Triggers log every insert, update and delete of a task, archived or
+ * not, one row per task holding just its sync id, so the log stays as small as the set of tasks
+ * changed however often each changed; the task's current columns are read when it is pushed.
+ * Deleted tasks leave a tombstone row, with the time they were deleted, until it has been pushed.
+ *
+ * Changes pulled from the server are applied through the same tables, and the rows their writes
+ * log are then dropped so they are not pushed back. Repeating tasks sync like any other: a series
+ * with its rule, an occurrence with its time and the sync id of its series.
+ *
+ * Methods must be called on the writable database.
+ */
+class SyncLog {
+
+    /**
+     * The logged changes, with each task's columns from whichever table it is in, under the names
+     * in SyncItem and TodoItem. Tombstones have only their sync id and the time of the deletion.
+     */
+    static final String CHANGES = "(SELECT " +
+            "c." + SyncEntry._ID + " AS " + SyncItem.ID + "," +
+            "c." + SyncEntry.COL_SYNC_ID + " AS " + SyncItem.SYNC_ID + "," +
+            "c." + SyncEntry.COL_TIME_DELETED + " IS NOT NULL AS " + SyncItem.DELETED + "," +
+            "ifnull(c." + SyncEntry.COL_TIME_DELETED + ",ifnull(t." + TaskEntry.COL_TIME_UPDATED + ",a." +
+            TaskEntry.COL_TIME_UPDATED + ")) AS " + SyncItem.UPDATED_AT + "," +
+            either(TaskEntry.COL_TITLE) + "," +
+            either(TaskEntry.COL_DETAILS) + "," +
+            either(TaskEntry.COL_DEADLINE) + "," +
+            either(TaskEntry.COL_TIME_CREATED) + "," +
+            either(TaskEntry.COL_COMPLETED) + "," +
+            either(TaskEntry.COL_RECURRENCE) + "," +
+            either(TaskEntry.COL_OCCURRENCE) + "," +
+            "ifnull(" + seriesSyncId(TaskEntry.TABLE_NAME) + "," + seriesSyncId(TaskEntry.ARCHIVE_TABLE_NAME) + ") AS " +
+            SyncItem.SERIES +
+            " FROM " + SyncEntry.TABLE_NAME + " c" +
+            " LEFT JOIN " + TaskEntry.TABLE_NAME + " t ON t." + TaskEntry._ID + "=c." + SyncEntry.COL_TASK_ID +
+            " LEFT JOIN " + TaskEntry.ARCHIVE_TABLE_NAME + " a ON a." + TaskEntry._ID + "=c." + SyncEntry.COL_TASK_ID + ")";
+
+    //the columns a change sets on its task, besides the series taskValues() looks up
+    static final String[] TASK_COLUMNS = {TaskEntry.COL_TITLE, TaskEntry.COL_DETAILS, TaskEntry.COL_DEADLINE,
+            TaskEntry.COL_TIME_CREATED, TaskEntry.COL_COMPLETED, TaskEntry.COL_RECURRENCE, TaskEntry.COL_OCCURRENCE};
+
+    //the local copy of a task, or its tombstone, by sync id (bound as ?1)
+    private static final String FIND =
+            "SELECT " + TaskEntry._ID + "," + TaskEntry.COL_TIME_UPDATED + ",0 FROM " + TaskEntry.TABLE_NAME +
+                    " WHERE " + TaskEntry.COL_SYNC_ID + "=?1" +
+            " UNION ALL SELECT " + TaskEntry._ID + "," + TaskEntry.COL_TIME_UPDATED + ",1 FROM " + TaskEntry.ARCHIVE_TABLE_NAME +
+                    " WHERE " + TaskEntry.COL_SYNC_ID + "=?1" +
+            " UNION ALL SELECT " + SyncEntry.COL_TASK_ID + "," + SyncEntry.COL_TIME_DELETED + ",2 FROM " + SyncEntry.TABLE_NAME +
+                    " WHERE " + SyncEntry.COL_SYNC_ID + "=?1 AND " + SyncEntry.COL_TIME_DELETED + " IS NOT NULL" +
+            " LIMIT 1";
+
+    //A task as it is here, for deciding whether a pulled change replaces it
+    static class Local {
+        final long id;
+        final long updatedAt;
+        final boolean archived;
+        final boolean deleted; //only a tombstone is left
+
+        Local(long id, long updatedAt, int where) {
+            this.id = id;
+            this.updatedAt = updatedAt;
+            this.archived = where == 1;
+            this.deleted = where == 2;
+        }
+    }
+
+    //class cannot be instantiated
+    private SyncLog(){}
+
+    private static String either(String column) {
+        return "ifnull(t." + column + ",a." + column + ") AS " + column;
+    }
+
+    //the sync id of the changed task's series, if it is an occurrence and the series is in the table
+    private static String seriesSyncId(String table) {
+        return "(SELECT s." + TaskEntry.COL_SYNC_ID + " FROM " + table + " s WHERE s." + TaskEntry._ID +
+                "=ifnull(t." + TaskEntry.COL_SERIES_ID + ",a." + TaskEntry.COL_SERIES_ID + "))";
+    }
+
+    //The task with a sync id, or its tombstone; null if this device has never had it
+    static Local find(SQLiteDatabase db, String syncId) {
+        Cursor c = db.rawQuery(FIND, new String[]{syncId});
+        try {
+            return c.moveToFirst() ? new Local(c.getLong(0), c.getLong(1), c.getInt(2)) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * The task columns of a pulled change, as TaskCache and the tasks table take them; null for a deletion.
+     * An occurrence is linked to the series here with its sync id; if there is none, it is kept as a task of its own.
+     */
+    static ContentValues taskValues(SQLiteDatabase db, ContentValues change) {
+        Boolean deleted = change.getAsBoolean(SyncItem.DELETED);
+        if(deleted != null && deleted){
+            return null;
+        }
+        ContentValues values = new ContentValues();
+        for(String column : TASK_COLUMNS){
+            Object value = change.get(column);
+            if(value == null){
+                values.putNull(column);
+            }else if(value instanceof String){
+                values.put(column, (String) value);
+            }else if(value instanceof Boolean){
+                values.put(column, ((Boolean) value) ? 1L : 0L);
+            }else{
+                values.put(column, ((Number) value).longValue());
+            }
+        }
+        String seriesSyncId = change.getAsString(SyncItem.SERIES);
+        Local series = seriesSyncId != null ? find(db, seriesSyncId) : null;
+        if(series != null && !series.deleted){
+            values.put(TaskEntry.COL_SERIES_ID, series.id);
+        }else{
+            values.putNull(TaskEntry.COL_SERIES_ID);
+            values.putNull(TaskEntry.COL_OCCURRENCE);
+        }
+        return values;
+    }
+
+    //The position of the latest logged change, so the ones logged after it can be dropped
+    static long lastChange(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT ifnull(max(" + SyncEntry._ID + "),0) FROM " + SyncEntry.TABLE_NAME, null);
+    }
+
+    //Drops the changes logged after a position: the writes of pulled changes, which the server already has
+    static void forget(SQLiteDatabase db, long after) {
+        db.delete(SyncEntry.TABLE_NAME, SyncEntry._ID + ">?", new String[]{String.valueOf(after)});
+    }
+
+    static void setCursor(SQLiteDatabase db, long cursor) {
+        ContentValues values = new ContentValues();
+        values.put(SyncEntry.COL_CURSOR, cursor);
+        db.update(SyncEntry.STATE_TABLE_NAME, values, null, null);
+    }
+}
@@ -0,0 +1,12 @@
+package edu.uw.todoer.provider;
+
+/**
+ * Convenience class of constants for working with the tags of the TodoListProvider
+ */
+public class TagItem {
+
+    public static final String ID = TodoListProvider.TagEntry._ID;
+    public static final String NAME = TodoListProvider.TagEntry.COL_NAME;
+    public static final String TASK_COUNT = TodoListProvider.TagEntry.COL_TASK_COUNT;
+    public static final String TODO_COUNT = TodoListProvider.TagEntry.COL_TODO_COUNT;
+}
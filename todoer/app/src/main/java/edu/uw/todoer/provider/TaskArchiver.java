@@ -0,0 +1,129 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import edu.uw.todoer.provider.TodoListProvider.TaskEntry;
+
+/**
+ * Moves tasks completed long ago out of the tasks table into the archive table, so the tasks
+ * table (and the to-do list's indexes and the cache) only hold what is current. Archived tasks
+ * keep their ids and every column; ALL_TASKS_URI reads both tables, and a task's own Uri still
+ * finds it. Editing an archived task brings it back into the tasks table first.
+ *
+ * Methods must be called inside a transaction on the writable database.
+ */
+class TaskArchiver {
+
+    static final int BATCH_SIZE = TaskFilter.MAX_IDS; //tasks moved per transaction, so other writes get in between
+
+    //every column, in the same order in both tables
+    static final String[] COLUMNS = {
+            TaskEntry._ID,
+            TaskEntry.COL_TIME_CREATED,
+            TaskEntry.COL_TITLE,
+            TaskEntry.COL_DETAILS,
+            TaskEntry.COL_DEADLINE,
+            TaskEntry.COL_COMPLETED,
+            TaskEntry.COL_TIME_COMPLETED,
+            TaskEntry.COL_SYNC_ID,
+            TaskEntry.COL_TIME_UPDATED,
+            TaskEntry.COL_RECURRENCE,
+            TaskEntry.COL_SERIES_ID,
+            TaskEntry.COL_OCCURRENCE
+    };
+
+    //the columns before these are the ones TaskCache holds, which restore() returns
+    private static final int FIRST_NOT_CACHED = 6;
+
+    private static final String COLUMN_LIST = TextUtils.join(",", COLUMNS);
+
+    private static final String WHERE_ARCHIVABLE =
+            TaskEntry.COL_COMPLETED + "=1 AND " + TaskEntry.COL_TIME_COMPLETED + "<?";
+
+    //class cannot be instantiated
+    private TaskArchiver(){}
+
+    /**
+     * Moves up to BATCH_SIZE tasks completed before the cutoff into the archive.
+     *
+     * @return the ids of the tasks moved; fewer than BATCH_SIZE when there are no more to move
+     */
+    static long[] archiveBatch(SQLiteDatabase db, long cutoff) {
+        Cursor c = db.query(TaskEntry.TABLE_NAME, new String[]{TaskEntry._ID}, WHERE_ARCHIVABLE,
+                new String[]{String.valueOf(cutoff)}, null, null, null, String.valueOf(BATCH_SIZE));
+        long[] ids;
+        try {
+            ids = new long[c.getCount()];
+            for(int i = 0; c.moveToNext(); i++){
+                ids[i] = c.getLong(0);
+            }
+        } finally {
+            c.close();
+        }
+        if(ids.length == 0){
+            return ids;
+        }
+
+        //bound, so a full batch is the same three statements every time
+        TaskFilter batch = TaskFilter.all().ids(ids);
+        String where = batch.getSelection();
+        Object[] args = batch.getSelectionArgs();
+
+        db.execSQL("INSERT INTO " + TaskEntry.ARCHIVE_TABLE_NAME + "(" + COLUMN_LIST + ")" +
+                " SELECT " + COLUMN_LIST + " FROM " + TaskEntry.TABLE_NAME + " WHERE " + where, args);
+        db.execSQL("DELETE FROM " + TaskEntry.TABLE_NAME + " WHERE " + where, args);
+        //the delete trigger took them out of the search index; archived tasks are still searched
+        db.execSQL("INSERT INTO " + TaskEntry.SEARCH_TABLE_NAME + "(docid," + TaskEntry.COL_TITLE + "," + TaskEntry.COL_DETAILS + ")" +
+                " SELECT " + TaskEntry._ID + "," + TaskEntry.COL_TITLE + "," + TaskEntry.COL_DETAILS +
+                " FROM " + TaskEntry.ARCHIVE_TABLE_NAME + " WHERE " + where, args);
+        return ids;
+    }
+
+    /**
+     * Moves an archived task back into the tasks table, keeping its id and every column.
+     *
+     * @return the columns TaskCache holds other than _id, or null if it was not archived
+     */
+    static ContentValues restore(SQLiteDatabase db, long id) {
+        String[] args = {String.valueOf(id)};
+        Cursor c = db.query(TaskEntry.ARCHIVE_TABLE_NAME, COLUMNS, TaskEntry._ID + "=?", args, null, null, null);
+        ContentValues values = new ContentValues();
+        try {
+            if(!c.moveToFirst()){
+                return null;
+            }
+            for(int i = 1; i < FIRST_NOT_CACHED; i++){
+                copy(c, i, values);
+            }
+            ContentValues row = new ContentValues(values);
+            row.put(TaskEntry._ID, id);
+            for(int i = FIRST_NOT_CACHED; i < COLUMNS.length; i++){
+                copy(c, i, row);
+            }
+            //deleted first, so the search index drops its entry before the tasks table's trigger adds it back
+            db.delete(TaskEntry.ARCHIVE_TABLE_NAME, TaskEntry._ID + "=?", args);
+            db.insertOrThrow(TaskEntry.TABLE_NAME, null, row);
+        } finally {
+            c.close();
+        }
+        return values;
+    }
+
+    //copies a column of the cursor as the type it is stored as
+    private static void copy(Cursor c, int index, ContentValues values) {
+        switch(c.getType(index)){
+            case Cursor.FIELD_TYPE_NULL:
+                values.putNull(COLUMNS[index]);
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                values.put(COLUMNS[index], c.getLong(index));
+                break;
+            default:
+                values.put(COLUMNS[index], c.getString(index));
+                break;
+        }
+    }
+}
@@ -0,0 +1,509 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.v4.util.LongSparseArray;
+
+import java.util.Arrays;
+
+import edu.uw.todoer.provider.TodoListProvider.TaskEntry;
+
+/**
+ * An in-memory copy of the start of each task list, so the lists and the detail view can be served
+ * without touching the disk however big the table is. Each list filter and sort order gets a sorted
+ * view holding its first WINDOW rows (all of them if it has no more), read in with one query the
+ * first time it is asked for; the provider writes every change through to it.
+ *
+ * All methods are thread safe. Queries it can't answer (any selection other than the list
+ * filters, other columns, search, pages reaching past the end of a view that does not hold its
+ * whole list, counts of such a list) are left to SQLite and counted as misses.
+ *
+ * A view is kept in order as tasks change: a write moves just the rows it touched, found by
+ * binary search, so switching the sort or editing one task never re-sorts the list. A view that
+ * does not hold its whole list stays an exact prefix of it: a row sorting within it is added, and
+ * pushes its last row out if it is full; a row sorting after it is left to SQLite.
+ */
+class TaskCache {
+
+    static final int WINDOW = 1000; //rows kept of each list: its first 20 pages, as PagedTaskAdapter loads them
+
+    //the selections the lists use, and the rows they pick
+    private static final String[] FILTERS = {null, TaskEntry.COL_COMPLETED + "=0", TaskEntry.COL_COMPLETED + "=1"};
+    private static final int ALL = 0, TODO = 1, COMPLETED = 2;
+
+    //the orders the lists use
+    private static final int BY_ID = 0, BY_DEADLINE = 1, BY_CREATED = 2;
+    private static final String[] ORDERS = {TaskEntry._ID, TaskEntry.COL_DEADLINE + "," + TaskEntry._ID,
+            TaskEntry.COL_TIME_CREATED + "," + TaskEntry._ID};
+
+    private static final String[] COLUMNS = {TaskEntry._ID, TaskEntry.COL_TITLE, TaskEntry.COL_DETAILS,
+            TaskEntry.COL_DEADLINE, TaskEntry.COL_TIME_CREATED, TaskEntry.COL_COMPLETED};
+
+    private static final String COUNT = "count(*)";
+
+    //a cached task; replaced rather than changed, so rows handed out stay consistent
+    private static class Row {
+        final long id;
+        final String title;
+        final String details;
+        final long deadline; //NO_DEADLINE if NULL, sorting first as in SQLite
+        final long createdAt;
+        final long completed;
+
+        Row(long id, String title, String details, long deadline, long createdAt, long completed) {
+            this.id = id;
+            this.title = title;
+            this.details = details;
+            this.deadline = deadline;
+            this.createdAt = createdAt;
+            this.completed = completed;
+        }
+
+        long sortKey(int order) {
+            return order == BY_DEADLINE ? deadline : (order == BY_CREATED ? createdAt : id);
+        }
+
+        Object get(String column) {
+            if(TaskEntry._ID.equals(column)) return id;
+            if(TaskEntry.COL_TITLE.equals(column)) return title;
+            if(TaskEntry.COL_DETAILS.equals(column)) return details;
+            if(TaskEntry.COL_DEADLINE.equals(column)) return deadline != TodoListProvider.NO_DEADLINE ? deadline : null;
+            if(TaskEntry.COL_TIME_CREATED.equals(column)) return createdAt;
+            return completed;
+        }
+    }
+
+    //the first rows of one list filter, kept sorted by (sort key, _id) as they change
+    private static class SortedView {
+        final int filter;
+        final int order;
+        Row[] list;
+        int size;
+        boolean whole; //holds every row of the list, rather than its first WINDOW
+
+        SortedView(int filter, int order, Row[] list, int size, boolean whole) {
+            this.filter = filter;
+            this.order = order;
+            this.list = list;
+            this.size = size;
+            this.whole = whole;
+        }
+
+        boolean accepts(Row row) {
+            return filter == ALL || (filter == TODO && row.completed == 0) || (filter == COMPLETED && row.completed == 1);
+        }
+
+        //whether every row of the list up to the {sort key, _id} key is here
+        boolean covers(long key, long id) {
+            return whole || (size > 0 && compareKeys(key, id, list[size - 1].sortKey(order), list[size - 1].id) <= 0);
+        }
+
+        //index of the first row at or after the {sort key, _id} key
+        int search(long key, long id) {
+            int low = 0, high = size;
+            while(low < high){
+                int mid = (low + high) >>> 1;
+                if(compareKeys(list[mid].sortKey(order), list[mid].id, key, id) < 0){
+                    low = mid + 1;
+                }else{
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        boolean holds(Row row) {
+            int i = search(row.sortKey(order), row.id);
+            return i < size && list[i].id == row.id;
+        }
+
+        /**
+         * Moves a task from where old sorted to where row sorts; either may be null, and either
+         * may sort past the end of the view. Returns the row pushed out of a full view, or null.
+         */
+        Row replace(Row old, Row row) {
+            if(old != null && accepts(old) && holds(old)){
+                int i = search(old.sortKey(order), old.id);
+                System.arraycopy(list, i + 1, list, i, size - i - 1);
+                list[--size] = null;
+            }
+            if(row != null && accepts(row) && covers(row.sortKey(order), row.id)){
+                int i = search(row.sortKey(order), row.id);
+                if(size == list.length){
+                    list = Arrays.copyOf(list, size * 2);
+                }
+                System.arraycopy(list, i, list, i + 1, size - i);
+                list[i] = row;
+                size++;
+                if(size > WINDOW){
+                    whole = false;
+                    Row last = list[--size];
+                    list[size] = null;
+                    return last;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final LongSparseArray<Row> rows = new LongSparseArray<Row>(); //by _id, every row some view holds
+    private long version; //bumped on every write, so a load racing one is thrown away
+    private final SortedView[] views = new SortedView[FILTERS.length * 3]; //by filter and order, read in when first asked for
+    private final boolean[] unsorted = new boolean[views.length]; //lists with NULLs the views can't hold; reset by invalidate()
+
+    private long hits;
+    private long misses;
+
+    synchronized long getHitCount() {
+        return hits;
+    }
+
+    synchronized long getMissCount() {
+        return misses;
+    }
+
+    synchronized void miss() {
+        misses++;
+    }
+
+    /**
+     * Answers a query on one task, or returns null if the cache can't: it has only the tasks
+     * at the start of the lists read in so far, which are the ones there is a detail view to open.
+     */
+    Cursor queryTask(SQLiteDatabase db, long id, String[] projection, String selection) {
+        if(selection != null || !columnsKnown(projection)){
+            miss();
+            return null;
+        }
+        synchronized (this) {
+            Row row = rows.get(id);
+            if(row == null){
+                misses++;
+                return null;
+            }
+            hits++;
+            MatrixCursor cursor = new MatrixCursor(projection, 1);
+            addRow(cursor, row, projection);
+            return cursor;
+        }
+    }
+
+    /**
+     * Answers a (possibly paged) list query, or returns null if the cache can't.
+     *
+     * @param after the {sort key, _id} to start after, or null
+     * @param before the {sort key, _id} to end before, walking backwards, or null
+     * @param limit the maximum number of rows, or null for all of them
+     */
+    Cursor queryList(SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs,
+                     String sortOrder, long[] after, long[] before, String limit) {
+        int filter = Arrays.asList(FILTERS).indexOf(selection);
+        boolean count = projection != null && projection.length == 1 && COUNT.equals(projection[0]);
+        int order = sortOrder == null || TaskEntry._ID.equals(sortOrder) ? BY_ID : (TaskEntry.COL_DEADLINE.equals(sortOrder) ? BY_DEADLINE
+                : (TaskEntry.COL_TIME_CREATED.equals(sortOrder) ? BY_CREATED : -1));
+        int max = Integer.MAX_VALUE;
+        try {
+            if(limit != null){
+                max = Integer.parseInt(limit);
+            }
+        } catch (NumberFormatException e) {
+            max = -1;
+        }
+        if(filter < 0 || selectionArgs != null || order < 0 || max < 0 || (!count && !columnsKnown(projection))
+                || !ensureView(db, filter, order)){
+            miss();
+            return null;
+        }
+
+        synchronized (this) {
+            SortedView view = views[filter * 3 + order]; //with no sort order, rows come in _id order like a table scan
+            int from, to, step;
+            if(before != null){ //backwards from just before the key
+                from = view != null && view.covers(before[0], before[1]) ? view.search(before[0], before[1]) - 1 : -2;
+                to = -1;
+                step = -1;
+            }else{
+                from = view != null ? (after != null ? view.search(after[0], after[1] + 1) : 0) : -2;
+                to = view != null ? view.size : 0;
+                step = 1;
+            }
+            //a write since ensureView() may have dropped the view; a page, or a count, may need rows past its end
+            if(from < -1 || (!view.whole && step > 0 && (count || max > to - from))){
+                misses++;
+                return null;
+            }
+            hits++;
+
+            if(count){ //one row, so the limit doesn't apply
+                MatrixCursor cursor = new MatrixCursor(projection, 1);
+                cursor.addRow(new Object[]{(to - from) * step});
+                return cursor;
+            }
+            int n = Math.max(0, Math.min(max, (to - from) * step));
+            MatrixCursor cursor = new MatrixCursor(projection, n);
+            for(int i = 0; i < n; i++){
+                addRow(cursor, view.list[from + i * step], projection);
+            }
+            return cursor;
+        }
+    }
+
+    //reads in the first rows of a list if they are not already; returns false if they can't be held
+    private boolean ensureView(SQLiteDatabase db, int filter, int order) {
+        int slot = filter * 3 + order;
+        long loadVersion;
+        synchronized (this) {
+            if(views[slot] != null || unsorted[slot]){
+                return views[slot] != null;
+            }
+            loadVersion = version;
+        }
+
+        Row[] list = new Row[WINDOW + 1];
+        int size = 0;
+        boolean sorts = true;
+        Cursor c = db.query(TaskEntry.TABLE_NAME, COLUMNS, FILTERS[filter], null, null, null, ORDERS[order],
+                String.valueOf(WINDOW + 1));
+        try {
+            while(sorts && c.moveToNext()){
+                if(c.isNull(4) || c.isNull(5)){ //sorts differently, or has values a row can't hold
+                    sorts = false;
+                }else{
+                    list[size++] = new Row(c.getLong(0), c.getString(1), c.getString(2),
+                            c.isNull(3) ? TodoListProvider.NO_DEADLINE : c.getLong(3), c.getLong(4), c.getLong(5));
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        synchronized (this) {
+            if(version != loadVersion){ //a write landed meanwhile, so this copy may be stale; try again next time
+                return false;
+            }
+            if(!sorts){
+                unsorted[slot] = true;
+                return false;
+            }
+            boolean whole = size <= WINDOW;
+            if(!whole){
+                list[--size] = null;
+            }
+            for(int i = 0; i < size; i++){
+                Row held = rows.get(list[i].id);
+                if(held != null){
+                    list[i] = held; //the same task, as writes keep both current
+                }else{
+                    rows.put(list[i].id, list[i]);
+                }
+            }
+            views[slot] = new SortedView(filter, order, list, size, whole);
+            return true;
+        }
+    }
+
+    /**
+     * Records an inserted task; values must hold every column, as the provider fills them in.
+     */
+    synchronized void insert(long id, ContentValues values) {
+        written();
+        Row row = toRow(id, values, null);
+        if(row == null){
+            invalidate();
+        }else{
+            reposition(null, row);
+        }
+    }
+
+    /**
+     * Records the changed values of the given tasks; ids is null if they were too many to list.
+     */
+    synchronized void update(long[] ids, ContentValues values) {
+        written();
+        if(ids == null){
+            invalidate();
+            return;
+        }
+        for(long id : ids){
+            Row old = rows.get(id);
+            if(old == null){ //in no view, but it may move into some, with columns the cache has not got
+                dropViews(values);
+                continue;
+            }
+            Row row = toRow(id, values, old);
+            if(row == null){ //a column or value the cache can't hold
+                invalidate();
+                return;
+            }
+            reposition(old, row);
+        }
+    }
+
+    /**
+     * Records the deletion of the given tasks; ids is null if they were too many to list.
+     */
+    synchronized void delete(long[] ids) {
+        written();
+        Arrays.fill(unsorted, false); //might sort now
+        if(ids == null){
+            invalidate();
+            return;
+        }
+        for(long id : ids){
+            Row old = rows.get(id);
+            if(old != null){
+                reposition(old, null);
+            }
+        }
+    }
+
+    //Drop everything; the next query reads the lists in again
+    synchronized void invalidate() {
+        written();
+        rows.clear();
+        Arrays.fill(views, null);
+        Arrays.fill(unsorted, false);
+    }
+
+    private void written() {
+        version++;
+    }
+
+    //moves a changed task within every view read in so far, keeping rows to the tasks some view holds
+    private void reposition(Row old, Row row) {
+        if(old != null){
+            rows.remove(old.id);
+        }
+        for(int i = 0; i < views.length; i++){
+            SortedView view = views[i];
+            if(view == null){
+                continue;
+            }
+            Row pushed = view.replace(old, row);
+            if(pushed != null && !held(pushed)){
+                rows.remove(pushed.id);
+            }
+            if(!view.whole && view.size == 0){ //nothing left to answer from; read in again when next asked for
+                views[i] = null;
+            }
+        }
+        if(row != null && held(row)){
+            rows.put(row.id, row);
+        }
+    }
+
+    private boolean held(Row row) {
+        for(SortedView view : views){
+            if(view != null && view.accepts(row) && view.holds(row)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //drops the views a task could move into by changing these values, and the rows only they held
+    private void dropViews(ContentValues values) {
+        boolean completed = values.containsKey(TaskEntry.COL_COMPLETED);
+        boolean deadline = values.containsKey(TaskEntry.COL_DEADLINE);
+        boolean created = values.containsKey(TaskEntry.COL_TIME_CREATED);
+        boolean dropped = false;
+        for(int i = 0; i < views.length; i++){
+            SortedView view = views[i];
+            if(view != null && ((completed && view.filter != ALL) || (deadline && view.order == BY_DEADLINE)
+                    || (created && view.order == BY_CREATED))){
+                views[i] = null;
+                dropped = true;
+            }
+        }
+        for(int i = rows.size() - 1; dropped && i >= 0; i--){
+            if(!held(rows.valueAt(i))){
+                rows.removeAt(i);
+            }
+        }
+    }
+
+    private static int compareKeys(long key, long id, long otherKey, long otherId) {
+        if(key != otherKey){
+            return key < otherKey ? -1 : 1;
+        }
+        return id < otherId ? -1 : (id == otherId ? 0 : 1);
+    }
+
+    //a copy of old (or a new row) with the values applied, or null if they can't be cached
+    private static Row toRow(long id, ContentValues values, Row old) {
+        String title = old != null ? old.title : null;
+        String details = old != null ? old.details : null;
+        long deadline = old != null ? old.deadline : 0;
+        long createdAt = old != null ? old.createdAt : 0;
+        long completed = old != null ? old.completed : 0;
+        int found = 0;
+        for(String column : values.keySet()){
+            Object value = values.get(column);
+            if(TaskEntry.COL_TITLE.equals(column)){
+                title = value != null ? value.toString() : null;
+            }else if(TaskEntry.COL_DETAILS.equals(column)){
+                details = value != null ? value.toString() : null;
+            }else if(TaskEntry.COL_RECURRENCE.equals(column) || TaskEntry.COL_SERIES_ID.equals(column)
+                    || TaskEntry.COL_OCCURRENCE.equals(column)){
+                continue; //not held, as no list filters or sorts on them; queries for them miss
+            }else if(TaskEntry.COL_DEADLINE.equals(column) && value == null){
+                deadline = TodoListProvider.NO_DEADLINE;
+            }else{
+                Long number = asLong(value);
+                if(number == null || number == TodoListProvider.NO_DEADLINE){
+                    return null;
+                }
+                if(TaskEntry.COL_DEADLINE.equals(column)){
+                    deadline = number;
+                }else if(TaskEntry.COL_TIME_CREATED.equals(column)){
+                    createdAt = number;
+                }else if(TaskEntry.COL_COMPLETED.equals(column)){
+                    completed = number;
+                }else{
+                    return null; //not a column the cache knows
+                }
+            }
+            found++;
+        }
+        if(old == null && found < 5){ //a new row needs every column
+            return null;
+        }
+        return new Row(id, title, details, deadline, createdAt, completed);
+    }
+
+    //the integer SQLite would store for a value, or null if it would store something else
+    private static Long asLong(Object value) {
+        if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte){
+            return ((Number) value).longValue();
+        }
+        if(value instanceof Boolean){
+            return ((Boolean) value) ? 1L : 0L;
+        }
+        return null;
+    }
+
+    //a null projection means every column, including the completion time the cache doesn't hold
+    private static boolean columnsKnown(String[] projection) {
+        if(projection == null){
+            return false;
+        }
+        for(String column : projection){
+            if(!TaskEntry._ID.equals(column) && !TaskEntry.COL_TITLE.equals(column)
+                    && !TaskEntry.COL_DETAILS.equals(column) && !TaskEntry.COL_DEADLINE.equals(column)
+                    && !TaskEntry.COL_TIME_CREATED.equals(column) && !TaskEntry.COL_COMPLETED.equals(column)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addRow(MatrixCursor cursor, Row row, String[] projection) {
+        Object[] values = new Object[projection.length];
+        for(int i = 0; i < projection.length; i++){
+            values[i] = row.get(projection[i]);
+        }
+        cursor.addRow(values);
+    }
+}
@@ -0,0 +1,156 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.uw.todoer.provider.TodoListProvider.TaskEntry;
+
+/**
+ * Which tasks to query, update or delete, built from typed conditions instead of a hand-written
+ * selection. Values are bound as arguments, never written into the SQL, so every filter of the
+ * same shape is the same statement and SQLite compiles it once per connection rather than once
+ * per value. Id sets are padded to a power of two so they come in a few shapes, not one per size.
+ *
+ * The completion status is the exception: it has only two values, and the lists' "completed=0"
+ * and "completed=1" are the selections TaskCache answers from memory, so it is written as is.
+ *
+ * Filters are immutable; each condition returns a new filter matching this one's tasks as well.
+ * <pre>
+ *     Cursor due = TaskFilter.todo().deadlineBetween(now, now + DAY)
+ *             .query(resolver, TodoListProvider.CONTENT_URI, projection, TodoItem.DEADLINE);
+ * </pre>
+ */
+public final class TaskFilter {
+
+    static final int MAX_IDS = 512; //well under SQLite's 999 arguments per statement
+
+    private static final TaskFilter ALL = new TaskFilter(null, new String[0]);
+
+    private final String selection; //null for every task
+    private final String[] args;
+
+    private TaskFilter(String selection, String[] args) {
+        this.selection = selection;
+        this.args = args;
+    }
+
+    //Every task
+    public static TaskFilter all() {
+        return ALL;
+    }
+
+    //Tasks not yet completed, as the to-do list shows
+    public static TaskFilter todo() {
+        return ALL.and(TaskEntry.COL_COMPLETED + "=0");
+    }
+
+    //Completed tasks, as the completed list shows
+    public static TaskFilter completed() {
+        return ALL.and(TaskEntry.COL_COMPLETED + "=1");
+    }
+
+    //Tasks due at or after the given time
+    public TaskFilter deadlineFrom(long from) {
+        return and(TaskEntry.COL_DEADLINE + ">=?", String.valueOf(from));
+    }
+
+    //Tasks due before the given time
+    public TaskFilter deadlineBefore(long before) {
+        return and(TaskEntry.COL_DEADLINE + "<?", String.valueOf(before));
+    }
+
+    //Tasks due from one time up to, but not including, another
+    public TaskFilter deadlineBetween(long from, long before) {
+        return and(TaskEntry.COL_DEADLINE + ">=? AND " + TaskEntry.COL_DEADLINE + "<?",
+                String.valueOf(from), String.valueOf(before));
+    }
+
+    /**
+     * The tasks with the given ids, at most MAX_IDS of them.
+     */
+    public TaskFilter ids(long... ids) {
+        if(ids.length > MAX_IDS){
+            throw new IllegalArgumentException(ids.length + " ids is more than " + MAX_IDS);
+        }
+        if(ids.length == 0){
+            return and("0");
+        }
+        int size = Integer.highestOneBit(ids.length);
+        if(size < ids.length){
+            size *= 2;
+        }
+        String[] values = new String[size];
+        for(int i = 0; i < size; i++){
+            values[i] = String.valueOf(ids[Math.min(i, ids.length - 1)]); //padded with the last id, which changes nothing
+        }
+        StringBuilder in = new StringBuilder(TaskEntry._ID).append(" IN (");
+        for(int i = 0; i < size; i++){
+            in.append(i > 0 ? ",?" : "?");
+        }
+        return and(in.append(')').toString(), values);
+    }
+
+    //The selection, with ? for each argument; null for every task
+    public String getSelection() {
+        return selection;
+    }
+
+    //The arguments of the selection, or null if it has none
+    public String[] getSelectionArgs() {
+        return args.length > 0 ? args.clone() : null;
+    }
+
+    /**
+     * Queries the tasks this filter matches.
+     *
+     * @param tasks TodoListProvider.CONTENT_URI, ALL_TASKS_URI, or a page of either
+     */
+    public Cursor query(ContentResolver resolver, Uri tasks, String[] projection, String sortOrder) {
+        return resolver.query(tasks, projection, selection, getSelectionArgs(), sortOrder);
+    }
+
+    //Sets the values on the tasks this filter matches, returning how many there were
+    public int update(ContentResolver resolver, ContentValues values) {
+        return resolver.update(TodoListProvider.CONTENT_URI, values, selection, getSelectionArgs());
+    }
+
+    //Deletes the tasks this filter matches, returning how many there were
+    public int delete(ContentResolver resolver) {
+        return resolver.delete(TodoListProvider.CONTENT_URI, selection, getSelectionArgs());
+    }
+
+    //the conditions of this filter and another
+    private TaskFilter and(String condition, String... values) {
+        List<String> all = new ArrayList<String>(Arrays.asList(args));
+        all.addAll(Arrays.asList(values));
+        String combined = selection == null ? condition : selection + " AND (" + condition + ")";
+        return new TaskFilter(combined, all.toArray(new String[all.size()]));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof TaskFilter)){
+            return false;
+        }
+        TaskFilter other = (TaskFilter) o;
+        return TextUtils.equals(selection, other.selection) && Arrays.equals(args, other.args);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (selection != null ? selection.hashCode() : 0) + Arrays.hashCode(args);
+    }
+
+    //The selection, then its arguments, if any
+    @Override
+    public String toString() {
+        return args.length > 0 ? selection + " " + Arrays.toString(args) : String.valueOf(selection);
+    }
+}
@@ -0,0 +1,234 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.uw.todoer.provider.TodoListProvider.TaskEntry;
+
+/**
+ * Repeating tasks. A series is a single row of the tasks table with a recurrence rule (see
+ * Recurrence), its deadline the first occurrence; the others are worked out only for the window
+ * of deadlines a query asks for, so a series costs one row however far ahead anyone looks.
+ * An occurrence gets a row of its own only once it is completed or edited: an exception row,
+ * naming its series and the occurrence it stands in for, which the window then shows instead.
+ *
+ * Completing the series row itself ends the series.
+ */
+class TaskOccurrences {
+
+    //the columns of OCCURRENCES_URI
+    static final String[] COLUMNS = {
+            TaskEntry._ID,
+            TaskEntry.COL_TITLE,
+            TaskEntry.COL_DETAILS,
+            TaskEntry.COL_DEADLINE,
+            TaskEntry.COL_COMPLETED,
+            TaskEntry.COL_TIME_CREATED,
+            TaskEntry.COL_SERIES_ID,
+            TaskEntry.COL_OCCURRENCE
+    };
+    private static final int DEADLINE = 3;
+
+    private static final String[] SERIES_COLUMNS = {TaskEntry._ID, TaskEntry.COL_TITLE, TaskEntry.COL_DETAILS,
+            TaskEntry.COL_DEADLINE, TaskEntry.COL_TIME_CREATED, TaskEntry.COL_RECURRENCE};
+
+    //the incomplete rows due in the window other than series, bound as {from, until}: a range of the (completed, deadline) index
+    private static final String WHERE_STORED = TaskEntry.COL_COMPLETED + "=0 AND " + TaskEntry.COL_DEADLINE + ">=? AND " +
+            TaskEntry.COL_DEADLINE + "<? AND " + TaskEntry.COL_RECURRENCE + " IS NULL";
+
+    //the rest of the page after a key, bound as {deadline, _id}
+    private static final String WHERE_AFTER = " AND (" + TaskEntry.COL_DEADLINE + ">? OR " + TaskEntry._ID + ">?)";
+
+    //the series started by the end of the window, bound as {until}, read along the recurrence index, whose
+    //range skips the NULLs of every other row; left to itself SQLite prefers the (completed, deadline) index,
+    //and would walk every incomplete task due before the window ends
+    static final String SERIES = SQLiteQueryBuilder.buildQueryString(false,
+            TaskEntry.TABLE_NAME + " INDEXED BY " + TaskEntry.INDEX_RECURRENCE, SERIES_COLUMNS,
+            TaskEntry.COL_RECURRENCE + ">'' AND " + TaskEntry.COL_COMPLETED + "=0 AND " + TaskEntry.COL_DEADLINE + "<?",
+            null, null, null, null);
+
+    //the occurrences of a series in the window that have rows, in either table, bound as {series, from, until}
+    static final String EXCEPTIONS =
+            "SELECT " + TaskEntry.COL_OCCURRENCE + " FROM " + TaskEntry.TABLE_NAME +
+                    " WHERE " + TaskEntry.COL_SERIES_ID + "=?1 AND " + TaskEntry.COL_OCCURRENCE + ">=?2 AND " +
+                    TaskEntry.COL_OCCURRENCE + "<?3" +
+            " UNION ALL SELECT " + TaskEntry.COL_OCCURRENCE + " FROM " + TaskEntry.ARCHIVE_TABLE_NAME +
+                    " WHERE " + TaskEntry.COL_SERIES_ID + "=?1 AND " + TaskEntry.COL_OCCURRENCE + ">=?2 AND " +
+                    TaskEntry.COL_OCCURRENCE + "<?3";
+
+    //the row of one occurrence, in either table, bound as {series, occurrence}
+    static final String FIND =
+            "SELECT " + TaskEntry._ID + " FROM " + TaskEntry.TABLE_NAME +
+                    " WHERE " + TaskEntry.COL_SERIES_ID + "=?1 AND " + TaskEntry.COL_OCCURRENCE + "=?2" +
+            " UNION ALL SELECT " + TaskEntry._ID + " FROM " + TaskEntry.ARCHIVE_TABLE_NAME +
+                    " WHERE " + TaskEntry.COL_SERIES_ID + "=?1 AND " + TaskEntry.COL_OCCURRENCE + "=?2" +
+            " LIMIT 1";
+
+    //by deadline then _id, the order pages are keyed in
+    private static final Comparator<Object[]> BY_DEADLINE = new Comparator<Object[]>() {
+        @Override
+        public int compare(Object[] a, Object[] b) {
+            int order = ((Long) a[DEADLINE]).compareTo((Long) b[DEADLINE]);
+            return order != 0 ? order : ((Long) a[0]).compareTo((Long) b[0]);
+        }
+    };
+
+    //class cannot be instantiated
+    private TaskOccurrences(){}
+
+    /**
+     * The incomplete tasks and occurrences due from one time up to, but not including, another,
+     * by deadline then _id. Stored tasks and exception rows are read along the list index; each
+     * series that has started is expanded for just the window, leaving out the occurrences with rows.
+     *
+     * @param after the {deadline, _id} of the last row of the previous page, or null
+     * @param limit the most rows to return, or 0 for no limit
+     */
+    static Cursor query(SQLiteDatabase db, String[] projection, long from, long until, long[] after, int limit) {
+        if(limit <= 0 && until == Long.MAX_VALUE){
+            throw new IllegalArgumentException("Occurrences need an end to the window or a limit");
+        }
+        if(after != null){
+            from = Math.max(from, after[0]);
+        }
+        int max = limit > 0 ? limit : Integer.MAX_VALUE;
+        List<Object[]> rows = new ArrayList<Object[]>();
+
+        String where = WHERE_STORED + (after != null ? WHERE_AFTER : "");
+        String[] args = after != null
+                ? new String[]{String.valueOf(from), String.valueOf(until), String.valueOf(after[0]), String.valueOf(after[1])}
+                : new String[]{String.valueOf(from), String.valueOf(until)};
+        Cursor c = db.query(TaskEntry.TABLE_NAME, COLUMNS, where, args, null, null,
+                TaskEntry.COL_DEADLINE + "," + TaskEntry._ID, limit > 0 ? String.valueOf(limit) : null);
+        try {
+            while(c.moveToNext()){
+                Object[] row = new Object[COLUMNS.length];
+                row[0] = c.getLong(0);
+                row[1] = c.getString(1);
+                row[2] = c.getString(2);
+                row[3] = c.getLong(3);
+                row[4] = c.getLong(4);
+                row[5] = c.getLong(5);
+                row[6] = c.isNull(6) ? null : c.getLong(6);
+                row[7] = c.isNull(7) ? null : c.getLong(7);
+                rows.add(row);
+            }
+        } finally {
+            c.close();
+        }
+
+        Cursor series = db.rawQuery(SERIES, new String[]{String.valueOf(until)});
+        try {
+            while(series.moveToNext()){
+                long id = series.getLong(0);
+                long start = series.getLong(3);
+                Set<Long> exceptions = exceptions(db, id, from, until);
+                //enough for a full page after skipping the exceptions and the page key
+                int wanted = max == Integer.MAX_VALUE ? max : max + exceptions.size() + 1;
+                for(long time : Recurrence.parse(series.getString(5)).between(start, from, until, wanted)){
+                    if(exceptions.contains(time) || (after != null && time == after[0] && id <= after[1])){
+                        continue;
+                    }
+                    rows.add(new Object[]{id, series.getString(1), series.getString(2), time, 0L, series.getLong(4), id, time});
+                }
+            }
+        } finally {
+            series.close();
+        }
+
+        Collections.sort(rows, BY_DEADLINE);
+        if(rows.size() > max){
+            rows = rows.subList(0, max);
+        }
+        return toCursor(projection, rows);
+    }
+
+    private static Set<Long> exceptions(SQLiteDatabase db, long seriesId, long from, long until) {
+        Set<Long> times = new HashSet<Long>();
+        Cursor c = db.rawQuery(EXCEPTIONS, new String[]{String.valueOf(seriesId), String.valueOf(from), String.valueOf(until)});
+        try {
+            while(c.moveToNext()){
+                times.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+        return times;
+    }
+
+    private static Cursor toCursor(String[] projection, List<Object[]> rows) {
+        String[] columns = projection != null ? projection : COLUMNS;
+        int[] indexes = new int[columns.length];
+        for(int i = 0; i < columns.length; i++){
+            indexes[i] = indexOf(columns[i]);
+        }
+        MatrixCursor cursor = new MatrixCursor(columns, rows.size());
+        for(Object[] row : rows){
+            Object[] values = new Object[columns.length];
+            for(int i = 0; i < columns.length; i++){
+                values[i] = row[indexes[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    private static int indexOf(String column) {
+        for(int i = 0; i < COLUMNS.length; i++){
+            if(COLUMNS[i].equals(column)){
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Occurrences have no column " + column);
+    }
+
+    /**
+     * The row of one occurrence of a series, archived or not.
+     *
+     * @return its id, or -1 if the occurrence has no row of its own
+     */
+    static long find(SQLiteDatabase db, long seriesId, long occurrence) {
+        Cursor c = db.rawQuery(FIND, new String[]{String.valueOf(seriesId), String.valueOf(occurrence)});
+        try {
+            return c.moveToFirst() ? c.getLong(0) : -1;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * A new exception row for an occurrence, copying its series, to insert into the tasks table.
+     *
+     * @return null if there is no such series, it has ended, or it doesn't occur then
+     */
+    static ContentValues exception(SQLiteDatabase db, long seriesId, long occurrence) {
+        Cursor c = db.query(TaskEntry.TABLE_NAME, SERIES_COLUMNS, TaskEntry._ID + "=? AND " + TaskEntry.COL_RECURRENCE + ">'' AND " +
+                TaskEntry.COL_COMPLETED + "=0", new String[]{String.valueOf(seriesId)}, null, null, null);
+        try {
+            if(!c.moveToFirst() || !Recurrence.parse(c.getString(5)).occursAt(c.getLong(3), occurrence)){
+                return null;
+            }
+            ContentValues values = new ContentValues();
+            values.put(TaskEntry.COL_TITLE, c.getString(1));
+            values.put(TaskEntry.COL_DETAILS, c.getString(2));
+            values.put(TaskEntry.COL_DEADLINE, occurrence);
+            values.put(TaskEntry.COL_COMPLETED, 0L);
+            values.put(TaskEntry.COL_TIME_CREATED, c.getLong(4));
+            values.put(TaskEntry.COL_SERIES_ID, seriesId);
+            values.put(TaskEntry.COL_OCCURRENCE, occurrence);
+            return values;
+        } finally {
+            c.close();
+        }
+    }
+}
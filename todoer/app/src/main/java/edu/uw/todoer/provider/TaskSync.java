@@ -0,0 +1,266 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the tasks in step with a sync server, sending and fetching only what changed. A sync first
+ * pushes the changes logged here since the last one (see SyncLog), BATCH_SIZE at a time, dropping
+ * each batch from the log once the server has it. It then pulls what other devices changed since
+ * the cursor the last pull left off at, and the provider applies each batch in one transaction.
+ *
+ * Changes carry the whole task, repeating ones with their rule or series, so applying one needs
+ * nothing else (but the series of an occurrence, pushed before it), and go over the wire a batch
+ * at a time in a gzipped binary encoding (see encode()). Conflicts are settled by last writer wins
+ * on each change's UPDATED_AT; a deletion is a change like any other.
+ *
+ * Call from a background thread. A sync interrupted part way is safe to run again: pushed batches
+ * are out of the log, and applying a pulled change again changes nothing.
+ */
+public final class TaskSync {
+
+    public static final int BATCH_SIZE = 500; //changes per push, pull and transaction
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //the server end; implementations do their own networking
+    public interface Server {
+        /**
+         * Stores a batch of changes from a client. The server keeps only the latest change to each
+         * task, replacing it only with a change made strictly later.
+         *
+         * @param batch an encode()d Batch; its cursor and more are not used
+         */
+        public void push(String client, byte[] batch) throws IOException;
+
+        /**
+         * Returns the changes stored after the cursor, up to max of them, leaving out those the client
+         * pushed itself, as an encode()d Batch with the cursor to pull from next.
+         */
+        public byte[] pull(String client, long cursor, int max) throws IOException;
+    }
+
+    //A batch of changes as sent over the wire
+    public static class Batch {
+        public final List<ContentValues> changes; //SYNC_URI rows, without their ID
+        public final long cursor; //for pulls, where the next one starts
+        public final boolean more; //for pulls, whether there are more changes after these
+
+        public Batch(List<ContentValues> changes, long cursor, boolean more) {
+            this.changes = changes;
+            this.cursor = cursor;
+            this.more = more;
+        }
+    }
+
+    //How much a sync did
+    public static class Result {
+        public int pushed, pulled; //changes sent and received
+        public long bytesSent, bytesReceived; //compressed, as they went over the wire
+    }
+
+    private static final String[] PUSH_PROJECTION = {SyncItem.ID, SyncItem.SYNC_ID, SyncItem.UPDATED_AT, SyncItem.DELETED,
+            TodoItem.TITLE, TodoItem.DETAILS, TodoItem.DEADLINE, TodoItem.TIME_CREATED, TodoItem.COMPLETED,
+            TodoItem.RECURRENCE, TodoItem.OCCURRENCE, SyncItem.SERIES};
+
+    //class cannot be instantiated
+    private TaskSync(){}
+
+    /**
+     * Pushes the local changes, then pulls everyone else's.
+     *
+     * @throws IOException if the server can't be reached; what was done before then stays done
+     */
+    public static Result sync(ContentResolver resolver, Server server) throws IOException {
+        Result result = new Result();
+        String client;
+        long cursor;
+        Cursor state = resolver.query(TodoListProvider.SYNC_STATE_URI, new String[]{SyncItem.CLIENT_ID, SyncItem.CURSOR},
+                null, null, null);
+        if(state == null){
+            throw new IOException("Tasks are not available");
+        }
+        try {
+            state.moveToFirst();
+            client = state.getString(0);
+            cursor = state.getLong(1);
+        } finally {
+            state.close();
+        }
+
+        push(resolver, server, client, result);
+
+        Batch batch;
+        do {
+            byte[] bytes = server.pull(client, cursor, BATCH_SIZE);
+            result.bytesReceived += bytes.length;
+            batch = decode(bytes);
+            resolver.bulkInsert(TodoListProvider.pulledUri(batch.cursor),
+                    batch.changes.toArray(new ContentValues[batch.changes.size()]));
+            result.pulled += batch.changes.size();
+            cursor = batch.cursor;
+        } while(batch.more);
+        return result;
+    }
+
+    private static void push(ContentResolver resolver, Server server, String client, Result result) throws IOException {
+        List<ContentValues> changes = new ArrayList<ContentValues>(BATCH_SIZE);
+        long[] after = null;
+        int count;
+        do {
+            Cursor c = resolver.query(TodoListProvider.pageUri(TodoListProvider.SYNC_URI, BATCH_SIZE, after),
+                    PUSH_PROJECTION, null, null, SyncItem.ID);
+            if(c == null){
+                throw new IOException("Tasks are not available");
+            }
+            changes.clear();
+            try {
+                count = c.getCount();
+                while(c.moveToNext()){
+                    changes.add(readChange(c));
+                    after = new long[]{c.getLong(0), c.getLong(0)}; //an ID page key is the id twice
+                }
+            } finally {
+                c.close();
+            }
+            if(count == 0){
+                break;
+            }
+            byte[] bytes = encode(new Batch(changes, 0, false));
+            server.push(client, bytes);
+            result.bytesSent += bytes.length;
+            result.pushed += count;
+            //changes logged meanwhile are after these, so they stay to be pushed next
+            resolver.delete(TodoListProvider.SYNC_URI, SyncItem.ID + "<=?", new String[]{String.valueOf(after[0])});
+        } while(count == BATCH_SIZE);
+    }
+
+    //a SYNC_URI row read with PUSH_PROJECTION, without its ID
+    private static ContentValues readChange(Cursor c) {
+        ContentValues change = new ContentValues();
+        change.put(SyncItem.SYNC_ID, c.getString(1));
+        change.put(SyncItem.UPDATED_AT, c.getLong(2));
+        boolean deleted = c.getInt(3) != 0;
+        change.put(SyncItem.DELETED, deleted);
+        if(!deleted){
+            change.put(TodoItem.TITLE, c.getString(4));
+            change.put(TodoItem.DETAILS, c.getString(5));
+            change.put(TodoItem.DEADLINE, c.isNull(6) ? null : c.getLong(6));
+            change.put(TodoItem.TIME_CREATED, c.getLong(7));
+            change.put(TodoItem.COMPLETED, c.getLong(8));
+            change.put(TodoItem.RECURRENCE, c.getString(9));
+            change.put(TodoItem.OCCURRENCE, c.isNull(10) ? null : c.getLong(10));
+            change.put(SyncItem.SERIES, c.getString(11));
+        }
+        return change;
+    }
+
+    /**
+     * Encodes a batch for the wire, gzipped: the cursor, whether there are more, the count, then
+     * each change as its sync id, time and deleted flag followed, unless it is a deletion, by its
+     * task's columns. Text is length-prefixed UTF-8, with -1 for null; a null deadline or occurrence is flagged.
+     */
+    public static byte[] encode(Batch batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        try {
+            out.writeLong(batch.cursor);
+            out.writeBoolean(batch.more);
+            out.writeInt(batch.changes.size());
+            for(ContentValues change : batch.changes){
+                writeText(out, change.getAsString(SyncItem.SYNC_ID));
+                out.writeLong(change.getAsLong(SyncItem.UPDATED_AT));
+                Boolean deleted = change.getAsBoolean(SyncItem.DELETED);
+                out.writeBoolean(deleted != null && deleted);
+                if(deleted != null && deleted){
+                    continue;
+                }
+                writeText(out, change.getAsString(TodoItem.TITLE));
+                writeText(out, change.getAsString(TodoItem.DETAILS));
+                writeTime(out, change.getAsLong(TodoItem.DEADLINE));
+                out.writeLong(change.getAsLong(TodoItem.TIME_CREATED));
+                out.writeBoolean(change.getAsInteger(TodoItem.COMPLETED) != 0);
+                writeText(out, change.getAsString(TodoItem.RECURRENCE));
+                writeTime(out, change.getAsLong(TodoItem.OCCURRENCE));
+                writeText(out, change.getAsString(SyncItem.SERIES));
+            }
+        } finally {
+            out.close(); //finishes the gzip stream
+        }
+        return bytes.toByteArray();
+    }
+
+    //Decodes a batch written by encode()
+    public static Batch decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+        try {
+            long cursor = in.readLong();
+            boolean more = in.readBoolean();
+            int count = in.readInt();
+            List<ContentValues> changes = new ArrayList<ContentValues>(count);
+            for(int i = 0; i < count; i++){
+                ContentValues change = new ContentValues();
+                change.put(SyncItem.SYNC_ID, readText(in));
+                change.put(SyncItem.UPDATED_AT, in.readLong());
+                boolean deleted = in.readBoolean();
+                change.put(SyncItem.DELETED, deleted);
+                if(!deleted){
+                    change.put(TodoItem.TITLE, readText(in));
+                    change.put(TodoItem.DETAILS, readText(in));
+                    change.put(TodoItem.DEADLINE, readTime(in));
+                    change.put(TodoItem.TIME_CREATED, in.readLong());
+                    change.put(TodoItem.COMPLETED, in.readBoolean() ? 1L : 0L);
+                    change.put(TodoItem.RECURRENCE, readText(in));
+                    change.put(TodoItem.OCCURRENCE, readTime(in));
+                    change.put(SyncItem.SERIES, readText(in));
+                }
+                changes.add(change);
+            }
+            return new Batch(changes, cursor, more);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        if(text == null){
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = text.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeTime(DataOutputStream out, Long time) throws IOException {
+        out.writeBoolean(time != null);
+        out.writeLong(time != null ? time : 0);
+    }
+
+    private static Long readTime(DataInputStream in) throws IOException {
+        boolean hasTime = in.readBoolean();
+        long time = in.readLong();
+        return hasTime ? time : null;
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0){
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
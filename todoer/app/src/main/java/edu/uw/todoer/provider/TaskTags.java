@@ -0,0 +1,137 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import edu.uw.todoer.provider.TodoListProvider.TagEntry;
+import edu.uw.todoer.provider.TodoListProvider.TaskEntry;
+
+/**
+ * Tags and which tasks have them. Each link row carries copies of its task's completed, deadline
+ * and created_at columns, kept up to date by triggers on the tasks table, so a tag's list is read
+ * in order from one index on the link table and only the tasks shown are looked up. The counts on
+ * each tag are kept by triggers on the link table, so listing the tags never touches the tasks.
+ *
+ * Links outlive archiving: archived tasks keep their tags, are counted, and are listed with them.
+ *
+ * Methods must be called on the writable database.
+ */
+class TaskTags {
+
+    private static final String WHERE_LINK = TagEntry.COL_TAG_ID + "=? AND " + TagEntry.COL_TASK_ID + "=?";
+
+    /**
+     * The tasks with a tag, bound as the first argument, under the tasks table's column names.
+     * SQLite flattens it into the outer query, so the list's filter and sort on completed, deadline
+     * and created_at are served by the link table's indexes.
+     */
+    static final String TAGGED_TASKS = "(SELECT " +
+            "l." + TagEntry.COL_TASK_ID + " AS " + TaskEntry._ID + "," +
+            "l." + TaskEntry.COL_TIME_CREATED + " AS " + TaskEntry.COL_TIME_CREATED + "," +
+            "coalesce(t." + TaskEntry.COL_TITLE + ",a." + TaskEntry.COL_TITLE + ") AS " + TaskEntry.COL_TITLE + "," +
+            "coalesce(t." + TaskEntry.COL_DETAILS + ",a." + TaskEntry.COL_DETAILS + ") AS " + TaskEntry.COL_DETAILS + "," +
+            "l." + TaskEntry.COL_DEADLINE + " AS " + TaskEntry.COL_DEADLINE + "," +
+            "l." + TaskEntry.COL_COMPLETED + " AS " + TaskEntry.COL_COMPLETED + "," +
+            "coalesce(t." + TaskEntry.COL_TIME_COMPLETED + ",a." + TaskEntry.COL_TIME_COMPLETED + ") AS " + TaskEntry.COL_TIME_COMPLETED +
+            " FROM " + TagEntry.LINK_TABLE_NAME + " l" +
+            " LEFT JOIN " + TaskEntry.TABLE_NAME + " t ON t." + TaskEntry._ID + "=l." + TagEntry.COL_TASK_ID +
+            " LEFT JOIN " + TaskEntry.ARCHIVE_TABLE_NAME + " a ON a." + TaskEntry._ID + "=l." + TagEntry.COL_TASK_ID +
+            " WHERE l." + TagEntry.COL_TAG_ID + "=?)";
+
+    //the tags of a task, bound as the first argument
+    static final String TASK_TAGS = "(SELECT g.* FROM " + TagEntry.LINK_TABLE_NAME + " l" +
+            " JOIN " + TagEntry.TABLE_NAME + " g ON g." + TagEntry._ID + "=l." + TagEntry.COL_TAG_ID +
+            " WHERE l." + TagEntry.COL_TASK_ID + "=?)";
+
+    //copies the task's list columns from whichever table it is in; bound as {tag id, task id, task id}
+    private static final String INSERT_LINK =
+            "INSERT OR IGNORE INTO " + TagEntry.LINK_TABLE_NAME + "(" + TagEntry.COL_TAG_ID + "," + TagEntry.COL_TASK_ID + "," +
+                    TaskEntry.COL_COMPLETED + "," + TaskEntry.COL_DEADLINE + "," + TaskEntry.COL_TIME_CREATED + ")" +
+                    " SELECT ?1," + TaskEntry._ID + "," + TaskEntry.COL_COMPLETED + "," + TaskEntry.COL_DEADLINE + "," +
+                    TaskEntry.COL_TIME_CREATED + " FROM " + TaskEntry.TABLE_NAME + " WHERE " + TaskEntry._ID + "=?2" +
+                    " UNION ALL SELECT ?1," + TaskEntry._ID + "," + TaskEntry.COL_COMPLETED + "," + TaskEntry.COL_DEADLINE + "," +
+                    TaskEntry.COL_TIME_CREATED + " FROM " + TaskEntry.ARCHIVE_TABLE_NAME + " WHERE " + TaskEntry._ID + "=?2";
+
+    //class cannot be instantiated
+    private TaskTags(){}
+
+    /**
+     * Adds a tag, or finds the one with that name, which is matched ignoring case.
+     *
+     * @return the tag's id
+     */
+    static long insertTag(SQLiteDatabase db, String name) {
+        ContentValues values = new ContentValues();
+        values.put(TagEntry.COL_NAME, name);
+        long id = db.insertWithOnConflict(TagEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        if(id != -1){
+            return id;
+        }
+        return DatabaseUtils.longForQuery(db, "SELECT " + TagEntry._ID + " FROM " + TagEntry.TABLE_NAME +
+                " WHERE " + TagEntry.COL_NAME + "=?", new String[]{name});
+    }
+
+    /**
+     * Renames a tag. Names are matched ignoring case, so a tag can change the case of its own name
+     * but not take another tag's.
+     *
+     * @return false if there is no such tag
+     * @throws IllegalArgumentException if another tag has the name
+     */
+    static boolean renameTag(SQLiteDatabase db, long tagId, String name) {
+        String id = String.valueOf(tagId);
+        if(DatabaseUtils.queryNumEntries(db, TagEntry.TABLE_NAME, TagEntry.COL_NAME + "=? AND " + TagEntry._ID + "<>?",
+                new String[]{name, id}) > 0){
+            throw new IllegalArgumentException("There is already a tag named " + name);
+        }
+        ContentValues values = new ContentValues();
+        values.put(TagEntry.COL_NAME, name);
+        return db.update(TagEntry.TABLE_NAME, values, TagEntry._ID + "=?", new String[]{id}) > 0;
+    }
+
+    /**
+     * Gives a task a tag, if it has not got it already.
+     *
+     * @return false if there is no such tag or task
+     */
+    static boolean link(SQLiteDatabase db, long tagId, long taskId) {
+        String[] tag = {String.valueOf(tagId)};
+        if(DatabaseUtils.queryNumEntries(db, TagEntry.TABLE_NAME, TagEntry._ID + "=?", tag) == 0){
+            return false;
+        }
+        db.execSQL(INSERT_LINK, new Object[]{tagId, taskId});
+        return DatabaseUtils.queryNumEntries(db, TagEntry.LINK_TABLE_NAME, WHERE_LINK,
+                new String[]{String.valueOf(tagId), String.valueOf(taskId)}) > 0;
+    }
+
+    //Takes a tag off a task, returning whether it had it
+    static boolean unlink(SQLiteDatabase db, long tagId, long taskId) {
+        return db.delete(TagEntry.LINK_TABLE_NAME, WHERE_LINK,
+                new String[]{String.valueOf(tagId), String.valueOf(taskId)}) > 0;
+    }
+
+    //Takes every tag off an archived task being deleted; the tasks table's trigger does this for other tasks
+    static void unlinkTask(SQLiteDatabase db, long taskId) {
+        db.delete(TagEntry.LINK_TABLE_NAME, TagEntry.COL_TASK_ID + "=?", new String[]{String.valueOf(taskId)});
+    }
+
+    //The ids of the tasks with a tag, for telling their observers when it is deleted; null if there are more than max
+    static long[] taskIds(SQLiteDatabase db, long tagId, int max) {
+        Cursor c = db.query(TagEntry.LINK_TABLE_NAME, new String[]{TagEntry.COL_TASK_ID}, TagEntry.COL_TAG_ID + "=?",
+                new String[]{String.valueOf(tagId)}, null, null, null, String.valueOf(max + 1));
+        try {
+            if(c.getCount() > max){
+                return null;
+            }
+            long[] ids = new long[c.getCount()];
+            for(int i = 0; c.moveToNext(); i++){
+                ids[i] = c.getLong(0);
+            }
+            return ids;
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies every task out to, or in from, a stream of JSON lines or CSV, in constant memory however
+ * many tasks there are. Exports read the tasks a page at a time in _id order, each page a range of
+ * the primary key, and encode them into one fixed buffer. Imports parse one record at a time and
+ * insert them CHUNK_SIZE at a time, each chunk in one transaction.
+ *
+ * The channels are neither opened nor closed here. An import is not all-or-nothing: if a record
+ * turns out to be malformed, the chunks before it have already been inserted.
+ */
+public final class TaskTransfer {
+
+    public static final int CHUNK_SIZE = 1000; //tasks per page read or batch inserted
+    private static final int BUFFER_SIZE = 64 * 1024; //bytes encoded, or chars decoded, at a time
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //the columns written, in this order; imports read them by name and give tasks new ids
+    private static final String[] COLUMNS = {TodoItem.ID, TodoItem.TITLE, TodoItem.DETAILS, TodoItem.DEADLINE,
+            TodoItem.TIME_CREATED, TodoItem.COMPLETED};
+
+    public enum Format {
+        JSON_LINES, //one JSON object per line, keyed by column
+        CSV //RFC 4180, with a header row naming the columns
+    }
+
+    //A listener for how far a transfer has got; called after each chunk
+    public interface Progress {
+        /**
+         * @param total the number of tasks in all, or -1 if not known (as when importing)
+         */
+        public void onProgress(long done, long total);
+    }
+
+    //class cannot be instantiated
+    private TaskTransfer(){}
+
+    /**
+     * Writes every task to the channel, archived ones included.
+     *
+     * @param progress told after each page, or null
+     * @return the number of tasks written
+     */
+    public static long exportTasks(ContentResolver resolver, WritableByteChannel out, Format format,
+                                   Progress progress) throws IOException {
+        long total = countTasks(resolver);
+        ChannelWriter writer = new ChannelWriter(out);
+        StringBuilder line = new StringBuilder();
+        if(format == Format.CSV){
+            writer.write(line.append(TextUtils.join(",", COLUMNS)).append('\n'));
+        }
+
+        long done = 0;
+        long[] after = null;
+        int count;
+        do {
+            Cursor c = resolver.query(TodoListProvider.pageUri(TodoListProvider.ALL_TASKS_URI, CHUNK_SIZE, after), COLUMNS, null, null, TodoItem.ID);
+            if(c == null){
+                break;
+            }
+            try {
+                count = c.getCount();
+                while(c.moveToNext()){
+                    line.setLength(0);
+                    if(format == Format.CSV){
+                        appendCsv(line, c);
+                    }else{
+                        appendJson(line, c);
+                    }
+                    writer.write(line.append('\n'));
+                    after = new long[]{c.getLong(0), c.getLong(0)}; //an _id page key is the id twice
+                }
+            } finally {
+                c.close();
+            }
+            done += count;
+            if(progress != null){
+                progress.onProgress(done, Math.max(total, done)); //tasks may be added meanwhile
+            }
+        } while(count == CHUNK_SIZE);
+
+        writer.flush();
+        return done;
+    }
+
+    /**
+     * Reads tasks from the channel and adds them, keeping their creation times. Their ids are not
+     * kept; each gets a new one. Columns left out get the provider's defaults.
+     *
+     * @param progress told after each chunk is inserted, or null
+     * @return the number of tasks added
+     * @throws IOException if the input can't be read, or a record is malformed
+     */
+    public static long importTasks(ContentResolver resolver, ReadableByteChannel in, Format format,
+                                   Progress progress) throws IOException {
+        Reader reader = Channels.newReader(in, UTF_8.newDecoder(), BUFFER_SIZE);
+        RecordReader records = format == Format.CSV ? new CsvReader(reader) : new JsonLinesReader(reader);
+
+        ContentValues[] batch = new ContentValues[CHUNK_SIZE];
+        int count = 0;
+        long done = 0;
+        ContentValues task;
+        while((task = records.next()) != null){
+            batch[count++] = task;
+            if(count == batch.length){
+                done += resolver.bulkInsert(TodoListProvider.IMPORT_URI, batch);
+                Arrays.fill(batch, null); //let them go before the next chunk is read
+                count = 0;
+                if(progress != null){
+                    progress.onProgress(done, -1);
+                }
+            }
+        }
+        if(count > 0){
+            done += resolver.bulkInsert(TodoListProvider.IMPORT_URI, Arrays.copyOf(batch, count));
+            if(progress != null){
+                progress.onProgress(done, -1);
+            }
+        }
+        return done;
+    }
+
+    private static long countTasks(ContentResolver resolver) {
+        Cursor c = resolver.query(TodoListProvider.ALL_TASKS_URI, new String[]{"count(*)"}, null, null, null);
+        if(c == null){
+            return -1;
+        }
+        try {
+            return c.moveToFirst() ? c.getLong(0) : -1;
+        } finally {
+            c.close();
+        }
+    }
+
+    private static void appendJson(StringBuilder line, Cursor c) {
+        line.append('{');
+        for(int i = 0; i < COLUMNS.length; i++){
+            line.append(i > 0 ? "," : "").append('"').append(COLUMNS[i]).append("\":");
+            if(c.isNull(i)){
+                line.append("null");
+            }else if(isText(COLUMNS[i])){
+                line.append(JSONObject.quote(c.getString(i)));
+            }else{
+                line.append(c.getLong(i));
+            }
+        }
+        line.append('}');
+    }
+
+    private static void appendCsv(StringBuilder line, Cursor c) {
+        for(int i = 0; i < COLUMNS.length; i++){
+            if(i > 0){
+                line.append(',');
+            }
+            if(c.isNull(i)){
+                continue; //an empty field
+            }
+            if(!isText(COLUMNS[i])){
+                line.append(c.getLong(i));
+                continue;
+            }
+            String text = c.getString(i);
+            if(text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0){
+                line.append(text);
+            }else{
+                line.append('"').append(text.replace("\"", "\"\"")).append('"');
+            }
+        }
+    }
+
+    private static boolean isText(String column) {
+        return TodoItem.TITLE.equals(column) || TodoItem.DETAILS.equals(column);
+    }
+
+    //adds one column of a record to its task; value is null for a column left empty
+    private static void put(ContentValues task, String column, Object value, long record) throws IOException {
+        if(value == null || TodoItem.ID.equals(column)){
+            return;
+        }
+        if(isText(column)){
+            task.put(column, value.toString());
+            return;
+        }
+        Long number;
+        if(value instanceof Number){
+            number = ((Number) value).longValue();
+        }else if(value instanceof Boolean || "true".equals(value) || "false".equals(value)){
+            number = Boolean.valueOf(value.toString()) ? 1L : 0L;
+        }else{
+            try {
+                number = Long.parseLong(value.toString());
+            } catch (NumberFormatException e) {
+                throw new IOException("Record " + record + ": " + column + " is not a number: " + value);
+            }
+        }
+        task.put(column, number);
+    }
+
+    //Encodes text into a fixed buffer, writing it to the channel each time it fills
+    private static class ChannelWriter {
+        private final WritableByteChannel channel;
+        private final CharsetEncoder encoder = UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        ChannelWriter(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void write(CharSequence text) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(text);
+            while(encoder.encode(chars, buffer, false).isOverflow()){
+                drain();
+            }
+        }
+
+        void flush() throws IOException {
+            while(encoder.encode(CharBuffer.allocate(0), buffer, true).isOverflow()){
+                drain();
+            }
+            while(encoder.flush(buffer).isOverflow()){
+                drain();
+            }
+            drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    //Parses tasks one record at a time
+    private interface RecordReader {
+        //the next task, or null at the end of the input
+        ContentValues next() throws IOException;
+    }
+
+    private static class JsonLinesReader implements RecordReader {
+        private final BufferedReader reader;
+        private long lineNumber;
+
+        JsonLinesReader(Reader reader) {
+            this.reader = new BufferedReader(reader, BUFFER_SIZE);
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                lineNumber++;
+                if(line == null){
+                    return null;
+                }
+            } while(line.trim().isEmpty()); //blank lines are allowed, e.g. at the end
+
+            JSONObject json;
+            try {
+                json = new JSONObject(line);
+            } catch (JSONException e) {
+                throw new IOException("Record " + lineNumber + ": " + e.getMessage());
+            }
+            ContentValues task = new ContentValues();
+            for(String column : COLUMNS){
+                Object value = json.opt(column);
+                put(task, column, value == JSONObject.NULL ? null : value, lineNumber);
+            }
+            return task;
+        }
+    }
+
+    private static class CsvReader implements RecordReader {
+        private final Reader reader;
+        private final char[] chars = new char[BUFFER_SIZE];
+        private int position, length;
+        private final List<String> fields = new ArrayList<String>();
+        private final StringBuilder field = new StringBuilder();
+        private Map<String, Integer> header; //column name to field index, read from the first record
+        private long record;
+
+        CsvReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            if(header == null){
+                if(!readRecord()){
+                    return null;
+                }
+                header = new HashMap<String, Integer>();
+                for(int i = 0; i < fields.size(); i++){
+                    header.put(fields.get(i).trim(), i);
+                }
+            }
+            do {
+                if(!readRecord()){
+                    return null;
+                }
+            } while(fields.size() == 1 && fields.get(0).isEmpty()); //a blank line
+
+            ContentValues task = new ContentValues();
+            for(String column : COLUMNS){
+                Integer index = header.get(column);
+                String value = index != null && index < fields.size() ? fields.get(index) : null;
+                put(task, column, value == null || (value.isEmpty() && !isText(column)) ? null : value, record);
+            }
+            return task;
+        }
+
+        //reads the next record's fields; false at the end of the input
+        private boolean readRecord() throws IOException {
+            int ch = read();
+            if(ch < 0){
+                return false;
+            }
+            record++;
+            fields.clear();
+            field.setLength(0);
+            boolean quoted = false;
+            while(true){
+                if(quoted){
+                    if(ch < 0){
+                        throw new IOException("Record " + record + ": unterminated quote");
+                    }
+                    if(ch == '"'){
+                        ch = read();
+                        if(ch != '"'){ //a closing quote; look at what follows it unquoted
+                            quoted = false;
+                            continue;
+                        }
+                    }
+                    field.append((char) ch);
+                }else if(ch == '"'){
+                    quoted = true;
+                }else if(ch == ','){
+                    fields.add(field.toString());
+                    field.setLength(0);
+                }else if(ch == '\n' || ch < 0){
+                    break;
+                }else if(ch != '\r'){
+                    field.append((char) ch);
+                }
+                ch = read();
+            }
+            fields.add(field.toString());
+            return true;
+        }
+
+        private int read() throws IOException {
+            if(position == length){
+                length = reader.read(chars, 0, chars.length);
+                position = 0;
+                if(length <= 0){
+                    length = 0;
+                    return -1;
+                }
+            }
+            return chars[position++];
+        }
+    }
+}
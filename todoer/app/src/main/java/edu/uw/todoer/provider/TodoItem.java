@@ -11,4 +11,8 @@ public class TodoItem {
     public static final String DEADLINE = TodoListProvider.TaskEntry.COL_DEADLINE;
     public static final String COMPLETED = TodoListProvider.TaskEntry.COL_COMPLETED;
     public static final String TIME_CREATED = TodoListProvider.TaskEntry.COL_TIME_CREATED;
+    public static final String TIME_COMPLETED = TodoListProvider.TaskEntry.COL_TIME_COMPLETED;
+    public static final String RECURRENCE = TodoListProvider.TaskEntry.COL_RECURRENCE; //see Recurrence
+    public static final String SERIES_ID = TodoListProvider.TaskEntry.COL_SERIES_ID;
+    public static final String OCCURRENCE = TodoListProvider.TaskEntry.COL_OCCURRENCE;
 }
@@ -1,20 +1,39 @@
 package edu.uw.todoer.provider;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.uw.todoer.metrics.Metrics;
 
 /**
  * A Content Provider giving access to a database of tasks.
@@ -29,13 +48,105 @@ public class TodoListProvider extends ContentProvider {
     //Content Provider details
     private static final String AUTHORITY = "edu.uw.todoer.provider";
     private static final String TASK_RESOURCE = "tasks";
+    private static final String TAG_RESOURCE = "tags";
 
     //URI details
     public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/"+TASK_RESOURCE);
 
+    //query parameters for paging through /tasks, see pageUri() and pageBeforeUri()
+    public static final String QUERY_LIMIT = "limit";
+    public static final String QUERY_AFTER = "after";
+    public static final String QUERY_BEFORE = "before";
+
+    //the sort key of a task with no deadline, in page keys and when sorted by deadline: such tasks come
+    //first, as SQLite sorts NULLs before any value
+    public static final long NO_DEADLINE = Long.MIN_VALUE;
+
+    //inserts into /tasks?keep_created=true keep the created_at they are given, as imports do
+    public static final String QUERY_KEEP_CREATED = "keep_created";
+    public static final Uri IMPORT_URI = CONTENT_URI.buildUpon().appendQueryParameter(QUERY_KEEP_CREATED, "true").build();
+
+    //every task, archived ones included (see METHOD_ARCHIVE); paged the same way as /tasks, see pageUri(Uri, int, long[])
+    public static final Uri ALL_TASKS_URI = Uri.withAppendedPath(CONTENT_URI, "all");
+
+    //incomplete tasks with deadlines in a range, paged the same way as /tasks: any range with dueUri(),
+    //or the overdue, due today and due this week ranges as of the time of the query (see dueRange())
+    public static final Uri DUE_URI = Uri.withAppendedPath(CONTENT_URI, "due");
+    public static final String QUERY_DUE_FROM = "from";
+    public static final String QUERY_DUE_UNTIL = "until";
+    public static final String DUE_OVERDUE = "overdue";
+    public static final String DUE_TODAY = "today";
+    public static final String DUE_WEEK = "week";
+
+    //a single row counting the tasks in each of these columns, without loading any of them
+    public static final Uri COUNTS_URI = Uri.withAppendedPath(CONTENT_URI, "counts");
+    public static final String COUNT_OVERDUE = DUE_OVERDUE;
+    public static final String COUNT_TODAY = DUE_TODAY;
+    public static final String COUNT_WEEK = DUE_WEEK;
+    public static final String COUNT_TODO = "todo";
+    public static final String COUNT_COMPLETED = "completed"; //archived tasks included
+
+    //a single row with COUNT_TODO, COUNT_OVERDUE and COUNT_COMPLETED, for showing at a glance: to do and completed
+    //are read from counters the database keeps as tasks change (see TaskEntry.STATS_TABLE_NAME), and overdue,
+    //which changes with the time rather than the tasks, is counted along the (completed, deadline) index
+    public static final Uri STATS_URI = Uri.withAppendedPath(CONTENT_URI, "stats");
+
+    //tags, each with how many tasks have it (see TagItem); /tags/#/tasks lists and pages the tasks with a tag
+    //like /tasks, inserting {task_id} there tags a task and deleting /tags/#/tasks/# untags it.
+    //Updating /tags/# renames a tag; taking another tag's name, ignoring case, throws IllegalArgumentException.
+    //The tags of a task are at tasks/#/tags, see taskTagsUri().
+    public static final Uri TAGS_URI = Uri.parse("content://" + AUTHORITY + "/" + TAG_RESOURCE);
+    public static final String TAGGED_TASK_ID = TagEntry.COL_TASK_ID;
+
+    //syncing (see TaskSync): /tasks/sync lists the local changes not yet pushed, oldest first, paged by SyncItem.ID
+    //like /tasks by _id, and deleting there drops the ones pushed. Inserting changes pulled from the server at
+    //pulledUri() applies them. /tasks/sync/state is a single row with this device's client id and pull cursor.
+    public static final Uri SYNC_URI = Uri.withAppendedPath(CONTENT_URI, "sync");
+    public static final Uri SYNC_STATE_URI = Uri.withAppendedPath(SYNC_URI, "state");
+    public static final String QUERY_SYNC_CURSOR = "cursor";
+
+    //repeating tasks (see TaskOccurrences): insert a task with a TodoItem.RECURRENCE rule to start a series. Its
+    //occurrences are listed, with the incomplete tasks, for a window of deadlines at occurrencesUri(), and one is
+    //completed or edited by updating its occurrenceUri(), which gives it a row of its own.
+    public static final Uri OCCURRENCES_URI = Uri.withAppendedPath(CONTENT_URI, "occurrences");
+    private static final String OCCURRENCE_RESOURCE = "occurrences";
+
+    //full-text search of titles and details, see searchUri()
+    public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, "search");
+    public static final String QUERY_SEARCH = "q";
+
+    //observers of the collection get one notification here per write, listing the changed rows; see changedIds()
+    public static final Uri CHANGES_URI = Uri.withAppendedPath(CONTENT_URI, "changes");
+    public static final String QUERY_IDS = "ids";
+    private static final int MAX_CHANGED_IDS = 50; //more than this and observers are told everything changed
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final String COUNT = "count(*)"; //the projection the lists count with
+
+    //ContentResolver.call() method returning the query cache's hit and miss counts, and the statements
+    //compiled for queries it missed (see compile()), under these keys
+    public static final String METHOD_CACHE_STATS = "cache_stats";
+    public static final String STAT_CACHE_HITS = "hits";
+    public static final String STAT_CACHE_MISSES = "misses";
+    public static final String STAT_COMPILATIONS = "compilations";
+
+    //broadcast when a task's deadline comes; the receiver then calls METHOD_REMIND, which returns
+    //the tasks due under these keys and sets the alarm for the next one (see DeadlineReminders)
+    public static final String ACTION_REMIND = "edu.uw.todoer.action.REMIND";
+    public static final String METHOD_REMIND = "remind";
+    public static final String REMIND_COUNT = "count";
+    public static final String REMIND_IDS = "ids";
+    public static final String REMIND_TITLES = "titles";
+
+    //ContentResolver.call() method moving tasks completed more than arg days ago (default ARCHIVE_AFTER_DAYS)
+    //into the archive table; returns how many it moved under ARCHIVED_COUNT. See TaskArchiver.
+    public static final String METHOD_ARCHIVE = "archive";
+    public static final String ARCHIVED_COUNT = "count";
+    public static final int ARCHIVE_AFTER_DAYS = 30;
+
     //database details
     private static final String DATABASE_NAME = "todolist.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 9;
 
     /**
      * The schema and contract for the underlying database.
@@ -50,6 +161,81 @@ public class TodoListProvider extends ContentProvider {
         public static final String COL_TIME_CREATED = "created_at";
         public static final String COL_DEADLINE = "deadline";
         public static final String COL_COMPLETED = "completed";
+        public static final String COL_TIME_COMPLETED = "completed_at"; //set by the database, null while not completed
+
+        public static final String INDEX_COMPLETED_DEADLINE = "tasks_completed_deadline";
+        public static final String INDEX_COMPLETED_TIME_CREATED = "tasks_completed_created_at";
+
+        //full-text index of the title and details, one row per task with docid = _id
+        public static final String SEARCH_TABLE_NAME = "tasks_fts";
+
+        //tasks completed long ago, moved out of the tasks table with their ids and columns unchanged
+        public static final String ARCHIVE_TABLE_NAME = "tasks_archive";
+        public static final String INDEX_ARCHIVE_DEADLINE = "tasks_archive_deadline";
+        public static final String INDEX_ARCHIVE_TIME_CREATED = "tasks_archive_created_at";
+
+        //set by the database in both tables, for syncing: the task's id on every device, and when it last changed
+        public static final String COL_SYNC_ID = "sync_id";
+        public static final String COL_TIME_UPDATED = "updated_at";
+        public static final String INDEX_SYNC_ID = "tasks_sync_id";
+        public static final String INDEX_ARCHIVE_SYNC_ID = "tasks_archive_sync_id";
+
+        //repeating tasks, in both tables (see TaskOccurrences): a series has a rule, which its own occurrences don't;
+        //a completed or edited occurrence is a row naming its series and the deadline it was due at, set by the provider
+        public static final String COL_RECURRENCE = "recurrence";
+        public static final String COL_SERIES_ID = "series_id";
+        public static final String COL_OCCURRENCE = "occurrence";
+        public static final String INDEX_RECURRENCE = "tasks_recurrence";
+        public static final String INDEX_SERIES = "tasks_series";
+        public static final String INDEX_ARCHIVE_SERIES = "tasks_archive_series";
+
+        //a single row counting the tasks, archived ones included, kept by triggers on both tables
+        public static final String STATS_TABLE_NAME = "task_stats";
+        public static final String COL_TODO_COUNT = "todo_count"; //completed=0
+        public static final String COL_COMPLETED_COUNT = "completed_count"; //completed=1
+    }
+
+    /**
+     * The schema of tags and of which tasks have them (see TaskTags).
+     */
+    public static class TagEntry implements BaseColumns {
+        //class cannot be instantiated
+        private TagEntry(){}
+
+        public static final String TABLE_NAME = "tags";
+        public static final String COL_NAME = "name"; //unique, ignoring case
+        public static final String COL_TASK_COUNT = "task_count"; //tasks with the tag, archived ones included
+        public static final String COL_TODO_COUNT = "todo_count"; //of those, the ones not completed
+
+        //one row per tagged task, with copies of the task's completed, deadline and created_at columns
+        public static final String LINK_TABLE_NAME = "task_tags";
+        public static final String COL_TAG_ID = "tag_id";
+        public static final String COL_TASK_ID = "task_id";
+
+        //the tagged lists, as the task list indexes but within a tag, ending with the task id to find the task by;
+        //not covering, as the title and the other columns the lists show are read from the task's own row
+        public static final String INDEX_LINK_DEADLINE = "task_tags_deadline";
+        public static final String INDEX_LINK_TIME_CREATED = "task_tags_created_at";
+        public static final String INDEX_LINK_TASK = "task_tags_task"; //for the triggers following a task
+    }
+
+    /**
+     * The schema of the log of changes waiting to be synced, and of how far syncing has got (see SyncLog).
+     */
+    public static class SyncEntry implements BaseColumns {
+        //class cannot be instantiated
+        private SyncEntry(){}
+
+        //one row per task changed since it was last pushed, with _id in the order of their latest changes
+        public static final String TABLE_NAME = "sync_changes";
+        public static final String COL_SYNC_ID = TaskEntry.COL_SYNC_ID; //unique, so a task is logged once however often it changes
+        public static final String COL_TASK_ID = "task_id";
+        public static final String COL_TIME_DELETED = "deleted_at"; //set if the task was deleted, making the row a tombstone
+
+        //a single row
+        public static final String STATE_TABLE_NAME = "sync_state";
+        public static final String COL_CLIENT_ID = "client_id"; //who this device is to the server
+        public static final String COL_CURSOR = "cursor"; //where in the server's changes the last pull got to
     }
 
     private static final UriMatcher sUriMatcher; //for handling Uri requests
@@ -57,12 +243,42 @@ public class TodoListProvider extends ContentProvider {
     //integer values representing each supported resource Uri
     private static final int TASKS_URI = 1; // /tasks
     private static final int TASKS_NUM_URI = 2;// /tasks/:id
+    private static final int TASKS_SEARCH_URI = 3;// /tasks/search?q=
+    private static final int TASKS_ALL_URI = 4;// /tasks/all
+    private static final int TASKS_DUE_URI = 5;// /tasks/due?from=&until=
+    private static final int TASKS_DUE_RANGE_URI = 6;// /tasks/due/:range
+    private static final int TASKS_COUNTS_URI = 7;// /tasks/counts
+    private static final int TAGS_DIR_URI = 8;// /tags
+    private static final int TAGS_NUM_URI = 9;// /tags/:id
+    private static final int TAGS_TASKS_URI = 10;// /tags/:id/tasks
+    private static final int TAGS_TASKS_NUM_URI = 11;// /tags/:id/tasks/:id
+    private static final int TASKS_TAGS_URI = 12;// /tasks/:id/tags
+    private static final int TASKS_SYNC_URI = 13;// /tasks/sync
+    private static final int TASKS_SYNC_STATE_URI = 14;// /tasks/sync/state
+    private static final int TASKS_OCCURRENCES_URI = 15;// /tasks/occurrences?from=&until=
+    private static final int TASKS_OCCURRENCE_URI = 16;// /tasks/:id/occurrences/:deadline
+    private static final int TASKS_STATS_URI = 17;// /tasks/stats
 
     static {
         //setup mapping between URIs and IDs
         sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE, TASKS_URI);
         sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE + "/#", TASKS_NUM_URI);
+        sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE + "/search", TASKS_SEARCH_URI);
+        sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE + "/all", TASKS_ALL_URI);
+        sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE + "/due", TASKS_DUE_URI);
+        sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE + "/due/*", TASKS_DUE_RANGE_URI);
+        sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE + "/counts", TASKS_COUNTS_URI);
+        sUriMatcher.addURI(AUTHORITY, TAG_RESOURCE, TAGS_DIR_URI);
+        sUriMatcher.addURI(AUTHORITY, TAG_RESOURCE + "/#", TAGS_NUM_URI);
+        sUriMatcher.addURI(AUTHORITY, TAG_RESOURCE + "/#/tasks", TAGS_TASKS_URI);
+        sUriMatcher.addURI(AUTHORITY, TAG_RESOURCE + "/#/tasks/#", TAGS_TASKS_NUM_URI);
+        sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE + "/#/tags", TASKS_TAGS_URI);
+        sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE + "/sync", TASKS_SYNC_URI);
+        sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE + "/sync/state", TASKS_SYNC_STATE_URI);
+        sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE + "/occurrences", TASKS_OCCURRENCES_URI);
+        sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE + "/#/occurrences/#", TASKS_OCCURRENCE_URI);
+        sUriMatcher.addURI(AUTHORITY, TASK_RESOURCE + "/stats", TASKS_STATS_URI);
     }
 
 
@@ -78,76 +294,1574 @@ public class TodoListProvider extends ContentProvider {
                         TaskEntry.COL_TITLE + " TEXT" + "," +
                         TaskEntry.COL_DETAILS + " TEXT" + ","+
                         TaskEntry.COL_DEADLINE + " INTEGER" + ","+
-                        TaskEntry.COL_COMPLETED + " INTEGER" +
+                        TaskEntry.COL_COMPLETED + " INTEGER" + ","+
+                        TaskEntry.COL_TIME_COMPLETED + " INTEGER" +
+                ")";
+
+        //indexes backing the list queries: filter on completed, then sort by deadline or creation time
+        private static final String CREATE_DEADLINE_INDEX =
+                "CREATE INDEX IF NOT EXISTS " + TaskEntry.INDEX_COMPLETED_DEADLINE + " ON " + TaskEntry.TABLE_NAME + "(" +
+                        TaskEntry.COL_COMPLETED + "," + TaskEntry.COL_DEADLINE +
+                ")";
+
+        private static final String CREATE_TIME_CREATED_INDEX =
+                "CREATE INDEX IF NOT EXISTS " + TaskEntry.INDEX_COMPLETED_TIME_CREATED + " ON " + TaskEntry.TABLE_NAME + "(" +
+                        TaskEntry.COL_COMPLETED + "," + TaskEntry.COL_TIME_CREATED +
+                ")";
+
+        //FTS4 with docid = the task's _id; kept in sync by the triggers below
+        //(external content tables would avoid the copy, but need a newer SQLite than API 15 ships)
+        private static final String CREATE_SEARCH_TABLE =
+                "CREATE VIRTUAL TABLE " + TaskEntry.SEARCH_TABLE_NAME + " USING fts4(" +
+                        TaskEntry.COL_TITLE + "," + TaskEntry.COL_DETAILS +
+                ")";
+
+        private static final String[] CREATE_SEARCH_TRIGGERS = {
+                "CREATE TRIGGER tasks_fts_insert AFTER INSERT ON " + TaskEntry.TABLE_NAME + " BEGIN " +
+                        "INSERT INTO " + TaskEntry.SEARCH_TABLE_NAME + "(docid," + TaskEntry.COL_TITLE + "," + TaskEntry.COL_DETAILS + ")" +
+                        " VALUES (new." + TaskEntry._ID + ",new." + TaskEntry.COL_TITLE + ",new." + TaskEntry.COL_DETAILS + "); " +
+                "END",
+                //only when the text changes, so toggling completed does not touch the index
+                "CREATE TRIGGER tasks_fts_update AFTER UPDATE OF " + TaskEntry.COL_TITLE + "," + TaskEntry.COL_DETAILS +
+                        " ON " + TaskEntry.TABLE_NAME + " BEGIN " +
+                        "UPDATE " + TaskEntry.SEARCH_TABLE_NAME + " SET " + TaskEntry.COL_TITLE + "=new." + TaskEntry.COL_TITLE +
+                        "," + TaskEntry.COL_DETAILS + "=new." + TaskEntry.COL_DETAILS + " WHERE docid=old." + TaskEntry._ID + "; " +
+                "END",
+                "CREATE TRIGGER tasks_fts_delete AFTER DELETE ON " + TaskEntry.TABLE_NAME + " BEGIN " +
+                        "DELETE FROM " + TaskEntry.SEARCH_TABLE_NAME + " WHERE docid=old." + TaskEntry._ID + "; " +
+                "END"
+        };
+
+        //the time in ms, as SQLite sees it
+        private static final String NOW = "(strftime('%s','now')*1000)";
+
+        //stamp the time a task is completed, for archiving it later; not touching the search index
+        private static final String[] CREATE_COMPLETED_TRIGGERS = {
+                "CREATE TRIGGER tasks_completed_insert AFTER INSERT ON " + TaskEntry.TABLE_NAME +
+                        " WHEN new." + TaskEntry.COL_COMPLETED + "=1 AND new." + TaskEntry.COL_TIME_COMPLETED + " IS NULL BEGIN " +
+                        "UPDATE " + TaskEntry.TABLE_NAME + " SET " + TaskEntry.COL_TIME_COMPLETED + "=" + NOW +
+                        " WHERE " + TaskEntry._ID + "=new." + TaskEntry._ID + "; " +
+                "END",
+                "CREATE TRIGGER tasks_completed_update AFTER UPDATE OF " + TaskEntry.COL_COMPLETED + " ON " + TaskEntry.TABLE_NAME +
+                        " WHEN new." + TaskEntry.COL_COMPLETED + " IS NOT old." + TaskEntry.COL_COMPLETED + " BEGIN " +
+                        "UPDATE " + TaskEntry.TABLE_NAME + " SET " + TaskEntry.COL_TIME_COMPLETED + "=" +
+                        "CASE WHEN new." + TaskEntry.COL_COMPLETED + "=1 THEN " + NOW + " END" +
+                        " WHERE " + TaskEntry._ID + "=new." + TaskEntry._ID + "; " +
+                "END"
+        };
+
+        //no AUTOINCREMENT: tasks arrive with the id they had, which the tasks table never hands out again
+        private static final String CREATE_ARCHIVE_TABLE =
+                "CREATE TABLE " + TaskEntry.ARCHIVE_TABLE_NAME + "(" +
+                        TaskEntry._ID + " INTEGER PRIMARY KEY" + ", "+
+                        TaskEntry.COL_TIME_CREATED + " INTEGER" + ","+
+                        TaskEntry.COL_TITLE + " TEXT" + "," +
+                        TaskEntry.COL_DETAILS + " TEXT" + ","+
+                        TaskEntry.COL_DEADLINE + " INTEGER" + ","+
+                        TaskEntry.COL_COMPLETED + " INTEGER" + ","+
+                        TaskEntry.COL_TIME_COMPLETED + " INTEGER" +
+                ")";
+
+        //every archived task is completed, so the list indexes need no completed column
+        private static final String[] CREATE_ARCHIVE_INDEXES = {
+                "CREATE INDEX " + TaskEntry.INDEX_ARCHIVE_DEADLINE + " ON " + TaskEntry.ARCHIVE_TABLE_NAME + "(" +
+                        TaskEntry.COL_DEADLINE + ")",
+                "CREATE INDEX " + TaskEntry.INDEX_ARCHIVE_TIME_CREATED + " ON " + TaskEntry.ARCHIVE_TABLE_NAME + "(" +
+                        TaskEntry.COL_TIME_CREATED + ")"
+        };
+
+        //archived tasks stay in the search index (TaskArchiver puts them back after the tasks delete trigger
+        //takes them out), so leave it when they are deleted or restored
+        private static final String CREATE_ARCHIVE_SEARCH_TRIGGER =
+                "CREATE TRIGGER tasks_archive_fts_delete AFTER DELETE ON " + TaskEntry.ARCHIVE_TABLE_NAME + " BEGIN " +
+                        "DELETE FROM " + TaskEntry.SEARCH_TABLE_NAME + " WHERE docid=old." + TaskEntry._ID + "; " +
+                "END";
+
+        private static final String CREATE_TAGS_TABLE =
+                "CREATE TABLE " + TagEntry.TABLE_NAME + "(" +
+                        TagEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT" + "," +
+                        TagEntry.COL_NAME + " TEXT NOT NULL COLLATE NOCASE UNIQUE" + "," +
+                        TagEntry.COL_TASK_COUNT + " INTEGER NOT NULL DEFAULT 0" + "," +
+                        TagEntry.COL_TODO_COUNT + " INTEGER NOT NULL DEFAULT 0" +
+                ")";
+
+        private static final String CREATE_TAG_LINK_TABLE =
+                "CREATE TABLE " + TagEntry.LINK_TABLE_NAME + "(" +
+                        TagEntry.COL_TAG_ID + " INTEGER NOT NULL" + "," +
+                        TagEntry.COL_TASK_ID + " INTEGER NOT NULL" + "," +
+                        TaskEntry.COL_COMPLETED + " INTEGER" + "," +
+                        TaskEntry.COL_DEADLINE + " INTEGER" + "," +
+                        TaskEntry.COL_TIME_CREATED + " INTEGER" + "," +
+                        "PRIMARY KEY(" + TagEntry.COL_TAG_ID + "," + TagEntry.COL_TASK_ID + ")" +
+                ")";
+
+        private static final String[] CREATE_TAG_LINK_INDEXES = {
+                "CREATE INDEX " + TagEntry.INDEX_LINK_DEADLINE + " ON " + TagEntry.LINK_TABLE_NAME + "(" +
+                        TagEntry.COL_TAG_ID + "," + TaskEntry.COL_COMPLETED + "," + TaskEntry.COL_DEADLINE + "," + TagEntry.COL_TASK_ID + ")",
+                "CREATE INDEX " + TagEntry.INDEX_LINK_TIME_CREATED + " ON " + TagEntry.LINK_TABLE_NAME + "(" +
+                        TagEntry.COL_TAG_ID + "," + TaskEntry.COL_COMPLETED + "," + TaskEntry.COL_TIME_CREATED + "," + TagEntry.COL_TASK_ID + ")",
+                "CREATE INDEX " + TagEntry.INDEX_LINK_TASK + " ON " + TagEntry.LINK_TABLE_NAME + "(" +
+                        TagEntry.COL_TASK_ID + ")"
+        };
+
+        //a task's completed flag as 1 if it counts as to do, else 0
+        private static final String TODO_NEW = "(new." + TaskEntry.COL_COMPLETED + "=0)";
+        private static final String TODO_OLD = "(old." + TaskEntry.COL_COMPLETED + "=0)";
+
+        private static final String[] CREATE_TAG_TRIGGERS = {
+                //the counts follow the links, one row at a time
+                "CREATE TRIGGER task_tags_insert AFTER INSERT ON " + TagEntry.LINK_TABLE_NAME + " BEGIN " +
+                        "UPDATE " + TagEntry.TABLE_NAME + " SET " + TagEntry.COL_TASK_COUNT + "=" + TagEntry.COL_TASK_COUNT + "+1," +
+                        TagEntry.COL_TODO_COUNT + "=" + TagEntry.COL_TODO_COUNT + "+" + TODO_NEW +
+                        " WHERE " + TagEntry._ID + "=new." + TagEntry.COL_TAG_ID + "; " +
+                "END",
+                "CREATE TRIGGER task_tags_delete AFTER DELETE ON " + TagEntry.LINK_TABLE_NAME + " BEGIN " +
+                        "UPDATE " + TagEntry.TABLE_NAME + " SET " + TagEntry.COL_TASK_COUNT + "=" + TagEntry.COL_TASK_COUNT + "-1," +
+                        TagEntry.COL_TODO_COUNT + "=" + TagEntry.COL_TODO_COUNT + "-" + TODO_OLD +
+                        " WHERE " + TagEntry._ID + "=old." + TagEntry.COL_TAG_ID + "; " +
+                "END",
+                "CREATE TRIGGER task_tags_completed AFTER UPDATE OF " + TaskEntry.COL_COMPLETED + " ON " + TagEntry.LINK_TABLE_NAME +
+                        " WHEN new." + TaskEntry.COL_COMPLETED + " IS NOT old." + TaskEntry.COL_COMPLETED + " BEGIN " +
+                        "UPDATE " + TagEntry.TABLE_NAME + " SET " + TagEntry.COL_TODO_COUNT + "=" + TagEntry.COL_TODO_COUNT +
+                        "+" + TODO_NEW + "-" + TODO_OLD + " WHERE " + TagEntry._ID + "=new." + TagEntry.COL_TAG_ID + "; " +
+                "END",
+                //the links' copies of the list columns follow the task
+                "CREATE TRIGGER tasks_tags_update AFTER UPDATE OF " + TaskEntry.COL_COMPLETED + "," + TaskEntry.COL_DEADLINE + "," +
+                        TaskEntry.COL_TIME_CREATED + " ON " + TaskEntry.TABLE_NAME + " BEGIN " +
+                        "UPDATE " + TagEntry.LINK_TABLE_NAME + " SET " + TaskEntry.COL_COMPLETED + "=new." + TaskEntry.COL_COMPLETED + "," +
+                        TaskEntry.COL_DEADLINE + "=new." + TaskEntry.COL_DEADLINE + "," +
+                        TaskEntry.COL_TIME_CREATED + "=new." + TaskEntry.COL_TIME_CREATED +
+                        " WHERE " + TagEntry.COL_TASK_ID + "=new." + TaskEntry._ID + "; " +
+                "END",
+                //a deleted task loses its tags, unless it was only moved to the archive (which is filled first)
+                "CREATE TRIGGER tasks_tags_delete AFTER DELETE ON " + TaskEntry.TABLE_NAME + " BEGIN " +
+                        "DELETE FROM " + TagEntry.LINK_TABLE_NAME + " WHERE " + TagEntry.COL_TASK_ID + "=old." + TaskEntry._ID +
+                        " AND NOT EXISTS (SELECT 1 FROM " + TaskEntry.ARCHIVE_TABLE_NAME +
+                        " WHERE " + TaskEntry._ID + "=old." + TaskEntry._ID + "); " +
+                "END",
+                "CREATE TRIGGER tags_delete AFTER DELETE ON " + TagEntry.TABLE_NAME + " BEGIN " +
+                        "DELETE FROM " + TagEntry.LINK_TABLE_NAME + " WHERE " + TagEntry.COL_TAG_ID + "=old." + TagEntry._ID + "; " +
+                "END"
+        };
+
+        private static final String FILL_SEARCH_TABLE =
+                "INSERT INTO " + TaskEntry.SEARCH_TABLE_NAME + "(docid," + TaskEntry.COL_TITLE + "," + TaskEntry.COL_DETAILS + ")" +
+                        " SELECT " + TaskEntry._ID + "," + TaskEntry.COL_TITLE + "," + TaskEntry.COL_DETAILS +
+                        " FROM " + TaskEntry.TABLE_NAME;
+
+        //the time in ms to the millisecond, for ordering edits made on different devices
+        private static final String CLOCK = "CAST((julianday('now')-2440587.5)*86400000 AS INTEGER)";
+        private static final String NEW_SYNC_ID = "lower(hex(randomblob(16)))"; //128 random bits, in hex
+
+        //columns are added to both task tables the same way whether creating or upgrading, so each keeps one column order
+        private static final String[] TASK_TABLES = {TaskEntry.TABLE_NAME, TaskEntry.ARCHIVE_TABLE_NAME};
+
+        private static final String[] CREATE_SYNC_INDEXES = {
+                "CREATE UNIQUE INDEX " + TaskEntry.INDEX_SYNC_ID + " ON " + TaskEntry.TABLE_NAME + "(" + TaskEntry.COL_SYNC_ID + ")",
+                "CREATE UNIQUE INDEX " + TaskEntry.INDEX_ARCHIVE_SYNC_ID + " ON " + TaskEntry.ARCHIVE_TABLE_NAME + "(" +
+                        TaskEntry.COL_SYNC_ID + ")"
+        };
+
+        private static final String CREATE_SYNC_LOG_TABLE =
+                "CREATE TABLE " + SyncEntry.TABLE_NAME + "(" +
+                        SyncEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT" + "," + //never reused, so later changes sort after any pushed
+                        SyncEntry.COL_SYNC_ID + " TEXT NOT NULL UNIQUE" + "," +
+                        SyncEntry.COL_TASK_ID + " INTEGER NOT NULL" + "," +
+                        SyncEntry.COL_TIME_DELETED + " INTEGER" +
+                ")";
+
+        private static final String CREATE_SYNC_STATE_TABLE =
+                "CREATE TABLE " + SyncEntry.STATE_TABLE_NAME + "(" +
+                        SyncEntry.COL_CLIENT_ID + " TEXT NOT NULL" + "," +
+                        SyncEntry.COL_CURSOR + " INTEGER NOT NULL" +
+                ")";
+
+        //logging a task replaces any earlier change to it, moving it to the end of the log
+        private static final String LOG_CHANGE = "INSERT OR REPLACE INTO " + SyncEntry.TABLE_NAME + "(" +
+                SyncEntry.COL_SYNC_ID + "," + SyncEntry.COL_TASK_ID + "," + SyncEntry.COL_TIME_DELETED + ")";
+
+        //the body of the tasks_sync_update trigger
+        private static final String SYNC_UPDATE = " BEGIN " +
+                "UPDATE " + TaskEntry.TABLE_NAME + " SET " + TaskEntry.COL_TIME_UPDATED + "=" + CLOCK +
+                " WHERE " + TaskEntry._ID + "=new." + TaskEntry._ID +
+                " AND new." + TaskEntry.COL_TIME_UPDATED + " IS old." + TaskEntry.COL_TIME_UPDATED + "; " +
+                LOG_CHANGE + " VALUES (new." + TaskEntry.COL_SYNC_ID + ",new." + TaskEntry._ID + ",NULL); " +
+                "END";
+
+        private static final String[] CREATE_SYNC_TRIGGERS = {
+                //new tasks get a sync id, and the time, unless they came from another device with their own
+                "CREATE TRIGGER tasks_sync_insert AFTER INSERT ON " + TaskEntry.TABLE_NAME + " BEGIN " +
+                        "UPDATE " + TaskEntry.TABLE_NAME + " SET " +
+                        TaskEntry.COL_SYNC_ID + "=ifnull(new." + TaskEntry.COL_SYNC_ID + "," + NEW_SYNC_ID + ")," +
+                        TaskEntry.COL_TIME_UPDATED + "=ifnull(new." + TaskEntry.COL_TIME_UPDATED + "," + CLOCK + ")" +
+                        " WHERE " + TaskEntry._ID + "=new." + TaskEntry._ID + " AND (new." + TaskEntry.COL_SYNC_ID + " IS NULL" +
+                        " OR new." + TaskEntry.COL_TIME_UPDATED + " IS NULL); " +
+                        LOG_CHANGE + " SELECT " + TaskEntry.COL_SYNC_ID + "," + TaskEntry._ID + ",NULL FROM " + TaskEntry.TABLE_NAME +
+                        " WHERE " + TaskEntry._ID + "=new." + TaskEntry._ID + "; " +
+                "END",
+                //any edit of the task's own columns; an update that sets the time itself (a pulled change) keeps it
+                "CREATE TRIGGER tasks_sync_update AFTER UPDATE OF " + TaskEntry.COL_TITLE + "," + TaskEntry.COL_DETAILS + "," +
+                        TaskEntry.COL_DEADLINE + "," + TaskEntry.COL_COMPLETED + "," + TaskEntry.COL_TIME_CREATED +
+                        " ON " + TaskEntry.TABLE_NAME + SYNC_UPDATE,
+                //a deleted task leaves a tombstone, unless it only moved between the tasks and archive tables
+                "CREATE TRIGGER tasks_sync_delete AFTER DELETE ON " + TaskEntry.TABLE_NAME +
+                        " WHEN NOT EXISTS (SELECT 1 FROM " + TaskEntry.ARCHIVE_TABLE_NAME +
+                        " WHERE " + TaskEntry._ID + "=old." + TaskEntry._ID + ") BEGIN " +
+                        LOG_CHANGE + " VALUES (old." + TaskEntry.COL_SYNC_ID + ",old." + TaskEntry._ID + "," + CLOCK + "); " +
+                "END",
+                //restoring deletes the archived row first, and the insert that follows replaces its tombstone
+                "CREATE TRIGGER tasks_archive_sync_delete AFTER DELETE ON " + TaskEntry.ARCHIVE_TABLE_NAME +
+                        " WHEN NOT EXISTS (SELECT 1 FROM " + TaskEntry.TABLE_NAME +
+                        " WHERE " + TaskEntry._ID + "=old." + TaskEntry._ID + ") BEGIN " +
+                        LOG_CHANGE + " VALUES (old." + TaskEntry.COL_SYNC_ID + ",old." + TaskEntry._ID + "," + CLOCK + "); " +
+                "END"
+        };
+
+        private static final String[] CREATE_RECURRENCE_INDEXES = {
+                //only series have a rule, so finding them is a short range of this index
+                "CREATE INDEX " + TaskEntry.INDEX_RECURRENCE + " ON " + TaskEntry.TABLE_NAME + "(" + TaskEntry.COL_RECURRENCE + ")",
+                "CREATE INDEX " + TaskEntry.INDEX_SERIES + " ON " + TaskEntry.TABLE_NAME + "(" +
+                        TaskEntry.COL_SERIES_ID + "," + TaskEntry.COL_OCCURRENCE + ")",
+                "CREATE INDEX " + TaskEntry.INDEX_ARCHIVE_SERIES + " ON " + TaskEntry.ARCHIVE_TABLE_NAME + "(" +
+                        TaskEntry.COL_SERIES_ID + "," + TaskEntry.COL_OCCURRENCE + ")"
+        };
+
+        //from version 9 a change of a series' rule is synced too, replacing the tasks_sync_update above
+        private static final String CREATE_SYNC_RECURRENCE_TRIGGER =
+                "CREATE TRIGGER tasks_sync_update AFTER UPDATE OF " + TaskEntry.COL_TITLE + "," + TaskEntry.COL_DETAILS + "," +
+                        TaskEntry.COL_DEADLINE + "," + TaskEntry.COL_COMPLETED + "," + TaskEntry.COL_TIME_CREATED + "," +
+                        TaskEntry.COL_RECURRENCE + " ON " + TaskEntry.TABLE_NAME + SYNC_UPDATE;
+
+        private static final String CREATE_STATS_TABLE =
+                "CREATE TABLE " + TaskEntry.STATS_TABLE_NAME + "(" +
+                        TaskEntry.COL_TODO_COUNT + " INTEGER NOT NULL" + "," +
+                        TaskEntry.COL_COMPLETED_COUNT + " INTEGER NOT NULL" +
                 ")";
 
-        private static final String DROP_TASKS_TABLE = "DROP TABLE IF EXISTS "+TaskEntry.TABLE_NAME;
+        private static final String FILL_STATS_TABLE =
+                "INSERT INTO " + TaskEntry.STATS_TABLE_NAME + " SELECT " +
+                        "(SELECT count(*) FROM " + TaskEntry.TABLE_NAME + " WHERE " + TaskEntry.COL_COMPLETED + "=0)" +
+                        "+(SELECT count(*) FROM " + TaskEntry.ARCHIVE_TABLE_NAME + " WHERE " + TaskEntry.COL_COMPLETED + "=0)," +
+                        "(SELECT count(*) FROM " + TaskEntry.TABLE_NAME + " WHERE " + TaskEntry.COL_COMPLETED + "=1)" +
+                        "+(SELECT count(*) FROM " + TaskEntry.ARCHIVE_TABLE_NAME + " WHERE " + TaskEntry.COL_COMPLETED + "=1)";
+
+        //1 if a row counts as to do or as completed, else 0; IS rather than =, so a NULL counts as neither instead of
+        //making the counter NULL
+        private static final String TODO_NEW_COUNT = "(new." + TaskEntry.COL_COMPLETED + " IS 0)";
+        private static final String TODO_OLD_COUNT = "(old." + TaskEntry.COL_COMPLETED + " IS 0)";
+        private static final String DONE_NEW_COUNT = "(new." + TaskEntry.COL_COMPLETED + " IS 1)";
+        private static final String DONE_OLD_COUNT = "(old." + TaskEntry.COL_COMPLETED + " IS 1)";
+
+        //the counters follow every row of both tables, so archiving or restoring a task adds and takes
+        //away the same count, and changes nothing
+        private static String[] statsTriggers(String table) {
+            String update = "UPDATE " + TaskEntry.STATS_TABLE_NAME + " SET ";
+            return new String[]{
+                    "CREATE TRIGGER " + table + "_stats_insert AFTER INSERT ON " + table + " BEGIN " +
+                            update + TaskEntry.COL_TODO_COUNT + "=" + TaskEntry.COL_TODO_COUNT + "+" + TODO_NEW_COUNT + "," +
+                            TaskEntry.COL_COMPLETED_COUNT + "=" + TaskEntry.COL_COMPLETED_COUNT + "+" + DONE_NEW_COUNT + "; " +
+                    "END",
+                    "CREATE TRIGGER " + table + "_stats_delete AFTER DELETE ON " + table + " BEGIN " +
+                            update + TaskEntry.COL_TODO_COUNT + "=" + TaskEntry.COL_TODO_COUNT + "-" + TODO_OLD_COUNT + "," +
+                            TaskEntry.COL_COMPLETED_COUNT + "=" + TaskEntry.COL_COMPLETED_COUNT + "-" + DONE_OLD_COUNT + "; " +
+                    "END",
+                    "CREATE TRIGGER " + table + "_stats_update AFTER UPDATE OF " + TaskEntry.COL_COMPLETED + " ON " + table +
+                            " WHEN new." + TaskEntry.COL_COMPLETED + " IS NOT old." + TaskEntry.COL_COMPLETED + " BEGIN " +
+                            update + TaskEntry.COL_TODO_COUNT + "=" + TaskEntry.COL_TODO_COUNT + "+" + TODO_NEW_COUNT + "-" + TODO_OLD_COUNT + "," +
+                            TaskEntry.COL_COMPLETED_COUNT + "=" + TaskEntry.COL_COMPLETED_COUNT + "+" + DONE_NEW_COUNT + "-" + DONE_OLD_COUNT + "; " +
+                    "END"
+            };
+        }
+
+        //KiB of pages the writer's connection may cache, up from the 2000 KiB default
+        private static final int CACHE_SIZE_KB = 4096;
+
+        //compiled statements each connection keeps, up from 25; enough for every shape of query
+        //the app makes (see TaskFilter), so none is compiled twice. 100 is the most allowed.
+        private static final int SQL_CACHE_SIZE = 64;
+
+        private volatile boolean mOpened; //once open, getting the database is just a field read
 
         public DatabaseHelper(Context context){
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
         }
 
+        //times the first open, which creates or upgrades the database if needed
+        @Override
+        public SQLiteDatabase getWritableDatabase() {
+            if(mOpened){
+                return super.getWritableDatabase();
+            }
+            long start = Metrics.begin("provider.openDatabase");
+            try {
+                return super.getWritableDatabase();
+            } finally {
+                mOpened = true;
+                Metrics.end("provider.openDatabase", start);
+            }
+        }
+
+        @Override
+        public SQLiteDatabase getReadableDatabase() {
+            if(mOpened){
+                return super.getReadableDatabase();
+            }
+            long start = Metrics.begin("provider.openDatabase");
+            try {
+                return super.getReadableDatabase();
+            } finally {
+                mOpened = true;
+                Metrics.end("provider.openDatabase", start);
+            }
+        }
+
+        /**
+         * Writes go to a write-ahead log, so reads (e.g. the lists loading) carry on from their own
+         * pooled connections while a write transaction is open, instead of waiting for it.
+         * With WAL, syncing on checkpoints only (synchronous=NORMAL) still keeps the database
+         * consistent after a crash, at worst losing the last transactions.
+         */
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            configure(db);
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()){ //no onConfigure yet
+                configure(db);
+            }
+        }
+
+        private static void configure(SQLiteDatabase db) {
+            db.enableWriteAheadLogging(); //also sizes the connection pool for concurrent readers
+            //per connection pragmas, so these apply to the connection that does the writing
+            db.execSQL("PRAGMA synchronous=NORMAL");
+            db.execSQL("PRAGMA cache_size=-" + CACHE_SIZE_KB);
+            db.setMaxSqlCacheSize(SQL_CACHE_SIZE);
+        }
+
         @Override
         public void onCreate(SQLiteDatabase db) {
             Log.v(TAG, "Creating tasks table");
             db.execSQL(CREATE_TASKS_TABLE); //create table if needed
+            db.execSQL(CREATE_DEADLINE_INDEX);
+            db.execSQL(CREATE_TIME_CREATED_INDEX);
+            createSearchTable(db);
+            createArchive(db);
+            createTags(db);
+            createSync(db);
+            createRecurrence(db);
+            createStats(db);
+            syncRecurrence(db);
+        }
+
+        private static void createSearchTable(SQLiteDatabase db) {
+            db.execSQL(CREATE_SEARCH_TABLE);
+            for(String trigger : CREATE_SEARCH_TRIGGERS){
+                db.execSQL(trigger);
+            }
+        }
+
+        private static void createArchive(SQLiteDatabase db) {
+            for(String trigger : CREATE_COMPLETED_TRIGGERS){
+                db.execSQL(trigger);
+            }
+            db.execSQL(CREATE_ARCHIVE_TABLE);
+            for(String index : CREATE_ARCHIVE_INDEXES){
+                db.execSQL(index);
+            }
+            db.execSQL(CREATE_ARCHIVE_SEARCH_TRIGGER);
+        }
+
+        private static void createTags(SQLiteDatabase db) {
+            db.execSQL(CREATE_TAGS_TABLE);
+            db.execSQL(CREATE_TAG_LINK_TABLE);
+            for(String index : CREATE_TAG_LINK_INDEXES){
+                db.execSQL(index);
+            }
+            for(String trigger : CREATE_TAG_TRIGGERS){
+                db.execSQL(trigger);
+            }
+        }
+
+        //also gives any existing tasks sync ids and logs them, so the first sync pushes them all
+        private static void createSync(SQLiteDatabase db) {
+            for(String table : TASK_TABLES){
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + TaskEntry.COL_SYNC_ID + " TEXT");
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + TaskEntry.COL_TIME_UPDATED + " INTEGER");
+                db.execSQL("UPDATE " + table + " SET " + TaskEntry.COL_SYNC_ID + "=" + NEW_SYNC_ID + "," +
+                        TaskEntry.COL_TIME_UPDATED + "=" + CLOCK);
+            }
+            for(String index : CREATE_SYNC_INDEXES){
+                db.execSQL(index);
+            }
+            db.execSQL(CREATE_SYNC_LOG_TABLE);
+            db.execSQL(CREATE_SYNC_STATE_TABLE);
+            db.execSQL("INSERT INTO " + SyncEntry.STATE_TABLE_NAME + " VALUES (" + NEW_SYNC_ID + ",0)");
+            for(String trigger : CREATE_SYNC_TRIGGERS){
+                db.execSQL(trigger);
+            }
+            for(String table : TASK_TABLES){
+                db.execSQL(LOG_CHANGE + " SELECT " + TaskEntry.COL_SYNC_ID + "," + TaskEntry._ID + ",NULL FROM " + table);
+            }
+        }
+
+        private static void createRecurrence(SQLiteDatabase db) {
+            for(String table : TASK_TABLES){
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + TaskEntry.COL_RECURRENCE + " TEXT");
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + TaskEntry.COL_SERIES_ID + " INTEGER");
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + TaskEntry.COL_OCCURRENCE + " INTEGER");
+            }
+            for(String index : CREATE_RECURRENCE_INDEXES){
+                db.execSQL(index);
+            }
+        }
+
+        //logs rule changes, and the series and occurrences again, as what was pushed before left out their columns
+        private static void syncRecurrence(SQLiteDatabase db) {
+            db.execSQL("DROP TRIGGER tasks_sync_update");
+            db.execSQL(CREATE_SYNC_RECURRENCE_TRIGGER);
+            for(String table : TASK_TABLES){
+                db.execSQL(LOG_CHANGE + " SELECT " + TaskEntry.COL_SYNC_ID + "," + TaskEntry._ID + ",NULL FROM " + table +
+                        " WHERE " + TaskEntry.COL_RECURRENCE + " IS NOT NULL OR " + TaskEntry.COL_SERIES_ID + " IS NOT NULL");
+            }
+        }
+
+        //counts the tasks already there, then keeps counting
+        private static void createStats(SQLiteDatabase db) {
+            db.execSQL(CREATE_STATS_TABLE);
+            db.execSQL(FILL_STATS_TABLE);
+            for(String table : TASK_TABLES){
+                for(String trigger : statsTriggers(table)){
+                    db.execSQL(trigger);
+                }
+            }
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            db.execSQL(DROP_TASKS_TABLE); //just drop and recreate table
-            onCreate(db);
+            //apply each migration in turn so existing tasks survive the upgrade
+            for(int version = oldVersion + 1; version <= newVersion; version++){
+                Log.v(TAG, "Migrating tasks database to version " + version);
+                switch(version){
+                    case 2: //list indexes
+                        db.execSQL(CREATE_DEADLINE_INDEX);
+                        db.execSQL(CREATE_TIME_CREATED_INDEX);
+                        break;
+                    case 3: //full-text search, indexing the existing tasks
+                        createSearchTable(db);
+                        db.execSQL(FILL_SEARCH_TABLE);
+                        break;
+                    case 4: //archive; tasks already completed count as completed now
+                        db.execSQL("ALTER TABLE " + TaskEntry.TABLE_NAME + " ADD COLUMN " + TaskEntry.COL_TIME_COMPLETED + " INTEGER");
+                        db.execSQL("UPDATE " + TaskEntry.TABLE_NAME + " SET " + TaskEntry.COL_TIME_COMPLETED + "=" + NOW +
+                                " WHERE " + TaskEntry.COL_COMPLETED + "=1");
+                        createArchive(db);
+                        break;
+                    case 5: //tags
+                        createTags(db);
+                        break;
+                    case 6: //sync
+                        createSync(db);
+                        break;
+                    case 7: //repeating tasks
+                        createRecurrence(db);
+                        break;
+                    case 8: //counters
+                        createStats(db);
+                        break;
+                    case 9: //syncing repeating tasks
+                        syncRecurrence(db);
+                        break;
+                    default:
+                        throw new IllegalStateException("No migration to database version " + version);
+                }
+            }
         }
     }
 
+    //columns written by INSERT_TASK, in binding order
+    private static final String[] INSERT_COLUMNS = {
+            TaskEntry.COL_TIME_CREATED,
+            TaskEntry.COL_TITLE,
+            TaskEntry.COL_DETAILS,
+            TaskEntry.COL_DEADLINE,
+            TaskEntry.COL_COMPLETED,
+            TaskEntry.COL_RECURRENCE
+    };
+
+    private static final String INSERT_TASK =
+            "INSERT INTO " + TaskEntry.TABLE_NAME + "(" + TextUtils.join(",", INSERT_COLUMNS) + ")" +
+                    " VALUES (?,?,?,?,?,?)";
+
+    /**
+     * The rows changed by a write (or a whole batch of them), for notifying observers once it is done
+     */
+    private static class ChangeSet {
+        final Set<Long> ids = new LinkedHashSet<Long>(); //every row changed, listed in the collection notification
+        final Set<Long> rows = new LinkedHashSet<Long>(); //rows that existed before, also notified on their own Uri
+        boolean overflowed; //too many to list, so everything is notified instead
+        long firstDeadline = Long.MAX_VALUE; //earliest deadline of the incomplete tasks inserted
+        boolean dueChanged; //existing tasks were deleted or had their deadline or completion changed
+        boolean tagsChanged; //tags were added, renamed or deleted, or given to or taken off tasks
+
+        void inserted(long id, ContentValues values) {
+            add(id, false);
+            Boolean completed = values.getAsBoolean(TaskEntry.COL_COMPLETED);
+            Long deadline = values.getAsLong(TaskEntry.COL_DEADLINE);
+            if(deadline != null && (completed == null || !completed)){
+                firstDeadline = Math.min(firstDeadline, deadline);
+            }
+        }
+
+        void changed(long id) {
+            add(id, true);
+        }
+
+        //records existing rows, or that too many changed to list if changed is null
+        void changed(long[] changed) {
+            if(changed == null){
+                overflowed = true;
+                ids.clear();
+                rows.clear();
+                return;
+            }
+            for(long id : changed){
+                add(id, true);
+            }
+        }
+
+        private void add(long id, boolean existed) {
+            if(overflowed){
+                return;
+            }
+            if(ids.add(id) && existed){ //a row inserted earlier in the batch has no observers of its own
+                rows.add(id);
+            }
+            if(ids.size() > MAX_CHANGED_IDS){
+                overflowed = true;
+                ids.clear();
+                rows.clear();
+            }
+        }
+
+        boolean isEmpty() {
+            return !overflowed && ids.isEmpty() && !tagsChanged;
+        }
+    }
+
+    /**
+     * Per-thread state of an applyBatch() in progress
+     */
+    private static class BatchState {
+        final ChangeSet changes = new ChangeSet(); //rows modified by any operation
+        SQLiteStatement insertStatement; //compiled on the first insert of the batch
+    }
+
+    private final ThreadLocal<BatchState> mBatch = new ThreadLocal<BatchState>();
+
     private DatabaseHelper mDatabaseHelper;
+    private final TaskCache mCache = new TaskCache(); //serves the lists and detail view from memory once warm
+    //the SQL of the queries last run, kept as a connection keeps its compiled statements, to count compilations
+    private final LruCache<String, Boolean> mStatements = new LruCache<String, Boolean>(DatabaseHelper.SQL_CACHE_SIZE);
+    private long mCompilations;
+    private DeadlineReminders mReminders; //created on first use, as it reads its saved state
 
     @Override
-    public boolean onCreate() {
+    public boolean onCreate() { //on the main thread as the process starts, so timed; the database opens on first use
+        long start = Metrics.begin("provider.onCreate");
         mDatabaseHelper = new DatabaseHelper(getContext()); //initialize the helper
+        Metrics.end("provider.onCreate", start);
         return true;
     }
 
+    @VisibleForTesting
+    SQLiteOpenHelper getDatabaseHelper() {
+        return mDatabaseHelper;
+    }
+
+    private synchronized DeadlineReminders getReminders() {
+        if(mReminders == null){
+            mReminders = DeadlineReminders.create(getContext());
+        }
+        return mReminders;
+    }
+
+    @VisibleForTesting
+    synchronized void setReminders(DeadlineReminders reminders) {
+        mReminders = reminders;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if(METHOD_CACHE_STATS.equals(method)){
+            Bundle stats = new Bundle();
+            stats.putLong(STAT_CACHE_HITS, mCache.getHitCount());
+            stats.putLong(STAT_CACHE_MISSES, mCache.getMissCount());
+            synchronized(mStatements){
+                stats.putLong(STAT_COMPILATIONS, mCompilations);
+            }
+            return stats;
+        }
+        if(METHOD_REMIND.equals(method)){
+            return getReminders().remind(mDatabaseHelper.getReadableDatabase());
+        }
+        if(METHOD_ARCHIVE.equals(method)){
+            int days = ARCHIVE_AFTER_DAYS;
+            try {
+                if(arg != null){
+                    days = Integer.parseInt(arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed archive age " + arg, e);
+            }
+            Bundle archived = new Bundle();
+            archived.putInt(ARCHIVED_COUNT, archive(System.currentTimeMillis() - days * DAY_MILLIS));
+            return archived;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Moves the tasks completed before the cutoff into the archive table, a batch per transaction.
+     * Observers are not notified: the tasks are unchanged and ALL_TASKS_URI and their own Uris
+     * still find them, only the tasks table (and its lists) no longer holds them.
+     *
+     * @return how many tasks were moved
+     */
+    private int archive(long cutoff) {
+        long start = Metrics.begin("provider.archive");
+        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        int count = 0;
+        long[] ids;
+        do {
+            boolean successful = false;
+            db.beginTransaction();
+            try {
+                ids = TaskArchiver.archiveBatch(db, cutoff);
+                mCache.delete(ids);
+                db.setTransactionSuccessful();
+                successful = true;
+            } finally {
+                endWrite(db, successful);
+            }
+            count += ids.length;
+        } while(ids.length == TaskArchiver.BATCH_SIZE);
+        Metrics.count("provider.rowsArchived", count);
+        Metrics.end("provider.archive", start);
+        return count;
+    }
+
+    //closes the database; a provider is only shut down in tests
+    @Override
+    public void shutdown() {
+        mDatabaseHelper.close();
+        super.shutdown();
+    }
+
     @Nullable
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        long start = Metrics.begin("provider.query");
+        try {
+            return queryTasks(uri, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            Metrics.end("provider.query", start);
+        }
+    }
+
+    private Cursor queryTasks(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         //build a query for us
         SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
         builder.setTables(TaskEntry.TABLE_NAME);
 
         //projection mapping would go here if needed
 
+        //open the database
+        SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
+
+        String limit = null;
+        Cursor c = null; //set if the cache, or the case itself, has answered
         switch(sUriMatcher.match(uri)){
+            case TASKS_DUE_URI: //incomplete tasks due in a range, which buildListQuery adds to the selection
+            case TASKS_DUE_RANGE_URI:
             case TASKS_URI: //all tasks
-                //no change
+                if(sUriMatcher.match(uri) == TASKS_URI){ //the cache holds none of the deadline ranges
+                    String after = uri.getQueryParameter(QUERY_AFTER);
+                    String before = uri.getQueryParameter(QUERY_BEFORE);
+                    c = mCache.queryList(db, projection, selection, selectionArgs, sortOrder, after != null ?
+                            parsePageKey(after) : null, before != null ? parsePageKey(before) : null,
+                            uri.getQueryParameter(QUERY_LIMIT));
+                }
+                if(c == null){
+                    String[][] args = new String[1][];
+                    c = db.rawQuery(compile(buildListQuery(uri, projection, selection, selectionArgs, sortOrder, args)), args[0]);
+                }
                 break;
             case TASKS_NUM_URI: //single task
-                builder.appendWhere(TaskEntry._ID + "=" + uri.getPathSegments().get(1)); //restrict to those items
-                //numeric data so not need to escape
+                c = mCache.queryTask(db, ContentUris.parseId(uri), projection, selection);
+                selection = selectTask(uri, selection); //restrict to that task
+                selectionArgs = prepend(uri.getPathSegments().get(1), selectionArgs);
+                break;
+            case TASKS_SEARCH_URI: //tasks matching a search, best matches first
+                limit = uri.getQueryParameter(QUERY_LIMIT);
+                String match = toMatchQuery(uri.getQueryParameter(QUERY_SEARCH));
+                if(match == null){ //nothing searchable typed
+                    builder.appendWhere("0");
+                    break;
+                }
+                builder.setTables(SEARCH_TABLES);
+                selectionArgs = prepend(match, selectionArgs); //the MATCH comes before the caller's selection
+                if(sortOrder == null){
+                    sortOrder = SEARCH_RANK + " DESC," + TaskEntry.COL_DEADLINE;
+                }
+                break;
+            case TASKS_ALL_URI: //tasks and archived tasks
+                String[][] allArgs = new String[1][];
+                c = db.rawQuery(compile(buildAllQuery(uri, projection, selection, selectionArgs, sortOrder, allArgs)), allArgs[0]);
+                break;
+            case TASKS_COUNTS_URI: //how many tasks each list has
+                c = db.rawQuery(COUNTS_QUERY, countsArgs(System.currentTimeMillis()));
+                break;
+            case TASKS_STATS_URI: //the counters, and what is overdue now
+                long[] overdue = dueRange(DUE_OVERDUE, System.currentTimeMillis());
+                c = db.rawQuery(STATS_QUERY, new String[]{String.valueOf(overdue[0]), String.valueOf(overdue[1])});
+                break;
+            case TAGS_DIR_URI: //every tag, by name
+                builder.setTables(TagEntry.TABLE_NAME);
+                if(sortOrder == null){
+                    sortOrder = TagEntry.COL_NAME;
+                }
+                break;
+            case TAGS_NUM_URI: //single tag
+                builder.setTables(TagEntry.TABLE_NAME);
+                selection = selectTask(uri, selection); //tags have an _id too
+                selectionArgs = prepend(uri.getPathSegments().get(1), selectionArgs);
+                break;
+            case TAGS_TASKS_URI: //tasks with a tag, read along the tag's own indexes
+                builder.setTables(TaskTags.TAGGED_TASKS);
+                limit = uri.getQueryParameter(QUERY_LIMIT);
+                String afterTagged = uri.getQueryParameter(QUERY_AFTER);
+                String beforeTagged = uri.getQueryParameter(QUERY_BEFORE);
+                String[] tag = {uri.getPathSegments().get(1)}; //comes first, in the table
+                if(limit != null || afterTagged != null || beforeTagged != null){ //a page of tasks
+                    String[][] pageArgs = new String[1][];
+                    c = db.rawQuery(compile(buildPageQuery(TaskTags.TAGGED_TASKS, tag, projection, selection, selectionArgs,
+                            afterTagged, beforeTagged, sortOrder, limit, pageArgs)), pageArgs[0]);
+                    break;
+                }
+                selectionArgs = prepend(tag[0], selectionArgs);
+                break;
+            case TASKS_TAGS_URI: //the tags of a task, by name
+                builder.setTables(TaskTags.TASK_TAGS);
+                selectionArgs = prepend(uri.getPathSegments().get(1), selectionArgs);
+                if(sortOrder == null){
+                    sortOrder = TagEntry.COL_NAME;
+                }
+                break;
+            case TASKS_SYNC_URI: //local changes waiting to be pushed, oldest first
+                builder.setTables(SyncLog.CHANGES);
+                if(sortOrder == null){
+                    sortOrder = SyncItem.ID;
+                }
+                limit = uri.getQueryParameter(QUERY_LIMIT);
+                String afterSync = uri.getQueryParameter(QUERY_AFTER);
+                if(limit != null || afterSync != null){ //a page of changes
+                    sortOrder = appendPageWhere(builder, afterSync, null, sortOrder);
+                    selectionArgs = prependPageKey(afterSync, null, selectionArgs);
+                }
+                break;
+            case TASKS_SYNC_STATE_URI:
+                builder.setTables(SyncEntry.STATE_TABLE_NAME);
+                break;
+            case TASKS_OCCURRENCES_URI: //incomplete tasks and occurrences due in a window, by deadline
+                if(!TextUtils.isEmpty(selection) || (sortOrder != null && !TaskEntry.COL_DEADLINE.equals(sortOrder))){
+                    throw new IllegalArgumentException("Occurrences can't be filtered, and are sorted by " + TaskEntry.COL_DEADLINE);
+                }
+                long[] window = dueRange(uri, System.currentTimeMillis());
+                String afterOccurrence = uri.getQueryParameter(QUERY_AFTER);
+                String occurrenceLimit = uri.getQueryParameter(QUERY_LIMIT);
+                c = TaskOccurrences.query(db, projection, window[0], window[1],
+                        afterOccurrence != null ? parsePageKey(afterOccurrence) : null,
+                        occurrenceLimit != null ? Integer.parseInt(occurrenceLimit) : 0);
+                break;
             default:
                 throw new IllegalArgumentException("Unknown URI "+uri);
         }
 
-        //open the database
-        SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
-
-        //now pass in the user arguments
-        Cursor c = builder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+        if(c == null){
+            //now pass in the user arguments
+            c = db.rawQuery(compile(builder.buildQuery(projection, selection, null, null, sortOrder, limit)), selectionArgs);
+        }
+        if(c.getCount() == 0 && sUriMatcher.match(uri) == TASKS_NUM_URI){ //perhaps archived
+            c.close();
+            c = db.rawQuery(compile(SQLiteQueryBuilder.buildQueryString(false, TaskEntry.ARCHIVE_TABLE_NAME, projection,
+                    selection, null, null, sortOrder, null)), selectionArgs);
+        }
 
         // Tell the cursor what uri to watch, so it knows when its source data changes
-        c.setNotificationUri(getContext().getContentResolver(), uri);
+        //search results, lists including the archive or picked by deadline or tag, and counts can change with any task,
+        //so they watch the collection notifications; tags and their counts have their own
+        int match = sUriMatcher.match(uri);
+        Uri notified = match == TAGS_DIR_URI || match == TAGS_NUM_URI || match == TASKS_TAGS_URI ? TAGS_URI : CHANGES_URI;
+        c.setNotificationUri(getContext().getContentResolver(), match == TASKS_URI || match == TASKS_NUM_URI ? uri : notified);
         return c;
     }
 
+    /**
+     * Counts a compilation of the query's SQL unless it is among the last SQL_CACHE_SIZE different
+     * queries run, which a connection's statement cache would still hold, and returns the SQL.
+     * Queries whose values are bound compile once per shape; those with values written in, every time.
+     */
+    private String compile(String sql) {
+        synchronized(mStatements){
+            if(mStatements.put(sql, Boolean.TRUE) == null){
+                mCompilations++;
+            }
+        }
+        return sql;
+    }
+
+    /**
+     * Builds the query of a list of tasks, or a page of one, from the tasks table: the selection,
+     * after a /tasks/due Uri's deadline range, then any page key condition (see appendPageWhere),
+     * sorted and limited as the Uri asks. This is what /tasks and the deadline range lists run when
+     * TaskCache can't answer them, and what the tests explain to check the indexes are used.
+     *
+     * @param args set to the arguments to bind, the page key's first, then the deadline range's
+     */
+    @VisibleForTesting
+    static String buildListQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                 String sortOrder, String[][] args) {
+        int match = sUriMatcher.match(uri);
+        if(match == TASKS_DUE_URI || match == TASKS_DUE_RANGE_URI){
+            long[] range = dueRange(uri, System.currentTimeMillis());
+            selection = WHERE_DUE + (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : "");
+            selectionArgs = prepend(String.valueOf(range[0]), prepend(String.valueOf(range[1]), selectionArgs));
+        }
+        String limit = uri.getQueryParameter(QUERY_LIMIT);
+        String after = uri.getQueryParameter(QUERY_AFTER);
+        String before = uri.getQueryParameter(QUERY_BEFORE);
+        if(limit != null || after != null || before != null){ //a page of tasks
+            return buildPageQuery(TaskEntry.TABLE_NAME, null, projection, selection, selectionArgs,
+                    after, before, sortOrder, limit, args);
+        }
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(TaskEntry.TABLE_NAME);
+        args[0] = selectionArgs;
+        return builder.buildQuery(projection, selection, null, null, sortOrder, null);
+    }
+
+    /**
+     * Builds the query of a page of tasks from a table: the rows either side of the page key that
+     * pass the selection, in (sort order, _id) order. Tasks with no deadline sort first and have the
+     * key NO_DEADLINE; no index range holds both NULLs and values, so a page that may cross between
+     * them is two ranges of the index, merged by SQLite in order, with the sort columns added to the
+     * projection if it lacks them (a compound query is sorted by its result columns).
+     *
+     * @param tableArgs the arguments bound in the table, if it is a subquery, or null
+     * @param args set to the arguments to bind: for each range, tableArgs, the page key's, then selectionArgs
+     */
+    private static String buildPageQuery(String table, String[] tableArgs, String[] projection, String selection,
+                                         String[] selectionArgs, String after, String before, String sortOrder,
+                                         String limit, String[][] args) {
+        String order = pageOrder(after, before, sortOrder);
+        String key = after != null ? after : before;
+        long[] position = key != null ? parsePageKey(key) : null;
+        if(position == null || !TaskEntry.COL_DEADLINE.equals(sortOrder)
+                || (after != null && position[0] != NO_DEADLINE)){ //one range: only a deadline can be NULL, and NULLs come before any key
+            SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+            builder.setTables(table);
+            appendPageWhere(builder, after, before, sortOrder);
+            args[0] = concat(tableArgs, prependPageKey(after, before, selectionArgs));
+            return builder.buildQuery(projection, selection, null, null, order, limit);
+        }
+
+        String id = String.valueOf(position[1]);
+        String deadline = TaskEntry.COL_DEADLINE;
+        List<String> wheres = new ArrayList<String>(2);
+        List<String[]> keys = new ArrayList<String[]>(2);
+        if(position[0] == NO_DEADLINE){ //among the tasks with no deadline
+            wheres.add(deadline + " IS NULL AND " + TaskEntry._ID + (after != null ? ">?" : "<?"));
+            keys.add(new String[]{id});
+            if(after != null){ //then every task with one
+                wheres.add(deadline + " IS NOT NULL");
+                keys.add(null);
+            }
+        }else{ //the tasks with deadlines before the key, then those with none
+            wheres.add(deadline + "<=? AND (" + deadline + "<? OR " + TaskEntry._ID + "<?)");
+            keys.add(new String[]{String.valueOf(position[0]), String.valueOf(position[0]), id});
+            wheres.add(deadline + " IS NULL");
+            keys.add(null);
+        }
+
+        String[] columns = projection;
+        if(projection != null){
+            List<String> sorted = new ArrayList<String>(Arrays.asList(projection));
+            for(String column : new String[]{deadline, TaskEntry._ID}){
+                if(!sorted.contains(column)){
+                    sorted.add(column);
+                }
+            }
+            columns = sorted.toArray(new String[sorted.size()]);
+        }
+        String[] parts = new String[wheres.size()];
+        String[] partArgs = null;
+        for(int i = 0; i < parts.length; i++){
+            SQLiteQueryBuilder part = new SQLiteQueryBuilder();
+            part.setTables(table);
+            part.appendWhere(wheres.get(i));
+            parts[i] = part.buildQuery(columns, selection, null, null, null, null);
+            partArgs = concat(partArgs, concat(tableArgs, concat(keys.get(i), selectionArgs)));
+        }
+        args[0] = partArgs;
+        return TextUtils.join(" UNION ALL ", parts) + " ORDER BY " + order + (limit != null ? " LIMIT " + limit : "");
+    }
+
+    /**
+     * Builds the query of the tasks and archive tables as one. The caller's selection and any page
+     * key go into the query on each table, so each reads only its own page along its own index, and
+     * the two pages are merged; a count adds up the two tables' counts. This is what /tasks/all runs,
+     * and what the tests explain to check the archive's indexes are used.
+     *
+     * @param args set to the arguments to bind, each table's in turn
+     */
+    @VisibleForTesting
+    static String buildAllQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                String sortOrder, String[][] args) {
+        String limit = uri.getQueryParameter(QUERY_LIMIT);
+        String after = uri.getQueryParameter(QUERY_AFTER);
+        String before = uri.getQueryParameter(QUERY_BEFORE);
+        boolean paged = limit != null || after != null || before != null;
+        String where = !TextUtils.isEmpty(selection) ? "(" + selection + ")" : null;
+
+        args[0] = null;
+        String[] tables = {TaskEntry.TABLE_NAME, TaskEntry.ARCHIVE_TABLE_NAME};
+        String[] parts = new String[tables.length];
+        String order = sortOrder;
+        boolean count = projection != null && projection.length == 1 && COUNT.equals(projection[0]);
+        for(int i = 0; i < tables.length; i++){
+            String[][] tableArgs = new String[1][];
+            if(paged){ //ranges of the table's own index; a count ignores the limit
+                order = pageOrder(after, before, sortOrder);
+                parts[i] = buildPageQuery(tables[i], null, count ? new String[]{TaskEntry._ID} : TaskArchiver.COLUMNS,
+                        where, selectionArgs, after, before, sortOrder, count ? null : limit, tableArgs);
+                parts[i] = count ? "(SELECT " + COUNT + " FROM (" + parts[i] + "))" : "SELECT * FROM (" + parts[i] + ")";
+            }else{ //the merge sorts them anyway
+                SQLiteQueryBuilder part = new SQLiteQueryBuilder();
+                part.setTables(tables[i]);
+                parts[i] = count ? "(" + part.buildQuery(projection, where, null, null, null, null) + ")"
+                        : "SELECT * FROM (" + part.buildQuery(TaskArchiver.COLUMNS, where, null, null, null, null) + ")";
+                tableArgs[0] = selectionArgs;
+            }
+            args[0] = concat(args[0], tableArgs[0]);
+        }
+        if(count){
+            return "SELECT " + TextUtils.join("+", parts) + " AS \"" + COUNT + "\"";
+        }
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables("(" + TextUtils.join(" UNION ALL ", parts) + ")");
+        return builder.buildQuery(projection, null, null, null, order, limit);
+    }
+
+    /**
+     * Builds the Uri for a page of tasks. Pages are keyset based: a page holds the next
+     * limit tasks after the given (sort key, id) position, so each page is an index range
+     * scan however deep into the list it is. The query must be sorted by the column
+     * the key was read from, either COL_DEADLINE, COL_TIME_CREATED or _ID (whose key is {_id, _id});
+     * a task with no deadline has the deadline key NO_DEADLINE.
+     *
+     * @param limit the maximum number of tasks in the page, or 0 for no limit
+     * @param after the {sort key, _id} of the last task of the previous page, or null for the first page
+     */
+    public static Uri pageUri(int limit, @Nullable long[] after) {
+        return pageUri(CONTENT_URI, limit, after);
+    }
+
+    /**
+     * Builds the Uri for a page of the given list of tasks, CONTENT_URI, ALL_TASKS_URI or a dueUri(); see pageUri(int, long[]).
+     */
+    public static Uri pageUri(Uri tasks, int limit, @Nullable long[] after) {
+        Uri.Builder builder = tasks.buildUpon();
+        if(limit > 0){
+            builder.appendQueryParameter(QUERY_LIMIT, String.valueOf(limit));
+        }
+        if(after != null){
+            builder.appendQueryParameter(QUERY_AFTER, after[0] + "," + after[1]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds the Uri for the page of tasks just before the given (sort key, id) position,
+     * for scrolling back up a list. The rows come back in descending order, nearest first.
+     *
+     * @param limit the maximum number of tasks in the page, or 0 for no limit
+     * @param before the {sort key, _id} of the first task of the following page
+     */
+    public static Uri pageBeforeUri(int limit, long[] before) {
+        return pageBeforeUri(CONTENT_URI, limit, before);
+    }
+
+    /**
+     * Builds the Uri for a page of the given list of tasks, CONTENT_URI, ALL_TASKS_URI or a dueUri(); see pageBeforeUri(int, long[]).
+     */
+    public static Uri pageBeforeUri(Uri tasks, int limit, long[] before) {
+        Uri.Builder builder = tasks.buildUpon();
+        if(limit > 0){
+            builder.appendQueryParameter(QUERY_LIMIT, String.valueOf(limit));
+        }
+        builder.appendQueryParameter(QUERY_BEFORE, before[0] + "," + before[1]);
+        return builder.build();
+    }
+
+    /**
+     * Builds the Uri for applying changes pulled from the sync server, recording the server's cursor
+     * after them: bulkInsert() them here, each with the columns of a SYNC_URI row other than its ID.
+     */
+    public static Uri pulledUri(long cursor) {
+        return SYNC_URI.buildUpon().appendQueryParameter(QUERY_SYNC_CURSOR, String.valueOf(cursor)).build();
+    }
+
+    /**
+     * Builds the Uri for searching task titles and details. Each word typed matches any word
+     * starting with it, and tasks must match every word. Results come best first: tasks with a
+     * match in the title, then by how many matches they have.
+     *
+     * @param text what the user typed
+     * @param limit the maximum number of tasks to return, or 0 for no limit
+     */
+    public static Uri searchUri(String text, int limit) {
+        Uri.Builder builder = SEARCH_URI.buildUpon().appendQueryParameter(QUERY_SEARCH, text);
+        if(limit > 0){
+            builder.appendQueryParameter(QUERY_LIMIT, String.valueOf(limit));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds the Uri for the incomplete tasks with deadlines from one time up to, but not including,
+     * another. Page it with pageUri(Uri, int, long[]) sorted by COL_DEADLINE, so each page is a range
+     * scan of the (completed, deadline) index.
+     */
+    public static Uri dueUri(long from, long until) {
+        return DUE_URI.buildUpon()
+                .appendQueryParameter(QUERY_DUE_FROM, String.valueOf(from))
+                .appendQueryParameter(QUERY_DUE_UNTIL, String.valueOf(until))
+                .build();
+    }
+
+    /**
+     * Builds the Uri for the incomplete tasks, and the occurrences of repeating tasks not yet completed,
+     * with deadlines from one time up to, but not including, another, sorted by deadline. Series are
+     * expanded for just the window, so it costs the same however far ahead it is. Page it with
+     * pageUri(Uri, int, long[]) like a dueUri(); an occurrence without a row of its own has its series'
+     * _id, and its page key is {deadline, series id}. A window with no end needs a limit.
+     */
+    public static Uri occurrencesUri(long from, long until) {
+        return OCCURRENCES_URI.buildUpon()
+                .appendQueryParameter(QUERY_DUE_FROM, String.valueOf(from))
+                .appendQueryParameter(QUERY_DUE_UNTIL, String.valueOf(until))
+                .build();
+    }
+
+    /**
+     * Builds the Uri for one occurrence of a repeating task, by its series and the deadline it falls on
+     * (TodoItem.SERIES_ID and TodoItem.OCCURRENCE of an occurrencesUri() row). Updating it completes
+     * or edits just that occurrence.
+     */
+    public static Uri occurrenceUri(long seriesId, long occurrence) {
+        return ContentUris.withAppendedId(CONTENT_URI, seriesId).buildUpon()
+                .appendPath(OCCURRENCE_RESOURCE).appendPath(String.valueOf(occurrence)).build();
+    }
+
+    /**
+     * Builds the Uri for the incomplete tasks in a range worked out when each query is made.
+     *
+     * @param range DUE_OVERDUE, DUE_TODAY or DUE_WEEK
+     */
+    public static Uri dueUri(String range) {
+        return Uri.withAppendedPath(DUE_URI, range);
+    }
+
+    //the incomplete tasks due in a range, bound as {from, until}: a range scan of the (completed, deadline) index
+    private static final String WHERE_DUE = TaskEntry.COL_COMPLETED + "=0 AND " +
+            TaskEntry.COL_DEADLINE + ">=? AND " + TaskEntry.COL_DEADLINE + "<?";
+
+    //the {from, until} deadlines a /tasks/due Uri asks for at the given time
+    private static long[] dueRange(Uri uri, long now) {
+        if(sUriMatcher.match(uri) == TASKS_DUE_RANGE_URI){
+            return dueRange(uri.getLastPathSegment(), now);
+        }
+        String from = uri.getQueryParameter(QUERY_DUE_FROM);
+        String until = uri.getQueryParameter(QUERY_DUE_UNTIL);
+        try {
+            return new long[]{from != null ? Long.parseLong(from) : Long.MIN_VALUE,
+                    until != null ? Long.parseLong(until) : Long.MAX_VALUE};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad deadline range " + uri, e);
+        }
+    }
+
+    /**
+     * The {from, until} deadlines of a named range at the given time, in the device's time zone:
+     * overdue is anything due before now, today is from midnight to midnight, and this week is
+     * today and the six days after it. Tasks due earlier today are both overdue and due today.
+     */
+    @VisibleForTesting
+    static long[] dueRange(String range, long now) {
+        if(DUE_OVERDUE.equals(range)){
+            return new long[]{Long.MIN_VALUE, now};
+        }
+        int days;
+        if(DUE_TODAY.equals(range)){
+            days = 1;
+        }else if(DUE_WEEK.equals(range)){
+            days = 7;
+        }else{
+            throw new IllegalArgumentException("Unknown deadline range " + range);
+        }
+        Calendar day = Calendar.getInstance();
+        day.setTimeInMillis(now);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        long from = day.getTimeInMillis();
+        day.add(Calendar.DAY_OF_MONTH, days); //not days * DAY_MILLIS, which is off by an hour across a DST change
+        return new long[]{from, day.getTimeInMillis()};
+    }
+
+    //one count per column of COUNTS_URI: the deadline ranges are range counts along an index, the totals are the counters
+    private static final String COUNTS_QUERY = "SELECT " +
+            "(SELECT count(*) FROM " + TaskEntry.TABLE_NAME + " WHERE " + WHERE_DUE + ") AS " + COUNT_OVERDUE + "," +
+            "(SELECT count(*) FROM " + TaskEntry.TABLE_NAME + " WHERE " + WHERE_DUE + ") AS " + COUNT_TODAY + "," +
+            "(SELECT count(*) FROM " + TaskEntry.TABLE_NAME + " WHERE " + WHERE_DUE + ") AS " + COUNT_WEEK + "," +
+            TaskEntry.COL_TODO_COUNT + " AS " + COUNT_TODO + "," +
+            TaskEntry.COL_COMPLETED_COUNT + " AS " + COUNT_COMPLETED +
+            " FROM " + TaskEntry.STATS_TABLE_NAME;
+
+    //STATS_URI's row, bound as the overdue range: the counters as they are, and one range count
+    private static final String STATS_QUERY = "SELECT " +
+            TaskEntry.COL_TODO_COUNT + " AS " + COUNT_TODO + "," +
+            "(SELECT count(*) FROM " + TaskEntry.TABLE_NAME + " WHERE " + WHERE_DUE + ") AS " + COUNT_OVERDUE + "," +
+            TaskEntry.COL_COMPLETED_COUNT + " AS " + COUNT_COMPLETED +
+            " FROM " + TaskEntry.STATS_TABLE_NAME;
+
+    //the ranges COUNTS_QUERY counts, as of the given time
+    private static String[] countsArgs(long now) {
+        String[] args = new String[6];
+        String[] ranges = {DUE_OVERDUE, DUE_TODAY, DUE_WEEK};
+        for(int i = 0; i < ranges.length; i++){
+            long[] range = dueRange(ranges[i], now);
+            args[2 * i] = String.valueOf(range[0]);
+            args[2 * i + 1] = String.valueOf(range[1]);
+        }
+        return args;
+    }
+
+    //The tasks with a tag, paged with pageUri(Uri, int, long[]) like CONTENT_URI; insert {TAGGED_TASK_ID} here to tag a task
+    public static Uri tagTasksUri(long tagId) {
+        return ContentUris.withAppendedId(TAGS_URI, tagId).buildUpon().appendPath(TASK_RESOURCE).build();
+    }
+
+    //The tags of a task
+    public static Uri taskTagsUri(long taskId) {
+        return ContentUris.withAppendedId(CONTENT_URI, taskId).buildUpon().appendPath(TAG_RESOURCE).build();
+    }
+
+    //ranks a search match: any hit in the title (column 0, which offsets() lists first) beats any number in the details,
+    //then the more hits the better (offsets() gives four numbers per hit)
+    private static final String SEARCH_OFFSETS = "offsets(" + TaskEntry.SEARCH_TABLE_NAME + ")";
+    private static final String SEARCH_RANK_EXPRESSION =
+            "((substr(" + SEARCH_OFFSETS + ",1,2)='0 ')*1000" +
+                    "+(length(" + SEARCH_OFFSETS + ")-length(replace(" + SEARCH_OFFSETS + ",' ',''))+1)/4)";
+    private static final String SEARCH_RANK = "search_rank";
+
+    //the tasks, current or archived, matching the search (bound as its first argument), with their rank;
+    //a subquery so the caller's selection and sort order can name the task columns as usual
+    private static final String SEARCH_TABLES;
+    static {
+        StringBuilder columns = new StringBuilder(TaskEntry.SEARCH_TABLE_NAME + ".docid AS " + TaskEntry._ID);
+        for(int i = 1; i < TaskArchiver.COLUMNS.length; i++){
+            String column = TaskArchiver.COLUMNS[i];
+            columns.append(",ifnull(").append(TaskEntry.TABLE_NAME).append('.').append(column).append(',')
+                    .append(TaskEntry.ARCHIVE_TABLE_NAME).append('.').append(column).append(") AS ").append(column);
+        }
+        SEARCH_TABLES = "(SELECT " + columns + "," + SEARCH_RANK_EXPRESSION + " AS " + SEARCH_RANK +
+                " FROM " + TaskEntry.SEARCH_TABLE_NAME +
+                " LEFT JOIN " + TaskEntry.TABLE_NAME + " ON " + TaskEntry.TABLE_NAME + "." + TaskEntry._ID + "=docid" +
+                " LEFT JOIN " + TaskEntry.ARCHIVE_TABLE_NAME + " ON " + TaskEntry.ARCHIVE_TABLE_NAME + "." + TaskEntry._ID + "=docid" +
+                " WHERE " + TaskEntry.SEARCH_TABLE_NAME + " MATCH ?)";
+    }
+
+    //turns typed text into an FTS query of quoted prefix terms, so punctuation can't be read as query syntax
+    //returns null if there is nothing to search for
+    @VisibleForTesting
+    static String toMatchQuery(String text) {
+        if(text == null){
+            return null;
+        }
+        StringBuilder query = new StringBuilder();
+        StringBuilder term = new StringBuilder();
+        for(int i = 0; i <= text.length(); i++){
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if(Character.isLetterOrDigit(c)){
+                term.append(c);
+            }else if(term.length() > 0){ //end of a word
+                query.append(query.length() > 0 ? " " : "").append('"').append(term).append("*\"");
+                term.setLength(0);
+            }
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+
+    //the two arrays one after the other; either may be null
+    private static String[] concat(String[] first, String[] rest) {
+        if(first == null || rest == null){
+            return first == null ? rest : first;
+        }
+        String[] args = Arrays.copyOf(first, first.length + rest.length);
+        System.arraycopy(rest, 0, args, first.length, rest.length);
+        return args;
+    }
+
+    private static String[] prepend(String first, String[] rest) {
+        String[] args = new String[rest == null ? 1 : rest.length + 1];
+        args[0] = first;
+        if(rest != null){
+            System.arraycopy(rest, 0, args, 1, rest.length);
+        }
+        return args;
+    }
+
+    //restricts the query to the rows either side of the page keys, and returns the sort order to use
+    private static String appendPageWhere(SQLiteQueryBuilder builder, String after, String before, String sortOrder) {
+        String order = pageOrder(after, before, sortOrder);
+
+        //the leading range lets SQLite seek into the index instead of filtering from the start
+        //the key is bound (see prependPageKey), so every page in a sort order is the same statement
+        if(after != null){
+            builder.appendWhere(sortOrder + ">=? AND (" + sortOrder + ">? OR " + TaskEntry._ID + ">?)");
+        }
+        if(before != null){
+            builder.appendWhere(sortOrder + "<=? AND (" + sortOrder + "<? OR " + TaskEntry._ID + "<?)");
+        }
+        return order;
+    }
+
+    //the order of a page: walking backwards from a key before it, ties broken by id so page boundaries are exact
+    private static String pageOrder(String after, String before, String sortOrder) {
+        if(!TaskEntry.COL_DEADLINE.equals(sortOrder) && !TaskEntry.COL_TIME_CREATED.equals(sortOrder)
+                && !TaskEntry._ID.equals(sortOrder)){
+            throw new IllegalArgumentException("Paged queries must be sorted by " + TaskEntry.COL_DEADLINE
+                    + ", " + TaskEntry.COL_TIME_CREATED + " or " + TaskEntry._ID + ", not " + sortOrder);
+        }
+        if(after != null && before != null){
+            throw new IllegalArgumentException("A page can't be both after and before a key");
+        }
+        if(before != null){
+            return sortOrder + " DESC," + TaskEntry._ID + " DESC";
+        }
+        return sortOrder + "," + TaskEntry._ID;
+    }
+
+    //the arguments for appendPageWhere's condition, which comes before the caller's selection
+    private static String[] prependPageKey(String after, String before, String[] selectionArgs) {
+        if(after == null && before == null){
+            return selectionArgs;
+        }
+        long[] key = parsePageKey(after != null ? after : before);
+        String sortKey = String.valueOf(key[0]);
+        String[] args = prepend(String.valueOf(key[1]), selectionArgs);
+        return prepend(sortKey, prepend(sortKey, args));
+    }
+
+    /**
+     * Returns the ids of the tasks a change notification is about, or null if it does not list them
+     * (for example when too many changed at once), in which case any task may have changed.
+     * Observers get these notifications by registering on CHANGES_URI without descendants.
+     */
+    @Nullable
+    public static long[] changedIds(Uri uri) {
+        String ids = uri.getQueryParameter(QUERY_IDS);
+        if(ids == null){
+            return null;
+        }
+        try {
+            String[] parts = ids.split(",");
+            long[] result = new long[parts.length];
+            for(int i = 0; i < parts.length; i++){
+                result[i] = Long.parseLong(parts[i]);
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Malformed change notification " + uri);
+            return null;
+        }
+    }
+
+    private static long[] parsePageKey(String key) {
+        try {
+            String[] parts = key.split(",");
+            return new long[] {Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed page key " + key, e);
+        }
+    }
+
     @Nullable
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        long start = Metrics.begin("provider.insert");
+        try {
+            return insertRow(uri, values);
+        } finally {
+            Metrics.end("provider.insert", start);
+        }
+    }
+
+    private Uri insertRow(Uri uri, ContentValues values) {
         //validate uri
+        int match = sUriMatcher.match(uri);
+        if(match == TAGS_DIR_URI || match == TAGS_TASKS_URI){
+            return insertTagRow(uri, values);
+        }
+        if(match != TASKS_URI) {
+            throw new IllegalArgumentException("Unknown URI "+uri);
+        }
+
+        putDefaults(values, System.currentTimeMillis(), keepsCreated(uri)); //make sure all fields are set
+
+        //open the database
+        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        long rowId;
+        BatchState batch = mBatch.get();
+        if(batch != null) { //inside applyBatch, reuse one compiled statement for every insert
+            if(batch.insertStatement == null){
+                batch.insertStatement = db.compileStatement(INSERT_TASK);
+            }
+            rowId = insertTask(batch.insertStatement, values);
+        }else{
+            rowId = db.insert(TaskEntry.TABLE_NAME, null, values);
+        }
+
+        if (rowId > 0) { //if successful
+            mCache.insert(rowId, values); //inside a batch, dropped again if the batch rolls back
+            Metrics.count("provider.rowsInserted");
+            ChangeSet changes = changesFor();
+            changes.inserted(rowId, values);
+            notifyChanges(changes);
+            return ContentUris.withAppendedId(CONTENT_URI, rowId); //return the URI for the entry
+        }
+        throw new SQLException("Failed to insert row into " + uri);
+    }
+
+    //adds a tag (or finds the one with that name), or gives a task the tag of a /tags/#/tasks Uri
+    private Uri insertTagRow(Uri uri, ContentValues values) {
+        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        ChangeSet changes = changesFor();
+        Uri inserted;
+        db.beginTransaction();
+        try {
+            if(sUriMatcher.match(uri) == TAGS_DIR_URI){
+                String name = values.getAsString(TagEntry.COL_NAME);
+                if(name == null || name.trim().length() == 0){
+                    throw new IllegalArgumentException("A tag needs a name");
+                }
+                inserted = ContentUris.withAppendedId(TAGS_URI, TaskTags.insertTag(db, name.trim()));
+            }else{
+                Long taskId = values.getAsLong(TAGGED_TASK_ID);
+                if(taskId == null || !TaskTags.link(db, Long.parseLong(uri.getPathSegments().get(1)), taskId)){
+                    throw new SQLException("Failed to tag task " + taskId + " at " + uri);
+                }
+                changes.changed(taskId);
+                inserted = ContentUris.withAppendedId(uri, taskId);
+            }
+            changes.tagsChanged = true;
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyChanges(changes);
+        return inserted;
+    }
+
+    /**
+     * Inserts all the given tasks in a single transaction using one compiled statement,
+     * and notifies observers once at the end rather than once per row.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = Metrics.begin("provider.bulkInsert");
+        try {
+            return bulkInsertTasks(uri, values);
+        } finally {
+            Metrics.end("provider.bulkInsert", start);
+        }
+    }
+
+    private int bulkInsertTasks(Uri uri, ContentValues[] values) {
+        //validate uri
+        if(sUriMatcher.match(uri) == TASKS_SYNC_URI){
+            return applyPulled(uri, values);
+        }
         if(sUriMatcher.match(uri) != TASKS_URI) {
             throw new IllegalArgumentException("Unknown URI "+uri);
         }
 
-        //make sure all fields are set
+        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement(INSERT_TASK);
+        long now = System.currentTimeMillis();
+        boolean keepCreated = keepsCreated(uri);
+        ChangeSet changes = changesFor();
+        int count = 0;
+
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            for(ContentValues task : values){
+                putDefaults(task, now, keepCreated);
+                long rowId = insertTask(statement, task);
+                if(rowId > 0){
+                    mCache.insert(rowId, task);
+                    changes.inserted(rowId, task);
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endWrite(db, successful);
+            statement.close();
+        }
+
+        Metrics.count("provider.rowsInserted", count);
+        notifyChanges(changes);
+        return count;
+    }
+
+    /**
+     * Applies changes pulled from the sync server in one transaction, and records the cursor the
+     * server gave with them. A change replaces the local task unless that changed later, so when
+     * two devices edit a task the later edit wins, and the server's copy wins a tie. The writes are
+     * dropped from the change log, as the server already has them.
+     */
+    private int applyPulled(Uri uri, ContentValues[] changes) {
+        String cursor = uri.getQueryParameter(QUERY_SYNC_CURSOR);
+        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        ChangeSet changeSet = changesFor();
+        int count = 0;
+
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            long logged = SyncLog.lastChange(db);
+            for(ContentValues change : changes){
+                String syncId = change.getAsString(SyncItem.SYNC_ID);
+                Long updatedAt = change.getAsLong(SyncItem.UPDATED_AT);
+                if(syncId == null || updatedAt == null){
+                    throw new IllegalArgumentException("A change needs a " + SyncItem.SYNC_ID + " and " + SyncItem.UPDATED_AT);
+                }
+                SyncLog.Local local = SyncLog.find(db, syncId);
+                if(local != null && updatedAt < local.updatedAt){
+                    continue; //changed here since, so ours is pushed instead
+                }
+                ContentValues values = SyncLog.taskValues(db, change);
+                String[] id = {local != null ? String.valueOf(local.id) : null};
+                if(values == null){ //deleted
+                    if(local == null || local.deleted){
+                        continue;
+                    }
+                    if(local.archived){
+                        db.delete(TaskEntry.ARCHIVE_TABLE_NAME, TaskEntry._ID + "=?", id);
+                        TaskTags.unlinkTask(db, local.id);
+                    }else{
+                        db.delete(TaskEntry.TABLE_NAME, TaskEntry._ID + "=?", id);
+                    }
+                    mCache.delete(new long[]{local.id});
+                    changeSet.changed(local.id);
+                    changeSet.dueChanged = true;
+                }else if(local == null || local.deleted){ //new here, or brought back
+                    ContentValues row = new ContentValues(values);
+                    row.put(TaskEntry.COL_SYNC_ID, syncId);
+                    row.put(TaskEntry.COL_TIME_UPDATED, updatedAt);
+                    long rowId = db.insertOrThrow(TaskEntry.TABLE_NAME, null, row);
+                    mCache.insert(rowId, values);
+                    changeSet.inserted(rowId, values);
+                }else{
+                    if(local.archived){ //edited in the tasks table, as local edits are
+                        mCache.insert(local.id, TaskArchiver.restore(db, local.id));
+                    }
+                    ContentValues row = new ContentValues(values);
+                    row.put(TaskEntry.COL_TIME_UPDATED, updatedAt);
+                    db.update(TaskEntry.TABLE_NAME, row, TaskEntry._ID + "=?", id);
+                    mCache.update(new long[]{local.id}, values);
+                    changeSet.changed(local.id);
+                    changeSet.dueChanged = true;
+                }
+                count++;
+            }
+            SyncLog.forget(db, logged);
+            if(cursor != null){
+                SyncLog.setCursor(db, Long.parseLong(cursor));
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endWrite(db, successful);
+        }
+
+        Metrics.count("provider.rowsPulled", count);
+        notifyChanges(changeSet);
+        return count;
+    }
+
+    /**
+     * Applies all the operations in a single transaction. Observers are notified once the
+     * batch has committed, with one collection notification for the whole batch.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long start = Metrics.begin("provider.applyBatch");
+        try {
+            return applyTaskBatch(operations);
+        } finally {
+            Metrics.end("provider.applyBatch", start);
+        }
+    }
+
+    private ContentProviderResult[] applyTaskBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        BatchState batch = new BatchState();
+        mBatch.set(batch);
+
+        ContentProviderResult[] results;
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations); //runs each operation through insert/update/delete
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endWrite(db, successful);
+            mBatch.remove();
+            if(batch.insertStatement != null){
+                batch.insertStatement.close();
+            }
+        }
+
+        notifyChanges(batch.changes);
+        return results;
+    }
+
+    //fills in any task fields the caller left out
+    private static void putDefaults(ContentValues values, long now, boolean keepCreated) {
+        checkRecurrence(values);
         if(!values.containsKey(TaskEntry.COL_TITLE)){
             values.put(TaskEntry.COL_TITLE, "Untitled");
         }
@@ -157,69 +1871,339 @@ public class TodoListProvider extends ContentProvider {
         }
 
         if(!values.containsKey(TaskEntry.COL_DEADLINE)){
-            values.put(TaskEntry.COL_DEADLINE, System.currentTimeMillis());
+            values.put(TaskEntry.COL_DEADLINE, now);
         }
 
         if(!values.containsKey(TaskEntry.COL_COMPLETED)){
             values.put(TaskEntry.COL_COMPLETED, 0);
         }
 
-        //created now, no matter what
-        values.put(TaskEntry.COL_TIME_CREATED, System.currentTimeMillis());
+        //created now, unless an import is keeping the original time
+        if(!keepCreated || values.getAsLong(TaskEntry.COL_TIME_CREATED) == null){
+            values.put(TaskEntry.COL_TIME_CREATED, now);
+        }
+    }
 
-        //open the database
-        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
-        long rowId = db.insert(TaskEntry.TABLE_NAME, null, values);
+    //a rule must be one Recurrence reads; which series an occurrence belongs to is only set by the provider
+    private static void checkRecurrence(ContentValues values) {
+        if(values.containsKey(TaskEntry.COL_SERIES_ID) || values.containsKey(TaskEntry.COL_OCCURRENCE)){
+            throw new IllegalArgumentException("Occurrences are made by updating an occurrenceUri()");
+        }
+        String rule = values.getAsString(TaskEntry.COL_RECURRENCE);
+        if(rule != null){
+            Recurrence.parse(rule);
+        }
+    }
 
-        if (rowId > 0) { //if successful
-            Uri noteUri = ContentUris.withAppendedId(CONTENT_URI, rowId);
-            getContext().getContentResolver().notifyChange(noteUri, null);
-            return noteUri; //return the URI for the entry
+    private static boolean keepsCreated(Uri uri) {
+        return uri.getBooleanQueryParameter(QUERY_KEEP_CREATED, false);
+    }
+
+    //binds the values onto a compiled INSERT_TASK statement and runs it
+    private static long insertTask(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+        for(int i = 0; i < INSERT_COLUMNS.length; i++){
+            Object value = values.get(INSERT_COLUMNS[i]);
+            if(value == null){
+                statement.bindNull(i + 1);
+            }else if(value instanceof Boolean){
+                statement.bindLong(i + 1, ((Boolean) value) ? 1 : 0);
+            }else if(value instanceof Long || value instanceof Integer){
+                statement.bindLong(i + 1, ((Number) value).longValue());
+            }else{
+                statement.bindString(i + 1, value.toString());
+            }
         }
-        throw new SQLException("Failed to insert row into " + uri);
+        return statement.executeInsert();
+    }
+
+    //the change set a write records its rows in: the batch's, if one is being applied
+    private ChangeSet changesFor() {
+        BatchState batch = mBatch.get();
+        return batch != null ? batch.changes : new ChangeSet();
+    }
+
+    //notify observers of each changed row, then of the collection with the ids that changed
+    //inside applyBatch this waits until the batch commits
+    private void notifyChanges(ChangeSet changes) {
+        if(changes.isEmpty() || mBatch.get() != null){ //a batch notifies once it has committed
+            return;
+        }
+        updateReminder(changes);
+        ContentResolver resolver = getContext().getContentResolver();
+        if(changes.tagsChanged || changes.dueChanged){ //the tags' counts follow deletes and completion
+            resolver.notifyChange(TAGS_URI, null);
+        }
+        if(changes.overflowed){
+            resolver.notifyChange(CONTENT_URI, null); //reaches every row and collection observer
+            return;
+        }
+        if(changes.ids.isEmpty()){ //only the tags themselves changed
+            return;
+        }
+        for(long id : changes.rows){
+            resolver.notifyChange(ContentUris.withAppendedId(CONTENT_URI, id), null);
+        }
+        resolver.notifyChange(CHANGES_URI.buildUpon()
+                .appendQueryParameter(QUERY_IDS, TextUtils.join(",", changes.ids))
+                .build(), null);
+    }
+
+    //moves the reminder alarm if the write changed which task is due first; inserts need no query
+    private void updateReminder(ChangeSet changes) {
+        if(changes.dueChanged){
+            getReminders().tasksChanged(mDatabaseHelper.getReadableDatabase());
+        }else if(changes.firstDeadline != Long.MAX_VALUE){
+            getReminders().taskAdded(changes.firstDeadline);
+        }
+    }
+
+    //the ids of the rows a selection matches, before they are updated or deleted, or null if there are too many to list
+    private static long[] selectIds(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor c = db.query(TaskEntry.TABLE_NAME, new String[]{TaskEntry._ID}, selection, selectionArgs,
+                null, null, null, String.valueOf(MAX_CHANGED_IDS + 1)); //any more and they are not listed anyway
+        try {
+            if(c.getCount() > MAX_CHANGED_IDS){
+                return null;
+            }
+            long[] ids = new long[c.getCount()];
+            for(int i = 0; c.moveToNext(); i++){
+                ids[i] = c.getLong(0);
+            }
+            return ids;
+        } finally {
+            c.close();
+        }
+    }
+
+    //ends a write's transaction; the cache already holds the write, so it is dropped if that did not commit
+    private void endWrite(SQLiteDatabase db, boolean successful) {
+        try {
+            db.endTransaction();
+        } catch (RuntimeException e) {
+            mCache.invalidate();
+            throw e;
+        }
+        if(!successful){
+            mCache.invalidate();
+        }
+    }
+
+    //restricts a selection to the task a tasks/# Uri names, whose id is bound as the first argument
+    private static String selectTask(Uri uri, String selection) {
+        return TaskEntry._ID + "=?" //select by id
+                + (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : ""); //apply params
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = Metrics.begin("provider.delete");
+        try {
+            return deleteTasks(uri, selection, selectionArgs);
+        } finally {
+            Metrics.end("provider.delete", start);
+        }
+    }
+
+    private int deleteTasks(Uri uri, String selection, String[] selectionArgs) {
         //open the database;
         SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
 
-        int count;
         switch (sUriMatcher.match(uri)) {
+            case TAGS_NUM_URI:
+            case TAGS_TASKS_NUM_URI:
+                return deleteTagRow(uri);
+            case TASKS_SYNC_URI: //changes the server now has; nothing a list shows changes
+                return db.delete(SyncEntry.TABLE_NAME, selection, selectionArgs);
             case TASKS_URI:
-                count = db.delete(TaskEntry.TABLE_NAME, selection, selectionArgs); //just pass in params
-                break;
+                break; //just pass in params
             case TASKS_NUM_URI:
-                String taskId = uri.getPathSegments().get(1);
-                count = db.delete(TaskEntry.TABLE_NAME, TaskEntry._ID + "=" + taskId //select by id
-                        + (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : ""), selectionArgs); //apply params
+                selection = selectTask(uri, selection);
+                selectionArgs = prepend(uri.getPathSegments().get(1), selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+
+        //find which rows go, so their observers can be told
+        ChangeSet changes = changesFor();
+        int count;
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            long[] ids = selectIds(db, selection, selectionArgs);
+            count = db.delete(TaskEntry.TABLE_NAME, selection, selectionArgs);
+            if(count == 0 && sUriMatcher.match(uri) == TASKS_NUM_URI){ //perhaps archived
+                count = db.delete(TaskEntry.ARCHIVE_TABLE_NAME, selection, selectionArgs);
+                ids = count > 0 ? new long[]{ContentUris.parseId(uri)} : ids;
+                if(count > 0){
+                    TaskTags.unlinkTask(db, ContentUris.parseId(uri)); //the tasks table's trigger leaves archived tasks' tags alone
+                }
+            }
+            Metrics.count("provider.rowsDeleted", count);
+            mCache.delete(ids); //while still holding the write lock, so the cache sees writes in commit order
+            changes.changed(ids);
+            changes.dueChanged |= count > 0;
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endWrite(db, successful);
+        }
+        notifyChanges(changes);
+        return count;
+    }
+
+    //deletes a tag, taking it off its tasks, or takes the tag of a /tags/#/tasks/# Uri off that task
+    private int deleteTagRow(Uri uri) {
+        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        long tagId = Long.parseLong(uri.getPathSegments().get(1));
+        ChangeSet changes = changesFor();
+        int count;
+        db.beginTransaction();
+        try {
+            if(sUriMatcher.match(uri) == TAGS_NUM_URI){
+                changes.changed(TaskTags.taskIds(db, tagId, MAX_CHANGED_IDS)); //the tasks losing it
+                count = db.delete(TagEntry.TABLE_NAME, TagEntry._ID + "=?", new String[]{String.valueOf(tagId)});
+            }else{
+                long taskId = ContentUris.parseId(uri);
+                count = TaskTags.unlink(db, tagId, taskId) ? 1 : 0;
+                if(count > 0){
+                    changes.changed(taskId);
+                }
+            }
+            changes.tagsChanged = count > 0;
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyChanges(changes);
         return count;
     }
 
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        long start = Metrics.begin("provider.update");
+        try {
+            return updateTasks(uri, values, selection, selectionArgs);
+        } finally {
+            Metrics.end("provider.update", start);
+        }
+    }
+
+    private int updateTasks(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         //open the database;
         SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
 
-        int count;
         switch (sUriMatcher.match(uri)) {
+            case TAGS_NUM_URI:
+                return renameTag(uri, values);
+            case TASKS_OCCURRENCE_URI:
+                return updateOccurrence(uri, values);
             case TASKS_URI:
-                count = db.update(TaskEntry.TABLE_NAME, values, selection, selectionArgs); //just pass in params
-                break;
+                break; //just pass in params
             case TASKS_NUM_URI:
-                String taskId = uri.getPathSegments().get(1);
-                count = db.update(TaskEntry.TABLE_NAME, values, TaskEntry._ID + "=" + taskId //select by id
-                        + (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : ""), selectionArgs); //apply params
+                selection = selectTask(uri, selection);
+                selectionArgs = prepend(uri.getPathSegments().get(1), selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+
+        checkRecurrence(values);
+
+        //find which rows change, so their observers can be told
+        ChangeSet changes = changesFor();
+        int count;
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            if(sUriMatcher.match(uri) == TASKS_NUM_URI){ //an archived task is edited in the tasks table
+                long id = ContentUris.parseId(uri);
+                ContentValues restored = TaskArchiver.restore(db, id);
+                if(restored != null){
+                    mCache.insert(id, restored);
+                }
+            }
+            long[] ids = selectIds(db, selection, selectionArgs);
+            count = db.update(TaskEntry.TABLE_NAME, values, selection, selectionArgs);
+            Metrics.count("provider.rowsUpdated", count);
+            mCache.update(ids, values); //while still holding the write lock, so the cache sees writes in commit order
+            changes.changed(ids);
+            changes.dueChanged |= count > 0 && (values.containsKey(TaskEntry.COL_DEADLINE)
+                    || values.containsKey(TaskEntry.COL_COMPLETED));
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endWrite(db, successful);
+        }
+        notifyChanges(changes);
+        return count;
+    }
+
+    /**
+     * Completes or edits one occurrence of a repeating task, giving it a row of its own first if it has
+     * none. Runs as a batch, so observers hear of the new row and its update together once it commits.
+     *
+     * @return 1, or 0 if the series has no such occurrence
+     */
+    private int updateOccurrence(Uri uri, ContentValues values) {
+        long seriesId = Long.parseLong(uri.getPathSegments().get(1));
+        long occurrence = Long.parseLong(uri.getLastPathSegment());
+        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        BatchState outer = mBatch.get();
+        BatchState batch = outer != null ? outer : new BatchState();
+        mBatch.set(batch);
+
+        int count = 0;
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            long id = TaskOccurrences.find(db, seriesId, occurrence);
+            if(id < 0){
+                ContentValues row = TaskOccurrences.exception(db, seriesId, occurrence);
+                if(row != null){
+                    id = db.insertOrThrow(TaskEntry.TABLE_NAME, null, row);
+                    mCache.insert(id, row);
+                    batch.changes.inserted(id, row);
+                    Metrics.count("provider.rowsInserted");
+                }
+            }
+            if(id >= 0){ //restores it first if it was archived
+                count = updateTasks(ContentUris.withAppendedId(CONTENT_URI, id), values, null, null);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endWrite(db, successful);
+            if(outer == null){
+                mBatch.remove();
+            }
+        }
+
+        if(outer == null){
+            notifyChanges(batch.changes);
+        }
+        return count;
+    }
+
+    //renames a tag; its name is all that can be set, the counts are kept by the database
+    private int renameTag(Uri uri, ContentValues values) {
+        String name = values.getAsString(TagEntry.COL_NAME);
+        if(name == null || name.trim().length() == 0 || values.size() != 1){
+            throw new IllegalArgumentException("Only a tag's name can be changed");
+        }
+        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        ChangeSet changes = changesFor();
+        int count;
+        db.beginTransaction(); //so no other tag can take the name between the check and the rename
+        try {
+            count = TaskTags.renameTag(db, Long.parseLong(uri.getPathSegments().get(1)), name.trim()) ? 1 : 0;
+            changes.tagsChanged = count > 0;
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyChanges(changes);
         return count;
     }
 
@@ -232,6 +2216,33 @@ public class TodoListProvider extends ContentProvider {
                 return "vnd.android.cursor.dir/"+AUTHORITY+"."+TASK_RESOURCE;
             case TASKS_NUM_URI:
                 return "vnd.android.cursor.item/"+AUTHORITY+"."+TASK_RESOURCE;
+            case TASKS_SEARCH_URI:
+                return "vnd.android.cursor.dir/"+AUTHORITY+"."+TASK_RESOURCE;
+            case TASKS_ALL_URI:
+                return "vnd.android.cursor.dir/"+AUTHORITY+"."+TASK_RESOURCE;
+            case TASKS_DUE_URI:
+            case TASKS_DUE_RANGE_URI:
+                return "vnd.android.cursor.dir/"+AUTHORITY+"."+TASK_RESOURCE;
+            case TASKS_COUNTS_URI:
+            case TASKS_STATS_URI:
+                return "vnd.android.cursor.item/"+AUTHORITY+".counts";
+            case TAGS_DIR_URI:
+            case TASKS_TAGS_URI:
+                return "vnd.android.cursor.dir/"+AUTHORITY+"."+TAG_RESOURCE;
+            case TAGS_NUM_URI:
+                return "vnd.android.cursor.item/"+AUTHORITY+"."+TAG_RESOURCE;
+            case TAGS_TASKS_URI:
+                return "vnd.android.cursor.dir/"+AUTHORITY+"."+TASK_RESOURCE;
+            case TAGS_TASKS_NUM_URI:
+                return "vnd.android.cursor.item/"+AUTHORITY+"."+TASK_RESOURCE;
+            case TASKS_SYNC_URI:
+                return "vnd.android.cursor.dir/"+AUTHORITY+".changes";
+            case TASKS_SYNC_STATE_URI:
+                return "vnd.android.cursor.item/"+AUTHORITY+".sync";
+            case TASKS_OCCURRENCES_URI:
+                return "vnd.android.cursor.dir/"+AUTHORITY+"."+TASK_RESOURCE;
+            case TASKS_OCCURRENCE_URI:
+                return "vnd.android.cursor.item/"+AUTHORITY+"."+TASK_RESOURCE;
             default:
                 throw new IllegalArgumentException("Unknown URI "+uri);
         }
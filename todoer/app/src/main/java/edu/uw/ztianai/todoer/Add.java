@@ -3,8 +3,8 @@ package edu.uw.ztianai.todoer;
 import android.app.DatePickerDialog;
 import android.app.Dialog;
 import android.app.TimePickerDialog;
-import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.Context;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.app.DialogFragment;
@@ -21,12 +21,9 @@ import android.widget.TimePicker;
 import android.widget.Toast;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
 
 import edu.uw.todoer.provider.TodoItem;
-import edu.uw.todoer.provider.TodoListProvider;
 
 /**
  * Created by Tianai Zhao on 16/4/15.
@@ -96,7 +93,6 @@ public class Add extends Fragment implements View.OnClickListener{
     //When user clicks on the add task button, data will be store in database
     @Override
     public void onClick(View v) {
-        ContentResolver resolver = getActivity().getContentResolver();
         String title = ((EditText)rootView.findViewById(R.id.addTitle)).getText().toString(); //gets the input task title
         String detail = ((EditText)rootView.findViewById(R.id.addDescr)).getText().toString(); //gets the input task detail
         String time = ((TextView)rootView.findViewById(R.id.time)).getText().toString(); //gets the input deadline time
@@ -107,10 +103,7 @@ public class Add extends Fragment implements View.OnClickListener{
         long millis = 0;
 
         try{
-            SimpleDateFormat formatter = new SimpleDateFormat("M-d-yyyy hh:mm"); //date format
-
-            Date dateFinal = formatter.parse(toParse);
-            millis = dateFinal.getTime(); //turns string format date to milliseconds format
+            millis = DeadlineFormat.parse(toParse); //turns string format date to milliseconds format
 
         }catch (ParseException e){
             e.printStackTrace();
@@ -120,7 +113,13 @@ public class Add extends Fragment implements View.OnClickListener{
         values.put(TodoItem.TITLE, title);
         values.put(TodoItem.DETAILS, detail);
         values.put(TodoItem.DEADLINE, millis);
-        resolver.insert(TodoListProvider.CONTENT_URI, values); //put data in database
+        final Context context = getActivity().getApplicationContext(); //outlives this fragment
+        TaskWriter.getInstance(context).insert(values, new TaskWriter.Callback() { //put data in database in the background
+            @Override
+            public void onWriteFailed() {
+                Toast.makeText(context, "Could not add the task", Toast.LENGTH_LONG).show();
+            }
+        });
         Toast.makeText(getActivity(), "New Task Added!", Toast.LENGTH_LONG).show(); //show a toast message to notify user
 
         if(getFragmentManager().getBackStackEntryCount() != 0) {  //Once finished adding, return to the previous page that user was on
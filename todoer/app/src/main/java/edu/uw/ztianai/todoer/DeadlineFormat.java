@@ -0,0 +1,67 @@
+package edu.uw.ztianai.todoer;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Shared formatting and parsing of task deadlines.
+ * Each thread gets its own formatters (SimpleDateFormat is not thread safe), plus a small cache
+ * of formatted deadlines keyed by minute, so binding list rows does not allocate on a cache hit.
+ */
+public final class DeadlineFormat {
+
+    private static final String DISPLAY_PATTERN = "MM/dd/yyyy hh:mm"; //how deadlines are shown
+    private static final String INPUT_PATTERN = "M-d-yyyy hh:mm"; //how the Add fragment's pickers write them
+
+    private static final int CACHE_SIZE = 256; //must be a power of two
+    private static final long MINUTE = 60 * 1000;
+
+    //class cannot be instantiated
+    private DeadlineFormat(){}
+
+    /**
+     * A thread's formatters and cache. The cache is direct mapped: each minute has one slot,
+     * and a newer minute landing in the same slot replaces the older one.
+     */
+    private static class State {
+        final SimpleDateFormat display = new SimpleDateFormat(DISPLAY_PATTERN);
+        final SimpleDateFormat input = new SimpleDateFormat(INPUT_PATTERN);
+        final Date scratch = new Date();
+        final long[] minutes = new long[CACHE_SIZE];
+        final String[] formatted = new String[CACHE_SIZE];
+    }
+
+    private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    //Format a deadline in milliseconds for display
+    public static String format(long millis) {
+        State state = STATE.get();
+        long minute = millis / MINUTE;
+        if(millis < 0 && millis % MINUTE != 0){ //round down before the epoch too
+            minute--;
+        }
+
+        int slot = (int) (minute & (CACHE_SIZE - 1));
+        String formatted = state.formatted[slot];
+        if(formatted != null && state.minutes[slot] == minute){
+            return formatted;
+        }
+
+        state.scratch.setTime(millis);
+        formatted = state.display.format(state.scratch);
+        state.minutes[slot] = minute;
+        state.formatted[slot] = formatted;
+        return formatted;
+    }
+
+    //Parse a deadline as entered in the Add fragment ("month-day-year hour:minute") to milliseconds
+    public static long parse(String text) throws ParseException {
+        return STATE.get().input.parse(text).getTime();
+    }
+}
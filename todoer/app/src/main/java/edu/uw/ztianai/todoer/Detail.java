@@ -1,89 +1,118 @@
 package edu.uw.ztianai.todoer;
 
-import android.content.ContentResolver;
-import android.content.ContentValues;
+import android.content.ContentUris;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CompoundButton;
 import android.widget.TextView;
+import android.widget.Toast;
 import android.widget.ToggleButton;
 
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-
 import edu.uw.todoer.provider.TodoItem;
 import edu.uw.todoer.provider.TodoListProvider;
 
 /**
  * Created by Tianai Zhao on 16/4/15.
  */
-public class Detail extends Fragment implements CompoundButton.OnCheckedChangeListener{
+public class Detail extends Fragment implements CompoundButton.OnCheckedChangeListener, LoaderManager.LoaderCallbacks<Cursor> {
 
 
+    private View rootView;
     private ToggleButton toggle;
+    private long taskId;
+    private boolean storedCompleted; //completed state last read from the database
 
     public Detail(){
 
     }
 
+    //Take in the id of the task to show
+    public static Detail newInstance(long taskId){
+        Detail fragment = new Detail();
+        Bundle bundle = new Bundle();
+        bundle.putLong("id", taskId);
+        fragment.setArguments(bundle);
+        return fragment;
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
-        View rootView = inflater.inflate(R.layout.fragment_detail, container, false); //inflate the detail view
-
-        Bundle args = getArguments();
-
-        //Grabs data from the bundle and set it to the corresponding position
-        ((TextView)rootView.findViewById(R.id.titleName)).setText(args.getString("title"));
-        ((TextView)rootView.findViewById(R.id.detail)).setText(args.getString("detail"));
-        String deadline = args.getString("deadline");
-
-        //Changes date to readable format
-        SimpleDateFormat formatter = new SimpleDateFormat("MM/dd/yyyy hh:mm");
-        long milliSeconds = Long.parseLong(deadline);
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTimeInMillis(milliSeconds);
-        ((TextView)rootView.findViewById(R.id.deadline)).setText(formatter.format(calendar.getTime()));
+        rootView = inflater.inflate(R.layout.fragment_detail, container, false); //inflate the detail view
 
-        //If the task has completed (in database is represented by 1) the toggle button will be checked
-        //Otherwise the toggle button is unchecked(uncompleted task)
+        taskId = getArguments().getLong("id");
         toggle = (ToggleButton)rootView.findViewById(R.id.toggleButton);
-        if(args.getString("complete").equals("1")){
-            toggle.setChecked(true);
-        }
-        toggle.setOnCheckedChangeListener(this);
+
+        //load the task in the background, and again whenever it changes
+        getLoaderManager().initLoader(0, null, this);
 
         return rootView;
     }
 
-    //Once the user clicks on the toggle button, database will be updated with the new information
-    public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-        if (isChecked) {
-            // The toggle is enabled
-            Bundle bundle = getArguments();
-            String id = bundle.getString("id");
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        String[] projection = new String[]{TodoItem.TITLE, TodoItem.DETAILS, TodoItem.DEADLINE, TodoItem.COMPLETED};
+        return new CursorLoader(
+                getActivity(),
+                ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, taskId),
+                projection,
+                null,
+                null,
+                null
+        );
+    }
 
-            ContentResolver resolver = getActivity().getContentResolver();
-            ContentValues values = new ContentValues();
-            values.put(TodoItem.COMPLETED, 1); //1 - completed
-            String selection = "_ID=" + id; //specify the particular row of data that need to be updated
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor task) {
+        if(!task.moveToFirst()){ //the task no longer exists
+            return;
+        }
 
-            resolver.update(TodoListProvider.CONTENT_URI, values, selection, null);
+        //Sets the task data to the corresponding position
+        ((TextView)rootView.findViewById(R.id.titleName)).setText(task.getString(task.getColumnIndex(TodoItem.TITLE)));
+        ((TextView)rootView.findViewById(R.id.detail)).setText(task.getString(task.getColumnIndex(TodoItem.DETAILS)));
 
-        } else {
-            // The toggle is disabled
-            Bundle bundle = getArguments();
-            String id = bundle.getString("id");
-            ContentResolver resolver = getActivity().getContentResolver();
+        //Changes date to readable format
+        int deadline = task.getColumnIndex(TodoItem.DEADLINE);
+        ((TextView)rootView.findViewById(R.id.deadline)).setText(task.isNull(deadline) ? ""
+                : DeadlineFormat.format(task.getLong(deadline)));
+
+        //If the task has completed (in database is represented by 1) the toggle button will be checked
+        //Otherwise the toggle button is unchecked(uncompleted task)
+        storedCompleted = task.getInt(task.getColumnIndex(TodoItem.COMPLETED)) == 1;
+        showCompleted(storedCompleted);
+    }
 
-            ContentValues values = new ContentValues();
-            values.put(TodoItem.COMPLETED, 0); //0 - uncompleted
-            String selection = "_ID=" + id; //specify the particular row of data that need to be updated
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        //nothing holds on to the cursor
+    }
 
-            resolver.update(TodoListProvider.CONTENT_URI, values, selection, null);
+    //Once the user clicks on the toggle button, the task is updated in the background
+    //The toggle already shows the new state; it goes back to the stored state if the write fails
+    public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+        TaskWriter.getInstance(getActivity()).setCompleted(taskId, isChecked, new TaskWriter.Callback() {
+            @Override
+            public void onWriteFailed() {
+                if(!isAdded()){
+                    return;
+                }
+                showCompleted(storedCompleted);
+                Toast.makeText(getActivity(), "Could not update the task", Toast.LENGTH_LONG).show();
+            }
+        });
+    }
 
-        }
+    //Set the toggle without treating it as a user change
+    private void showCompleted(boolean completed) {
+        toggle.setOnCheckedChangeListener(null);
+        toggle.setChecked(completed);
+        toggle.setOnCheckedChangeListener(this);
     }
 }
@@ -0,0 +1,185 @@
+package edu.uw.ztianai.todoer;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small file holding the first page of a list as it was last shown, so the list can be painted
+ * on a cold start before the database is even opened. The file is memory-mapped and the rows
+ * decoded straight out of the mapping; the database is then queried in the background as usual
+ * and the list brought up to date from it.
+ *
+ * Layout, big-endian: magic, version, list count, row count, then for each row its id, deadline,
+ * created time, completed flag, and title as a length-prefixed UTF-8 string (length -1 for null).
+ * A file with any other magic or version, or cut short, is ignored.
+ */
+public class ListSnapshot {
+
+    private static final String TAG = "ListSnapshot";
+    private static final int MAGIC = 0x54445331; //"TDS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 4;
+    private static final int ROW_SIZE = 8 + 8 + 8 + 1 + 4; //not counting the title bytes
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+
+    /**
+     * The snapshot of the list with the given name, usually its selection, and sort column.
+     */
+    public ListSnapshot(Context context, String list, String sortColumn) {
+        String name = "list-" + Integer.toHexString((list + "|" + sortColumn).hashCode()) + ".snapshot";
+        file = new File(context.getCacheDir(), name);
+    }
+
+    //The rows and list count last saved
+    public static class Contents {
+        public final List<Task> rows;
+        public final int count;
+
+        Contents(List<Task> rows, int count) {
+            this.rows = rows;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Returns what was last saved, or null if there is no usable snapshot.
+     * Only a few pages are read, so this is cheap enough for the main thread.
+     */
+    public Contents read() {
+        if(!file.exists()){
+            return null;
+        }
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = in.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION){
+                    return null;
+                }
+                int count = buffer.getInt();
+                int size = buffer.getInt();
+                if(size < 0 || size > count){
+                    return null;
+                }
+                List<Task> rows = new ArrayList<Task>(size);
+                for(int i = 0; i < size; i++){
+                    long id = buffer.getLong();
+                    long deadline = buffer.getLong();
+                    long createdAt = buffer.getLong();
+                    boolean completed = buffer.get() != 0;
+                    int length = buffer.getInt();
+                    String title = null;
+                    if(length >= 0){
+                        title = new String(bytes(buffer, length), UTF_8);
+                    }
+                    rows.add(new Task(id, title, deadline, createdAt, completed));
+                }
+                return new Contents(rows, count);
+            } finally {
+                in.close();
+            }
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) { //unreadable or cut short
+            Log.w(TAG, "Ignoring snapshot " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves the rows and list count in the background, replacing the file in one step so a
+     * reader never sees half of it. Saves happen in the order they are asked for.
+     */
+    public void write(List<Task> rows, final int count) {
+        final List<Task> copy = new ArrayList<Task>(rows);
+        inBackground(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeNow(copy, count);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not save snapshot " + file, e);
+                }
+            }
+        });
+    }
+
+    //Removes the snapshot, after any saves already asked for
+    public void delete() {
+        inBackground(new Runnable() {
+            @Override
+            public void run() {
+                file.delete();
+            }
+        });
+    }
+
+    //runs file work one job at a time, in order, off the main thread
+    private static void inBackground(final Runnable job) {
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                job.run();
+                return null;
+            }
+        }.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    private void writeNow(List<Task> rows, int count) throws IOException {
+        byte[][] titles = new byte[rows.size()][];
+        int size = HEADER_SIZE;
+        for(int i = 0; i < rows.size(); i++){
+            String title = rows.get(i).title;
+            titles[i] = title != null ? title.getBytes(UTF_8) : null;
+            size += ROW_SIZE + (titles[i] != null ? titles[i].length : 0);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(rows.size());
+        for(int i = 0; i < rows.size(); i++){
+            Task task = rows.get(i);
+            buffer.putLong(task.id).putLong(task.deadline).putLong(task.createdAt).put((byte) (task.completed ? 1 : 0));
+            if(titles[i] == null){
+                buffer.putInt(-1);
+            }else{
+                buffer.putInt(titles[i].length).put(titles[i]);
+            }
+        }
+        buffer.flip();
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            FileChannel channel = out.getChannel();
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        } finally {
+            out.close();
+        }
+        if(!temp.renameTo(file)){
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
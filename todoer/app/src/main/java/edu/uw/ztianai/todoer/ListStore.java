@@ -0,0 +1,126 @@
+package edu.uw.ztianai.todoer;
+
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.uw.todoer.metrics.Metrics;
+
+/**
+ * The loaded state of the lists, kept across rotation and navigation. This is a fragment with no
+ * view that is retained over configuration changes, holding for each list its PagedTaskAdapter,
+ * which keeps a window of rows for each sort order, and where the list was scrolled to. A MasterList
+ * for a list shown before takes these over instead of querying again; while no MasterList shows a
+ * list its adapter is paused, so coming back to it needs a query only if the tasks changed.
+ *
+ * The few lists most recently shown are kept; the rest, and all of them once the activity
+ * finishes, are closed.
+ */
+public class ListStore extends Fragment {
+
+    private static final String TAG = "ListStore";
+    private static final int MAX_HIDDEN = 4; //lists kept while none shows them
+
+    //An activity keeping a ListStore for its MasterLists
+    public interface Host {
+        public ListStore getListStore();
+    }
+
+    //A list's adapter and scroll position
+    static class Entry {
+        final PagedTaskAdapter adapter;
+        Parcelable scroll; //the layout manager's saved state, null until first left
+        int shown; //MasterLists showing it, which may overlap while one replaces another
+
+        Entry(PagedTaskAdapter adapter) {
+            this.adapter = adapter;
+        }
+    }
+
+    //by list, least recently shown first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    //The store of an activity, added to it if it has none
+    public static ListStore of(FragmentManager manager) {
+        ListStore store = (ListStore)manager.findFragmentByTag(TAG);
+        if(store == null){
+            store = new ListStore();
+            manager.beginTransaction().add(store, TAG).commit();
+        }
+        return store;
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true); //kept, not recreated, when the activity is
+    }
+
+    /**
+     * The kept state of a list, now shown, or null if it was not kept.
+     *
+     * @param refresh whether to refresh the list even if the tasks have not changed
+     */
+    Entry show(String list, boolean refresh) {
+        Entry entry = entries.get(list);
+        if(entry == null){
+            return null;
+        }
+        Metrics.count("list.reused");
+        if(entry.shown++ == 0){
+            entry.adapter.resume(refresh);
+        }
+        return entry;
+    }
+
+    //Keeps a newly loaded list, now shown
+    Entry add(String list, PagedTaskAdapter adapter) {
+        Entry entry = new Entry(adapter);
+        entry.shown = 1;
+        entries.put(list, entry);
+        trim();
+        return entry;
+    }
+
+    //A MasterList stops showing a list, which was scrolled as given
+    void leave(Entry entry, Parcelable scroll) {
+        entry.scroll = scroll;
+        if(--entry.shown == 0){
+            entry.adapter.pause();
+            trim();
+        }
+    }
+
+    //Close the least recently shown lists that no MasterList shows, beyond MAX_HIDDEN
+    private void trim() {
+        int hidden = 0;
+        for(Entry entry : entries.values()){
+            if(entry.shown == 0){
+                hidden++;
+            }
+        }
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while(hidden > MAX_HIDDEN && it.hasNext()){
+            Entry entry = it.next().getValue();
+            if(entry.shown == 0){
+                entry.adapter.close();
+                it.remove();
+                hidden--;
+            }
+        }
+    }
+
+    @Override
+    public void onDestroy() { //only once the activity finishes, as the fragment is retained
+        super.onDestroy();
+        for(Entry entry : entries.values()){
+            entry.adapter.close();
+        }
+        entries.clear();
+    }
+}
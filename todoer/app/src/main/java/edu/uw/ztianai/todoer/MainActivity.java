@@ -1,39 +1,180 @@
 package edu.uw.ztianai.todoer;
 
+import android.content.ContentResolver;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.support.annotation.VisibleForTesting;
 import android.support.v4.app.DialogFragment;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentTransaction;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.util.Log;
 import android.view.View;
 
-import edu.uw.todoer.provider.TodoItem;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 
-public class MainActivity extends AppCompatActivity implements MasterList.OnTaskSelectedListener{
+import edu.uw.todoer.metrics.Metrics;
+import edu.uw.todoer.provider.TodoListProvider;
+
+public class MainActivity extends AppCompatActivity implements MasterList.OnTaskSelectedListener, ListStore.Host{
 
     private static final String TAG = "MainActivity";
+    private static final String SEARCH_TAG = "search"; //the search fragment and its back stack entry
+    private static final String METRICS_FILE = "metrics.txt"; //where debug builds dump their metrics on leaving
+    private static final String STATE_LAND = "land";
     private boolean land;  //whether it is currently in landscape or portrait view
+    private ListStore lists; //null until first asked for
+    private final Handler handler = new Handler();
+
+    //the menu items showing how many tasks their list has, the COUNTS_URI column of each, and their names
+    private static final int[] COUNTED_ITEMS = {R.id.to_do_menu_item, R.id.completed_menu_item,
+            R.id.overdue_menu_item, R.id.due_today_menu_item, R.id.due_week_menu_item};
+    private static final String[] COUNT_COLUMNS = {TodoListProvider.COUNT_TODO, TodoListProvider.COUNT_COMPLETED,
+            TodoListProvider.COUNT_OVERDUE, TodoListProvider.COUNT_TODAY, TodoListProvider.COUNT_WEEK};
+    private static final int[] COUNTED_TITLES = {R.string.menu_to_do, R.string.menu_completed,
+            R.string.menu_overdue, R.string.menu_due_today, R.string.menu_due_week};
+    private Menu menu; //null until created
+    private int[] counts; //null until loaded
+    private CountsTask counting; //the counts being loaded
+
+    //count again when tasks change
+    private final ContentObserver countsObserver = new ContentObserver(handler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            loadCounts();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long start = Metrics.begin("activity.create");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        FragmentTransaction ft = getSupportFragmentManager().beginTransaction();  //the application will first show 2 fragments
         View land = findViewById(R.id.container_right); //see if we can find the view for landscape
         this.land = (land != null); //if land is not null, that means we need to show two pane view
-        if(this.land) {
-            ft.add(R.id.container_left, new MasterList().newInstance(1));  //the to do list fragment
-            ft.add(R.id.container_right, new Add());  //to add a new task fragment
-            ft.commit();
-        }else{
-            ft.add(R.id.container, new MasterList().newInstance(1));  //the to do list fragment
-            ft.commit();
+        FragmentManager fm = getSupportFragmentManager();
+        if(savedInstanceState == null){ //once per launch, not on every rotation
+            showStart(fm.beginTransaction());
+            TaskWriter.getInstance(this).archiveOldTasks();
+        }else if(savedInstanceState.getBoolean(STATE_LAND) != this.land){
+            //the fragments were brought back into panes this layout lacks: start again from the to do list,
+            //whose rows the ListStore still has
+            fm.popBackStackImmediate(null, FragmentManager.POP_BACK_STACK_INCLUSIVE);
+            FragmentTransaction ft = fm.beginTransaction();
+            for(int pane : new int[]{R.id.container, R.id.container_left, R.id.container_right}){
+                Fragment fragment = fm.findFragmentById(pane);
+                if(fragment != null){
+                    ft.remove(fragment);
+                }
+            }
+            showStart(ft);
+        } //otherwise the fragment manager has already brought back what was shown
+        Metrics.end("activity.create", start);
+    }
+
+    //The application first shows the to do list; in landscape the right pane stays empty until a task is picked or added
+    private void showStart(FragmentTransaction ft) {
+        ft.add(land ? R.id.container_left : R.id.container, MasterList.newInstance(MasterList.TODO), listTag(MasterList.TODO));
+        commit(ft, "fragment.start");
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_LAND, land);
+    }
+
+    //The lists' loaded rows and scroll positions, kept across rotation and navigation
+    @Override
+    public ListStore getListStore() {
+        if(lists == null){
+            lists = ListStore.of(getSupportFragmentManager());
         }
+        return lists;
+    }
 
+    //the tag of a list's fragment, also naming the back stack entry that showed it
+    @VisibleForTesting
+    static String listTag(int type) {
+        return "list-" + type;
+    }
+
+    //Commits a fragment transaction, timing it until it has run and the new fragments have made their views
+    private void commit(FragmentTransaction ft, String name) {
+        long start = Metrics.now();
+        ft.commit();
+        timeUntilShown(name, start);
+    }
+
+    //Pops the back stack down to an entry, or all of it for null, timed like commit()
+    private void popTo(String entry, String name) {
+        long start = Metrics.now();
+        getSupportFragmentManager().popBackStack(entry, entry == null ? FragmentManager.POP_BACK_STACK_INCLUSIVE : 0);
+        timeUntilShown(name, start);
+    }
+
+    private void timeUntilShown(final String name, final long start) {
+        if(Metrics.ENABLED){
+            handler.post(new Runnable() { //queued behind the transaction itself
+                @Override
+                public void run() {
+                    Metrics.record(name, start);
+                }
+            });
+        }
+    }
+
+    //The counts are kept up to date while the app is shown; loaded again on coming back, as tasks may have fallen due
+    @Override
+    protected void onStart() {
+        super.onStart();
+        getContentResolver().registerContentObserver(TodoListProvider.CHANGES_URI, false, countsObserver);
+        loadCounts();
+    }
+
+    //Debug builds save the metrics each time the app goes to the background, to be pulled off the device
+    @Override
+    protected void onStop() {
+        super.onStop();
+        getContentResolver().unregisterContentObserver(countsObserver);
+        if(counting != null){
+            counting.cancel(false);
+            counting = null;
+        }
+        if(Metrics.ENABLED){ //written off the main thread, one dump after another
+            final File file = new File(getFilesDir(), METRICS_FILE);
+            AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Metrics.dump(file);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Could not save metrics", e);
+                    }
+                }
+            });
+        }
+    }
+
+    //adb shell dumpsys activity edu.uw.ztianai.todoer/.MainActivity prints the metrics after the usual state
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "Metrics:");
+        Metrics.dump(writer);
     }
 
     //Responds to the time picker button
@@ -53,34 +194,137 @@ public class MainActivity extends AppCompatActivity implements MasterList.OnTask
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.main_menu, menu);
+
+        //Searching shows the results in place of the list, updated as the user types
+        MenuItem searchItem = menu.findItem(R.id.search_menu_item);
+        MenuItemCompat.setOnActionExpandListener(searchItem, new MenuItemCompat.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                showSearch();
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                getSupportFragmentManager().popBackStack(SEARCH_TAG, FragmentManager.POP_BACK_STACK_INCLUSIVE);
+                return true;
+            }
+        });
+        this.menu = menu;
+        showCounts();
+
+        SearchView searchView = (SearchView)MenuItemCompat.getActionView(searchItem);
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return onQueryTextChange(query);
+            }
+
+            @Override
+            public boolean onQueryTextChange(String text) {
+                Search search = (Search)getSupportFragmentManager().findFragmentByTag(SEARCH_TAG);
+                if(search != null){
+                    search.setQuery(text); //searches once typing pauses
+                }
+                return true;
+            }
+        });
         return true;
     }
 
+    //Counts the tasks in each list in the background, a single query that loads no tasks
+    private void loadCounts() {
+        if(counting != null){
+            counting.cancel(false);
+        }
+        counting = new CountsTask(getContentResolver());
+        counting.execute();
+    }
+
+    //Puts the counts last loaded on the menu items for their lists
+    private void showCounts() {
+        if(menu == null || counts == null){
+            return;
+        }
+        for(int i = 0; i < COUNTED_ITEMS.length; i++){
+            MenuItem item = menu.findItem(COUNTED_ITEMS[i]);
+            if(item != null){
+                item.setTitle(getString(R.string.menu_count, getString(COUNTED_TITLES[i]), counts[i]));
+            }
+        }
+    }
+
+    //Loads the counts of COUNT_COLUMNS
+    private class CountsTask extends AsyncTask<Void, Void, int[]> {
+        private final ContentResolver resolver;
+
+        CountsTask(ContentResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        @Override
+        protected int[] doInBackground(Void... params) {
+            Cursor cursor = resolver.query(TodoListProvider.COUNTS_URI, null, null, null, null);
+            if(cursor == null){
+                return null;
+            }
+            try {
+                if(!cursor.moveToFirst()){
+                    return null;
+                }
+                int[] counts = new int[COUNT_COLUMNS.length];
+                for(int i = 0; i < counts.length; i++){
+                    counts[i] = cursor.getInt(cursor.getColumnIndexOrThrow(COUNT_COLUMNS[i]));
+                }
+                return counts;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(int[] counts) { //not called once cancelled
+            if(counting == this){
+                counting = null;
+                if(counts != null){
+                    MainActivity.this.counts = counts;
+                    showCounts();
+                }
+            }
+        }
+    }
+
+    //Show the search results where the list is
+    private void showSearch() {
+        FragmentManager fm = getSupportFragmentManager();
+        if(fm.findFragmentByTag(SEARCH_TAG) != null){
+            return;
+        }
+        FragmentTransaction ft = fm.beginTransaction();
+        ft.replace(land ? R.id.container_left : R.id.container, new Search(), SEARCH_TAG);
+        ft.addToBackStack(SEARCH_TAG);
+        commit(ft, "fragment.search");
+        fm.executePendingTransactions(); //so the first letter typed finds it
+    }
+
     //When a item of the menu is selected, load different fragments
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch(item.getItemId()) {
             case R.id.to_do_menu_item:      //when to do menu button is click, to do list will show up in the left part of the screen
-                FragmentTransaction ftTodo = getSupportFragmentManager().beginTransaction();
-                if(land){ //show two pane view if the device in landscape mode
-                    ftTodo.remove(getSupportFragmentManager().findFragmentById(R.id.container_right)); //right side of the screen would be blank
-                    ftTodo.replace(R.id.container_left, new MasterList().newInstance(1), null);
-                }else{
-                    ftTodo.replace(R.id.container,new MasterList().newInstance(1), null);
-
-                }
-                ftTodo.addToBackStack(null);
-                ftTodo.commit();
+                showList(MasterList.TODO, "fragment.todo");
+                return true;
+            case R.id.overdue_menu_item:    //the lists of tasks due show where the to do list does
+                showList(MasterList.OVERDUE, "fragment.overdue");
+                return true;
+            case R.id.due_today_menu_item:
+                showList(MasterList.DUE_TODAY, "fragment.dueToday");
+                return true;
+            case R.id.due_week_menu_item:
+                showList(MasterList.DUE_WEEK, "fragment.dueWeek");
                 return true;
             case R.id.completed_menu_item:     //when completed menu button is click, the right part of the screen will show the list of completed tasks
-                FragmentTransaction ftComplete = getSupportFragmentManager().beginTransaction();
-                if(land){
-                    ftComplete.replace(R.id.container_right, new MasterList(), null);
-                }else{
-                    ftComplete.replace(R.id.container, new MasterList(), null);
-                }
-                ftComplete.addToBackStack(null);
-                ftComplete.commit();
+                showList(MasterList.COMPLETED, "fragment.completed");
                 return true;
             case R.id.add_menu_item:    //when add menu button is click, the right part of the screen will show the adding fragment
                 FragmentTransaction ftAdd = getSupportFragmentManager().beginTransaction();
@@ -90,30 +334,59 @@ public class MainActivity extends AppCompatActivity implements MasterList.OnTask
                     ftAdd.replace(R.id.container, new Add(), null);
                 }
                 ftAdd.addToBackStack(null);
-                ftAdd.commit();
+                commit(ftAdd, "fragment.add");
                 return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
-    //When a user select a specific item from the list view, data would be stored and detail fragment would show up in the right part of the screen
-    public void onTaskSelected(Cursor task) {
-        Bundle bundle = new Bundle();  //Storing the data into a bundle
-        bundle.putString("title", task.getString(task.getColumnIndex(TodoItem.TITLE)));
-        bundle.putString("deadline", task.getString(task.getColumnIndex(TodoItem.DEADLINE)));
-        bundle.putString("detail", task.getString(task.getColumnIndex(TodoItem.DETAILS)));
-        bundle.putString("id", task.getString(task.getColumnIndex(TodoItem.ID)));
-        bundle.putString("complete", task.getString(task.getColumnIndex(TodoItem.COMPLETED)));
+    /**
+     * Show a list: the completed list in the right part of the screen, the others in the left.
+     * Nothing happens if it is already there; if it was shown before and left on the back stack, the
+     * stack is popped back to it rather than growing, and the to do list, shown first, pops it all.
+     */
+    private void showList(int type, String name) {
+        FragmentManager fm = getSupportFragmentManager();
+        String tag = listTag(type);
+        int pane = !land ? R.id.container : type == MasterList.COMPLETED ? R.id.container_right : R.id.container_left;
+        Fragment shown = fm.findFragmentById(pane);
+        if(shown != null && tag.equals(shown.getTag())){
+            Metrics.count("fragment.alreadyShown");
+            return;
+        }
+        if(type == MasterList.TODO){
+            popTo(null, name);
+            return;
+        }
+        for(int i = fm.getBackStackEntryCount() - 1; i >= 0; i--){
+            if(tag.equals(fm.getBackStackEntryAt(i).getName())){
+                popTo(tag, name);
+                return;
+            }
+        }
 
+        FragmentTransaction ft = fm.beginTransaction();
+        if(land && type != MasterList.COMPLETED){ //show two pane view if the device in landscape mode
+            Fragment right = fm.findFragmentById(R.id.container_right);
+            if(right != null){
+                ft.remove(right); //right side of the screen would be blank
+            }
+        }
+        ft.replace(pane, MasterList.newInstance(type), tag);
+        ft.addToBackStack(tag);
+        commit(ft, name);
+    }
 
-        Detail fragment = new Detail();
-        fragment.setArguments(bundle);
+    //When a user select a specific item from the list view, detail fragment would show up in the right part of the screen
+    public void onTaskSelected(long taskId, boolean completed) {
+        Detail fragment = Detail.newInstance(taskId); //the detail view loads the task itself
 
         FragmentTransaction ft = getSupportFragmentManager().beginTransaction();
         if(land){ //if two pane view, show both completed list and the details
-            if(task.getString(task.getColumnIndex(TodoItem.COMPLETED)).equals("1")){ //if the user is on the completed list view
-                ft.replace(R.id.container_left, new MasterList(), null); //completed list will show up on the left side of the screen
+            if(completed){ //if the user is on the completed list view
+                //completed list will show up on the left side of the screen, its rows taken from the ListStore
+                ft.replace(R.id.container_left, MasterList.newInstance(MasterList.COMPLETED), listTag(MasterList.COMPLETED));
                 ft.replace(R.id.container_right, fragment, null); //detail page will show up on the right side of the screen
             }else{
                 ft.replace(R.id.container_right, fragment, null);
@@ -123,7 +396,7 @@ public class MainActivity extends AppCompatActivity implements MasterList.OnTask
         }
 
         ft.addToBackStack(null);
-        ft.commit();
+        commit(ft, "fragment.detail");
     }
 
     //If user clicks on back button, it will lead the user to the previous section
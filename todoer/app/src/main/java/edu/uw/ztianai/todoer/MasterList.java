@@ -1,34 +1,41 @@
 package edu.uw.ztianai.todoer;
 
 import android.content.Context;
-import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Parcelable;
 import android.support.v4.app.Fragment;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
-import android.support.v4.widget.SimpleCursorAdapter;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.TextView;
-
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
 
+import edu.uw.todoer.metrics.Metrics;
+import edu.uw.todoer.provider.TaskFilter;
 import edu.uw.todoer.provider.TodoItem;
 import edu.uw.todoer.provider.TodoListProvider;
 
 /**
  * Created by Tianai Zhao on 16/4/15.
  */
-public class MasterList extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
-
-    private SimpleCursorAdapter adapter;
+public class MasterList extends Fragment {
+
+    //the lists a MasterList can show, as given to newInstance()
+    public static final int COMPLETED = 0;
+    public static final int TODO = 1;
+    public static final int OVERDUE = 2;
+    public static final int DUE_TODAY = 3;
+    public static final int DUE_WEEK = 4;
+    public static final int DUE_RANGE = 5; //see newRange()
+    public static final int TAGGED = 6; //see newTagged()
+
+    private PagedTaskAdapter adapter;
+    private RecyclerView listView;
+    private ListStore.Entry kept; //the adapter and scroll position, kept in the activity's ListStore
     private static final String TAG = "MasterList";
 
     private int id;
@@ -48,21 +55,44 @@ public class MasterList extends Fragment implements LoaderManager.LoaderCallback
         return fragment;
     }
 
+    //The incomplete tasks with a tag
+    public static MasterList newTagged(long tagId){
+        MasterList fragment = newInstance(TAGGED);
+        fragment.getArguments().putLong("tag", tagId);
+        return fragment;
+    }
+
+    //The incomplete tasks due from one time up to, but not including, another
+    public static MasterList newRange(long from, long until){
+        MasterList fragment = newInstance(DUE_RANGE);
+        fragment.getArguments().putLong("from", from);
+        fragment.getArguments().putLong("until", until);
+        return fragment;
+    }
+
     //A listener for task selected
     public interface OnTaskSelectedListener {
-        public void onTaskSelected(Cursor task);
+        public void onTaskSelected(long taskId, boolean completed);
     }
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        long start = Metrics.begin("list.createView");
+        try {
+            return createView(inflater, container);
+        } finally {
+            Metrics.end("list.createView", start);
+        }
+    }
 
+    private View createView(LayoutInflater inflater, ViewGroup container) {
         if(getArguments() != null){
             Bundle bundle = getArguments();
             id = bundle.getInt("type");
         }
 
         View rootView;
-        if(id == 1){ //If id is 1 then grab data related to the to do list view
+        if(id != COMPLETED){ //the to do list and the lists of tasks due share a layout
             rootView = inflater.inflate(R.layout.fragment_master_list, container, false);
         }else { //otherwise grab data related to the completed list view
             rootView = inflater.inflate(R.layout.fragment_completed, container, false);
@@ -71,100 +101,84 @@ public class MasterList extends Fragment implements LoaderManager.LoaderCallback
         //Show the specific menu buttons for this fragment or data
         setHasOptionsMenu(true);
 
-        //Adapter for showing the data in list view
-        AdapterView listView = (AdapterView)rootView.findViewById(R.id.listView);
-
-        adapter = new SimpleCursorAdapter(
-                getActivity(),
-                R.layout.list_item,
-                null,
-                new String[] {TodoItem.TITLE, TodoItem.DEADLINE},
-                new int[] {R.id.txtTaskTitle, R.id.txtTaskDeadline},
-                0
-        );
-
-        //Show date in a readable format
-        adapter.setViewBinder(new SimpleCursorAdapter.ViewBinder(){
-            @Override
-            public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
-                if(columnIndex == cursor.getColumnIndex(TodoItem.DEADLINE)) {
-                    String deadline = cursor.getString(cursor.getColumnIndex(TodoItem.DEADLINE));
-                    SimpleDateFormat formatter = new SimpleDateFormat("MM/dd/yyyy hh:mm");
-                    long milliSeconds = Long.parseLong(deadline);
-                    Calendar calendar = Calendar.getInstance();
-                    calendar.setTimeInMillis(milliSeconds);
-                    ((TextView)view).setText(formatter.format(calendar.getTime()));
-                    return true;
-                }
-                return false;
+        //Adapter for showing the data in list view, loaded a page at a time
+        listView = (RecyclerView)rootView.findViewById(R.id.listView);
+        listView.setLayoutManager(new LinearLayoutManager(getActivity()));
+
+        //the list as it was last shown, if it is still kept: no query unless the tasks changed since
+        ListStore store = ((ListStore.Host)getActivity()).getListStore();
+        kept = store.show(listKey(), id == OVERDUE || id == DUE_TODAY || id == DUE_WEEK); //these move with the clock
+        if(kept != null){
+            adapter = kept.adapter;
+            if(kept.scroll != null){
+                listView.getLayoutManager().onRestoreInstanceState(kept.scroll);
             }
-        });
-
+        }else{
+            adapter = createAdapter();
+            kept = store.add(listKey(), adapter);
+        }
         listView.setAdapter(adapter);
 
-
         //put a click listener on the item in the list
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        adapter.setOnTaskClickListener(new PagedTaskAdapter.OnTaskClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                Cursor cursor = (Cursor)parent.getItemAtPosition(position);
-                callback.onTaskSelected(cursor);
+            public void onTaskClick(Task task) {
+                callback.onTaskSelected(task.id, task.completed);
             }
         });
 
-        //initiate the loader for loading data
-        getLoaderManager().initLoader(0, null, this);
-
         return rootView;
     }
 
-    //Create a loader for loading necessary information
-    @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        String[] projection = new String[]{TodoItem.ID, TodoItem.TITLE, TodoItem.DETAILS, TodoItem.DEADLINE, TodoItem.COMPLETED};
-        String selection = TodoItem.COMPLETED + "=0"; //uncompleted tasks
-        String selectionCompleted = TodoItem.COMPLETED + "=1"; //completed tasks
-        CursorLoader loader;
-        if(this.id != 1){  //data for completed list, sorted by time created in ascending order
-            loader = new CursorLoader(
-                    getActivity(),
-                    TodoListProvider.CONTENT_URI,
-                    projection,
-                    selectionCompleted,
-                    null,
-                    TodoItem.TIME_CREATED
-            );
-        }else if(id == 0){  //data for to do list, sorted by time created in ascending order
-            loader = new CursorLoader(
-                    getActivity(),
-                    TodoListProvider.CONTENT_URI,
-                    projection,
-                    selection,
-                    null,
-                    TodoItem.TIME_CREATED
-            );
-        }else{ //data for to do list, sorted by deadline in ascending order
-            loader = new CursorLoader(
-                    getActivity(),
-                    TodoListProvider.CONTENT_URI,
-                    projection,
-                    selection,
-                    null,
-                    TodoItem.DEADLINE
-            );
+    //Adapter for the tasks of this list
+    private PagedTaskAdapter createAdapter() {
+        //only what the rows show; Detail loads the rest of a task itself (created time is the paging key)
+        String[] projection = new String[]{TodoItem.ID, TodoItem.TITLE, TodoItem.DEADLINE, TodoItem.COMPLETED,
+                TodoItem.TIME_CREATED};
+        Uri due = dueUri();
+        if(due != null){  //tasks due in a range, soonest first, read as a range of the deadline index
+            return new PagedTaskAdapter(getActivity(), due, projection, TaskFilter.all(), TodoItem.DEADLINE);
+        }else if(id == TAGGED){  //to do tasks with a tag, read from the tag's own indexes
+            return new PagedTaskAdapter(getActivity(), TodoListProvider.tagTasksUri(getArguments().getLong("tag")),
+                    projection, TaskFilter.todo(), TodoItem.TIME_CREATED);
+        }else if(id != TODO){  //data for completed list, archived tasks included, sorted by time created in ascending order
+            return new PagedTaskAdapter(getActivity(), TodoListProvider.ALL_TASKS_URI, projection,
+                    TaskFilter.completed(), TodoItem.TIME_CREATED);
+        }else{  //data for to do list, sorted by time created in ascending order until the user picks a sort
+            return new PagedTaskAdapter(getActivity(), projection, TaskFilter.todo(), TodoItem.TIME_CREATED);
         }
+    }
 
-        return loader;
+    //which list this shows, to find it in the ListStore
+    private String listKey() {
+        Bundle args = getArguments() != null ? getArguments() : Bundle.EMPTY;
+        return id + ":" + args.getLong("tag") + ":" + args.getLong("from") + ":" + args.getLong("until");
     }
 
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        adapter.swapCursor(data);
+    //the tasks of a deadline range list, or null for the to do and completed lists
+    private Uri dueUri() {
+        switch(id){
+            case OVERDUE:
+                return TodoListProvider.dueUri(TodoListProvider.DUE_OVERDUE);
+            case DUE_TODAY:
+                return TodoListProvider.dueUri(TodoListProvider.DUE_TODAY);
+            case DUE_WEEK:
+                return TodoListProvider.dueUri(TodoListProvider.DUE_WEEK);
+            case DUE_RANGE:
+                return TodoListProvider.dueUri(getArguments().getLong("from"), getArguments().getLong("until"));
+            default:
+                return null;
+        }
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        adapter.swapCursor(null);
+    public void onDestroyView() {
+        super.onDestroyView();
+        //kept for the next time the list is shown; the adapter must not hold on to this view or activity
+        Parcelable scroll = listView.getLayoutManager().onSaveInstanceState();
+        listView.setAdapter(null);
+        adapter.setOnTaskClickListener(null);
+        ((ListStore.Host)getActivity()).getListStore().leave(kept, scroll);
     }
 
     //Checks to make sure the activity implements OnTaskSelectedListener
@@ -177,20 +191,20 @@ public class MasterList extends Fragment implements LoaderManager.LoaderCallback
         }
     }
 
-    //Restart loader and sort data based on deadline
+    //Reload the list sorted by deadline
     public void sortByDeadline(){
-        getLoaderManager().restartLoader(1, null, this);
+        adapter.setSortColumn(TodoItem.DEADLINE);
     }
 
-    //Restart loader and sort data based on the created date
+    //Reload the list sorted by the created date
     public void sortByCreatedDate(){
-        getLoaderManager().restartLoader(0, null, this);
+        adapter.setSortColumn(TodoItem.TIME_CREATED);
     }
 
-    //If the user is on the to do list view, then user can see the sorting options
+    //If the user is on the to do list or a list of tasks due, then user can see the sorting options
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
-        if(id == 1){
+        if(id != COMPLETED){
             inflater.inflate(R.menu.masterlist_fragment_menu, menu);
         }
     }
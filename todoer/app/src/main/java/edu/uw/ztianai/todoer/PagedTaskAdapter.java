@@ -0,0 +1,606 @@
+package edu.uw.ztianai.todoer;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.uw.todoer.metrics.Metrics;
+import edu.uw.todoer.provider.TaskFilter;
+import edu.uw.todoer.provider.TodoListProvider;
+
+/**
+ * A RecyclerView adapter that loads tasks from the TodoListProvider a page at a time as the user scrolls.
+ * Only a window of rows around the visible position is kept in memory; rows outside it show as blank
+ * placeholders until they are loaded again.
+ *
+ * When the tasks change, the window is reloaded and compared with the old one off the main thread
+ * (see WindowDiff), and only the rows that were inserted, removed or changed are updated.
+ * If the change notification lists tasks that are all in the window, only those are reloaded.
+ *
+ * The window of each sort order is kept when the sort changes, so switching back shows it at once;
+ * if the tasks changed while it was hidden it is then refreshed like any other change.
+ *
+ * The first page of each order is also saved as a ListSnapshot whenever it is reloaded, and shown
+ * from there when the list is created, so a cold start paints the list without waiting for the
+ * database. The refresh that follows brings it up to date like any other change.
+ *
+ * An adapter can outlive the lists showing it (see ListStore): while paused it loads nothing and
+ * only notes whether the tasks changed, so showing it again needs a query only if they did.
+ */
+public class PagedTaskAdapter extends RecyclerView.Adapter<PagedTaskAdapter.ViewHolder> {
+
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_WINDOW = 5 * PAGE_SIZE; //rows kept in memory
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 4; //rows from the edge of the window that load the next page
+
+    //A listener for tasks being tapped
+    public interface OnTaskClickListener {
+        public void onTaskClick(Task task);
+    }
+
+    private final Context context;
+    private final ContentResolver resolver;
+    private final Uri tasks; //the table the list reads from
+    private final String[] projection;
+    private final TaskFilter filter;
+    private String sortColumn;
+    private OnTaskClickListener clickListener;
+
+    private int count; //number of tasks in the whole list
+    private int windowStart; //list position of the first loaded row
+    private List<Task> window = new ArrayList<Task>(); //loaded rows, in list order from windowStart
+    private int lastPosition; //position most recently shown
+    private Load loading; //the load in progress, only one runs at a time
+    private int generation; //bumped whenever the data changes so results of older loads are dropped
+    private boolean closed;
+    private boolean paused; //not shown: changes are only noted
+    private boolean missed; //the tasks changed while paused
+    private ListSnapshot snapshot; //of the first page in the current sort order
+    private final Map<String, SavedWindow> saved = new HashMap<String, SavedWindow>(); //by sort column, except the shown one
+
+    //The window of a sort order that is not being shown
+    private static class SavedWindow {
+        final List<Task> window;
+        final int windowStart, count;
+        boolean stale; //tasks changed since it was saved
+
+        SavedWindow(List<Task> window, int windowStart, int count, boolean stale) {
+            this.window = window;
+            this.windowStart = windowStart;
+            this.count = count;
+            this.stale = stale;
+        }
+    }
+
+    private final ContentObserver observer = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null); //before API 16 there is no Uri saying what changed
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            for(SavedWindow other : saved.values()){
+                other.stale = true;
+            }
+            if(paused){
+                missed = true;
+                return;
+            }
+            long[] ids = uri != null ? TodoListProvider.changedIds(uri) : null;
+            if(ids != null && canUpdateRows(ids)){
+                generation++;
+                start(new RowUpdate(ids));
+            }else{
+                refresh();
+            }
+        }
+    };
+
+    /**
+     * @param projection columns to load; must include everything Task.Reader reads
+     * @param filter which tasks to show
+     * @param sortColumn TodoItem.DEADLINE or TodoItem.TIME_CREATED
+     */
+    public PagedTaskAdapter(Context context, String[] projection, TaskFilter filter, String sortColumn) {
+        this(context, TodoListProvider.CONTENT_URI, projection, filter, sortColumn);
+    }
+
+    /**
+     * @param tasks TodoListProvider.CONTENT_URI, ALL_TASKS_URI to include archived tasks, or a dueUri()
+     */
+    public PagedTaskAdapter(Context context, Uri tasks, String[] projection, TaskFilter filter, String sortColumn) {
+        this.context = context.getApplicationContext();
+        this.resolver = this.context.getContentResolver();
+        this.tasks = tasks;
+        this.projection = projection;
+        this.filter = filter;
+        this.sortColumn = sortColumn;
+        setHasStableIds(true);
+
+        resolver.registerContentObserver(TodoListProvider.CHANGES_URI, false, observer); //one notification per write
+        showSnapshot();
+        refresh();
+    }
+
+    public void setOnTaskClickListener(OnTaskClickListener listener) {
+        this.clickListener = listener;
+    }
+
+    //Change which column the list is sorted by, showing what was last loaded in that order if anything
+    public void setSortColumn(String sortColumn) {
+        if(sortColumn.equals(this.sortColumn)){
+            return;
+        }
+        boolean current = loading == null || loading instanceof PageAfter || loading instanceof PageBefore;
+        saved.put(this.sortColumn, new SavedWindow(window, windowStart, count, !current)); //a pending change is lost with its load
+        generation++; //whatever is loading is for the old order
+        loading = null;
+
+        this.sortColumn = sortColumn;
+        SavedWindow restored = saved.remove(sortColumn);
+        lastPosition = 0;
+        if(restored == null){ //never shown in this order: load from the top
+            window = new ArrayList<Task>();
+            windowStart = 0;
+            showSnapshot();
+            notifyDataSetChanged();
+            refresh();
+            return;
+        }
+        window = restored.window;
+        windowStart = restored.windowStart;
+        count = restored.count;
+        notifyDataSetChanged();
+        if(restored.stale){
+            refresh();
+        }
+    }
+
+    //Stop loading while no list shows this, noting only whether the tasks change meanwhile
+    public void pause() {
+        paused = true;
+    }
+
+    /**
+     * Start loading again on being shown, refreshing if the tasks changed while paused.
+     *
+     * @param refresh whether to refresh anyway, e.g. for a list that changes with the time
+     */
+    public void resume(boolean refresh) {
+        paused = false;
+        if(missed || refresh){
+            missed = false;
+            refresh();
+        }
+    }
+
+    //Stop watching for changes and drop anything still loading
+    public void close() {
+        closed = true;
+        resolver.unregisterContentObserver(observer);
+        generation++;
+        loading = null;
+    }
+
+    //Show the first page as it was last saved in the current order, if it was
+    private void showSnapshot() {
+        //lists of other Uris, such as the deadline ranges, are told apart by their Uri as well
+        String list = tasks.equals(TodoListProvider.CONTENT_URI) ? filter.toString() : tasks + " " + filter;
+        snapshot = new ListSnapshot(context, list, sortColumn);
+        long start = Metrics.begin("list.readSnapshot");
+        ListSnapshot.Contents saved = snapshot.read();
+        Metrics.end("list.readSnapshot", start);
+        if(saved != null){
+            window = new ArrayList<Task>(saved.rows);
+            windowStart = 0;
+            count = saved.count;
+        }
+    }
+
+    //Save the first page, if loaded, for the next time the list is created
+    private void saveSnapshot() {
+        if(windowStart == 0){
+            snapshot.write(window.subList(0, Math.min(window.size(), PAGE_SIZE)), count);
+        }
+    }
+
+    //Reload the count and the rows of the window, abandoning any other load
+    private void refresh() {
+        generation++;
+        Task anchor = window.isEmpty() ? null : window.get(0);
+        start(new Refresh(anchor, new ArrayList<Task>(window), windowStart, count));
+    }
+
+    //Whether a change to just these tasks can be applied by reloading them alone
+    private boolean canUpdateRows(long[] ids) {
+        if(loading instanceof Refresh || loading instanceof RowUpdate){ //would drop the change that load is for
+            return false;
+        }
+        for(long id : ids){
+            if(indexOf(id) < 0){ //new, or outside the window: positions may shift
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Returns the window index of a task, or -1 if it is not loaded
+    private int indexOf(long taskId) {
+        for(int i = 0; i < window.size(); i++){
+            if(window.get(i).id == taskId){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void start(Load load) {
+        loading = load;
+        load.execute();
+    }
+
+    //Start loading the next page if the given position is near (or past) the edge of the window
+    private void ensureLoaded(int position) {
+        lastPosition = position;
+        if(loading != null || closed || window.isEmpty()){ //an empty window is only filled by a refresh
+            return;
+        }
+        int windowEnd = windowStart + window.size();
+        if(position >= windowEnd - PREFETCH_DISTANCE && windowEnd < count){
+            start(new PageAfter(window.get(window.size() - 1)));
+        }else if(position < windowStart + PREFETCH_DISTANCE && windowStart > 0){
+            start(new PageBefore(window.get(0)));
+        }
+    }
+
+    //Drop rows far from the visible position so memory stays bounded
+    private void trimWindow() {
+        int excess = window.size() - MAX_WINDOW;
+        if(excess <= 0){
+            return;
+        }
+        if(lastPosition - windowStart > windowStart + window.size() - lastPosition){ //nearer the end, drop from the start
+            window = new ArrayList<Task>(window.subList(excess, window.size()));
+            windowStart += excess;
+        }else{
+            window = new ArrayList<Task>(window.subList(0, MAX_WINDOW));
+        }
+    }
+
+    //Returns the task at a list position, or null if it is not loaded
+    private Task taskAt(int position) {
+        int index = position - windowStart;
+        return (index >= 0 && index < window.size()) ? window.get(index) : null;
+    }
+
+    @Override
+    public int getItemCount() {
+        return count;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        Task task = taskAt(position);
+        return task != null ? task.id : -1 - position; //placeholders get ids no task can have
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View row = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(row);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long start = Metrics.begin("list.bind");
+        try {
+            bind(holder, position);
+        } finally {
+            Metrics.end("list.bind", start);
+        }
+    }
+
+    private void bind(ViewHolder holder, int position) {
+        ensureLoaded(position);
+
+        Task task = taskAt(position);
+        if(task == null){ //placeholder until the page arrives
+            Metrics.count("list.bindPlaceholder");
+            holder.title.setText("");
+            holder.deadline.setText("");
+            return;
+        }
+        holder.title.setText(task.title);
+        holder.deadline.setText(task.deadline != TodoListProvider.NO_DEADLINE
+                ? DeadlineFormat.format(task.deadline) : ""); //show date in a readable format
+    }
+
+    //The views of a row, looked up once when the row is inflated
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView title;
+        final TextView deadline;
+
+        ViewHolder(View row) {
+            super(row);
+            title = (TextView)row.findViewById(R.id.txtTaskTitle);
+            deadline = (TextView)row.findViewById(R.id.txtTaskDeadline);
+            row.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            Task task = taskAt(getAdapterPosition());
+            if(task != null && clickListener != null){ //nothing to show while the row is loading
+                clickListener.onTaskClick(task);
+            }
+        }
+    }
+
+    /**
+     * A background load whose result is applied on the main thread, unless the data changed meanwhile
+     */
+    private abstract class Load extends AsyncTask<Void, Void, Void> {
+        final int generation = PagedTaskAdapter.this.generation;
+        final String sortColumn = PagedTaskAdapter.this.sortColumn;
+        final long created = Metrics.now();
+
+        abstract void load(); //runs in the background
+        abstract void apply(); //runs on the main thread
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            long start = Metrics.begin("list.load");
+            try {
+                load();
+            } finally {
+                Metrics.end("list.load", start);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            if(closed || generation != PagedTaskAdapter.this.generation){ //stale result
+                Metrics.count("list.loadDiscarded");
+                return;
+            }
+            long start = Metrics.begin("list.apply");
+            loading = null;
+            apply();
+            trimWindow();
+            Metrics.end("list.apply", start);
+            Metrics.record("list.loadToScreen", created); //queued, loaded and applied
+            ensureLoaded(lastPosition); //keep walking towards the visible position
+        }
+
+        long[] keyOf(Task task) {
+            return new long[] {task.sortKey(sortColumn), task.id};
+        }
+
+        List<Task> readRows(Uri uri) {
+            return readRows(uri, filter);
+        }
+
+        List<Task> readRows(Uri uri, TaskFilter filter) {
+            List<Task> rows = new ArrayList<Task>();
+            Cursor cursor = filter.query(resolver, uri, projection, sortColumn);
+            if(cursor == null){
+                return rows;
+            }
+            try {
+                Task.Reader reader = new Task.Reader(cursor);
+                while(cursor.moveToNext()){
+                    rows.add(reader.read(cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+            return rows;
+        }
+
+        int countRows(Uri uri) {
+            Cursor cursor = filter.query(resolver, uri, new String[] {"count(*)"}, sortColumn);
+            if(cursor == null){
+                return 0;
+            }
+            try {
+                return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    //Loads the page after the end of the window
+    private class PageAfter extends Load {
+        private final Task last;
+        private List<Task> rows;
+
+        PageAfter(Task last) {
+            this.last = last;
+        }
+
+        @Override
+        void load() {
+            rows = readRows(TodoListProvider.pageUri(tasks, PAGE_SIZE, keyOf(last)));
+        }
+
+        @Override
+        void apply() {
+            int windowEnd = windowStart + window.size();
+            int added = Math.max(0, Math.min(rows.size(), count - windowEnd));
+            window.addAll(rows.subList(0, added));
+            notifyItemRangeChanged(windowEnd, added); //placeholders become tasks
+        }
+    }
+
+    //Loads the page before the start of the window
+    private class PageBefore extends Load {
+        private final Task first;
+        private List<Task> rows;
+
+        PageBefore(Task first) {
+            this.first = first;
+        }
+
+        @Override
+        void load() {
+            rows = readRows(TodoListProvider.pageBeforeUri(tasks, PAGE_SIZE, keyOf(first)));
+            Collections.reverse(rows); //they come nearest first
+        }
+
+        @Override
+        void apply() {
+            int added = Math.min(rows.size(), windowStart);
+            window.addAll(0, rows.subList(rows.size() - added, rows.size()));
+            windowStart -= added;
+            notifyItemRangeChanged(windowStart, added); //placeholders become tasks
+            saveSnapshot(); //back at the top, perhaps
+        }
+    }
+
+    //Reloads just the given tasks, which were all in the window; falls back to a refresh if any moved or left the list
+    private class RowUpdate extends Load {
+        private final long[] ids;
+        private List<Task> rows;
+
+        RowUpdate(long[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        void load() {
+            rows = readRows(tasks, filter.ids(ids));
+        }
+
+        @Override
+        void apply() {
+            if(rows.size() != ids.length){ //some left the list
+                refresh();
+                return;
+            }
+            for(Task task : rows){
+                int index = indexOf(task.id);
+                if(index < 0 || task.sortKey(sortColumn) != window.get(index).sortKey(sortColumn)){ //moved
+                    refresh();
+                    return;
+                }
+            }
+            for(Task task : rows){
+                int index = indexOf(task.id);
+                if(!task.sameContent(window.get(index))){
+                    window.set(index, task);
+                    notifyItemChanged(windowStart + index);
+                }
+            }
+            saveSnapshot();
+        }
+    }
+
+    //Reloads the count and the window starting from its first task, and works out what changed
+    private class Refresh extends Load {
+        private final Task anchor;
+        private final List<Task> oldRows;
+        private final int oldStart, oldCount;
+        private int newStart, newCount;
+        private List<Task> newRows;
+        private List<int[]> ops; //null to rebind everything
+
+        Refresh(Task anchor, List<Task> oldRows, int oldStart, int oldCount) {
+            this.anchor = anchor;
+            this.oldRows = oldRows;
+            this.oldStart = oldStart;
+            this.oldCount = oldCount;
+        }
+
+        @Override
+        void load() {
+            newCount = countRows(tasks);
+            //room for inserts, so the new rows still cover the old ones; in whole pages, so there are
+            //only a few limits and so a few statements to compile
+            int limit = (oldRows.size() / PAGE_SIZE + 2) * PAGE_SIZE;
+
+            if(anchor != null){
+                long[] key = keyOf(anchor);
+                newStart = countRows(TodoListProvider.pageBeforeUri(tasks, 0, key));
+                newRows = readRows(TodoListProvider.pageUri(tasks, limit, new long[] {key[0], key[1] - 1})); //from the anchor on
+                if(!newRows.isEmpty() || newCount == 0){ //compare with what was shown
+                    int[] matched = new int[1];
+                    ops = WindowDiff.diff(oldRows, oldStart + oldRows.size() >= oldCount,
+                            newRows, newRows.size() < limit, newStart, sortColumn, matched);
+                    if(ops != null){
+                        newRows = newRows.subList(0, matched[0]); //keep only what was compared
+                    }
+                    return;
+                }
+            }
+
+            //nothing loaded yet, or nothing left past the anchor: start from the top and rebind everything
+            ops = null;
+            newStart = 0;
+            newRows = readRows(TodoListProvider.pageUri(tasks, limit, null));
+        }
+
+        @Override
+        void apply() {
+            window = new ArrayList<Task>(newRows);
+            windowStart = newStart;
+            count = newCount;
+            saveSnapshot();
+            if(ops == null){
+                notifyDataSetChanged();
+                return;
+            }
+
+            //rows added or removed before the window (all placeholders) shift it
+            int shift = newStart - oldStart;
+            if(shift > 0){
+                notifyItemRangeInserted(oldStart, shift);
+            }else if(shift < 0){
+                notifyItemRangeRemoved(newStart, -shift);
+            }
+
+            int windowDelta = 0;
+            for(int[] op : ops){
+                switch(op[0]){
+                    case WindowDiff.OP_INSERT:
+                        notifyItemInserted(op[1]);
+                        windowDelta++;
+                        break;
+                    case WindowDiff.OP_REMOVE:
+                        notifyItemRemoved(op[1]);
+                        windowDelta--;
+                        break;
+                    case WindowDiff.OP_CHANGE:
+                        notifyItemChanged(op[1]);
+                        break;
+                }
+            }
+
+            //and anything changed after the window (also placeholders)
+            int rest = newCount - (oldCount + shift + windowDelta);
+            int windowEnd = newStart + window.size();
+            if(rest > 0){
+                notifyItemRangeInserted(windowEnd, rest);
+            }else if(rest < 0){
+                notifyItemRangeRemoved(windowEnd, -rest);
+            }
+        }
+    }
+}
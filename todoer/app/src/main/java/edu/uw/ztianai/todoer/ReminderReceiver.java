@@ -0,0 +1,76 @@
+package edu.uw.ztianai.todoer;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v4.app.NotificationCompat;
+import android.text.TextUtils;
+
+import edu.uw.todoer.provider.TodoListProvider;
+
+/**
+ * Shows one notification for the tasks that have come due when the reminder alarm goes off.
+ * Also runs when the device starts, since that clears alarms; asking the provider for the tasks
+ * due sets the alarm again. The provider is asked off the main thread, with the broadcast kept
+ * alive until the notification is up.
+ */
+public class ReminderReceiver extends BroadcastReceiver {
+
+    private static final int NOTIFICATION_ID = 1; //a newer reminder replaces the last one
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final PendingResult result = goAsync();
+        final Context app = context.getApplicationContext();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                try {
+                    remind(app);
+                } finally {
+                    result.finish();
+                }
+                return null;
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    //Shows a notification for the tasks now due, if any
+    private static void remind(Context context) {
+        Bundle due = context.getContentResolver().call(TodoListProvider.CONTENT_URI, TodoListProvider.METHOD_REMIND,
+                null, null);
+        int count = due != null ? due.getInt(TodoListProvider.REMIND_COUNT) : 0;
+        if(count == 0){ //nothing due, e.g. after a restart
+            return;
+        }
+        String[] titles = due.getStringArray(TodoListProvider.REMIND_TITLES);
+
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        for(String title : titles){
+            style.addLine(title);
+        }
+        if(count > titles.length){
+            style.setSummaryText(context.getResources().getQuantityString(R.plurals.reminder_more,
+                    count - titles.length, count - titles.length));
+        }
+
+        PendingIntent open = PendingIntent.getActivity(context, 0, new Intent(context, MainActivity.class),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(count == 1 ? titles[0]
+                        : context.getResources().getQuantityString(R.plurals.reminder_title, count, count))
+                .setContentText(count == 1 ? context.getString(R.string.reminder_due) : TextUtils.join(", ", titles))
+                .setNumber(count)
+                .setStyle(style)
+                .setContentIntent(open)
+                .setAutoCancel(true);
+
+        NotificationManager manager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.notify(NOTIFICATION_ID, builder.build());
+    }
+}
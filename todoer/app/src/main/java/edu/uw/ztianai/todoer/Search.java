@@ -0,0 +1,207 @@
+package edu.uw.ztianai.todoer;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.v4.app.Fragment;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.uw.todoer.provider.TodoItem;
+import edu.uw.todoer.provider.TodoListProvider;
+
+/**
+ * Shows the tasks matching what the user types in the search box, best matches first.
+ * Searches run in the background once typing pauses; a search still running when a newer
+ * one starts is cancelled and its results are never shown.
+ */
+public class Search extends Fragment {
+
+    private static final long DEBOUNCE_DELAY = 250; //ms to wait for more typing before searching
+    private static final int MAX_RESULTS = 100;
+
+    private final Handler handler = new Handler();
+    private final ResultsAdapter adapter = new ResultsAdapter();
+    private MasterList.OnTaskSelectedListener callback;
+
+    private String query = ""; //what the user has typed
+    private SearchTask searching; //the search in progress
+
+    private final Runnable runSearch = new Runnable() {
+        @Override
+        public void run() {
+            startSearch();
+        }
+    };
+
+    //search again when tasks change, since any of them might now match
+    private final ContentObserver observer = new ContentObserver(handler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            scheduleSearch();
+        }
+    };
+
+    public Search() {
+
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        View rootView = inflater.inflate(R.layout.fragment_search, container, false);
+
+        RecyclerView listView = (RecyclerView)rootView.findViewById(R.id.listView);
+        listView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        listView.setAdapter(adapter);
+
+        getActivity().getContentResolver().registerContentObserver(TodoListProvider.CHANGES_URI, false, observer);
+        return rootView;
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        getActivity().getContentResolver().unregisterContentObserver(observer);
+        handler.removeCallbacks(runSearch);
+        cancelSearch();
+    }
+
+    //Checks to make sure the activity implements OnTaskSelectedListener
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        try {
+            callback = (MasterList.OnTaskSelectedListener) context;
+        } catch (ClassCastException e) {
+            throw new ClassCastException(context.toString() + " must implement OnTaskSelectedListener");
+        }
+    }
+
+    //Search for the given text once the user stops typing
+    public void setQuery(String text) {
+        query = text == null ? "" : text.trim();
+        scheduleSearch();
+    }
+
+    private void scheduleSearch() {
+        handler.removeCallbacks(runSearch);
+        handler.postDelayed(runSearch, DEBOUNCE_DELAY);
+    }
+
+    private void startSearch() {
+        cancelSearch();
+        if(query.length() == 0){ //nothing typed, nothing found
+            adapter.setTasks(Collections.<Task>emptyList());
+            return;
+        }
+        searching = new SearchTask(getActivity().getContentResolver(), query);
+        searching.execute();
+    }
+
+    private void cancelSearch() {
+        if(searching != null){
+            searching.cancel(false); //its results are dropped; the query itself is bounded by MAX_RESULTS
+            searching = null;
+        }
+    }
+
+    //Runs one search in the background
+    private class SearchTask extends AsyncTask<Void, Void, List<Task>> {
+        private final ContentResolver resolver;
+        private final String text;
+
+        SearchTask(ContentResolver resolver, String text) {
+            this.resolver = resolver;
+            this.text = text;
+        }
+
+        @Override
+        protected List<Task> doInBackground(Void... params) {
+            List<Task> tasks = new ArrayList<Task>();
+            String[] projection = new String[]{TodoItem.ID, TodoItem.TITLE, TodoItem.DEADLINE, TodoItem.COMPLETED,
+                    TodoItem.TIME_CREATED};
+            Cursor cursor = resolver.query(TodoListProvider.searchUri(text, MAX_RESULTS), projection, null, null, null);
+            if(cursor == null){
+                return tasks;
+            }
+            try {
+                Task.Reader reader = new Task.Reader(cursor);
+                while(cursor.moveToNext() && !isCancelled()){
+                    tasks.add(reader.read(cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+            return tasks;
+        }
+
+        @Override
+        protected void onPostExecute(List<Task> tasks) { //not called once cancelled
+            if(searching == this){
+                searching = null;
+                adapter.setTasks(tasks);
+            }
+        }
+    }
+
+    //Shows the results, which are few enough to hold in full
+    private class ResultsAdapter extends RecyclerView.Adapter<ResultsAdapter.ViewHolder> {
+        private List<Task> tasks = Collections.emptyList();
+
+        void setTasks(List<Task> tasks) {
+            this.tasks = tasks;
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getItemCount() {
+            return tasks.size();
+        }
+
+        @Override
+        public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            View row = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+            return new ViewHolder(row);
+        }
+
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int position) {
+            Task task = tasks.get(position);
+            holder.title.setText(task.title);
+            holder.deadline.setText(DeadlineFormat.format(task.deadline)); //show date in a readable format
+        }
+
+        //The views of a row, looked up once when the row is inflated
+        class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+            final TextView title;
+            final TextView deadline;
+
+            ViewHolder(View row) {
+                super(row);
+                title = (TextView)row.findViewById(R.id.txtTaskTitle);
+                deadline = (TextView)row.findViewById(R.id.txtTaskDeadline);
+                row.setOnClickListener(this);
+            }
+
+            @Override
+            public void onClick(View v) {
+                int position = getAdapterPosition();
+                if(position != RecyclerView.NO_POSITION){
+                    Task task = tasks.get(position);
+                    callback.onTaskSelected(task.id, task.completed);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package edu.uw.ztianai.todoer;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.widget.RemoteViews;
+
+/**
+ * A home-screen widget showing how many tasks are open, overdue and done, read from the provider's
+ * STATS_URI row rather than from the task lists. StatsWidgetUpdater refreshes it as tasks change;
+ * the system's periodic update (see widget_stats_info) catches tasks falling overdue in between.
+ */
+public class StatsWidget extends AppWidgetProvider {
+
+    @Override
+    public void onUpdate(Context context, AppWidgetManager manager, int[] ids) {
+        StatsWidgetUpdater updater = StatsWidgetUpdater.getInstance(context);
+        updater.start(); //the process may have been restarted since the widget was added
+        updater.refreshSoon();
+    }
+
+    @Override
+    public void onEnabled(Context context) {
+        StatsWidgetUpdater.getInstance(context).start();
+    }
+
+    @Override
+    public void onDisabled(Context context) {
+        StatsWidgetUpdater.getInstance(context).stop();
+    }
+
+    //whether any of these widgets are on the home screen
+    static boolean hasWidgets(Context context) {
+        int[] ids = AppWidgetManager.getInstance(context).getAppWidgetIds(new ComponentName(context, StatsWidget.class));
+        return ids != null && ids.length > 0;
+    }
+
+    //The widget showing the given counts, opening the app when tapped
+    static RemoteViews views(Context context, int todo, int overdue, int completed) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_stats);
+        views.setTextViewText(R.id.widget_todo, context.getString(R.string.widget_todo, todo));
+        views.setTextViewText(R.id.widget_overdue, context.getString(R.string.widget_overdue, overdue));
+        views.setTextViewText(R.id.widget_completed, context.getString(R.string.widget_completed, completed));
+        views.setOnClickPendingIntent(R.id.widget_stats, PendingIntent.getActivity(context, 0,
+                new Intent(context, MainActivity.class), PendingIntent.FLAG_UPDATE_CURRENT));
+        return views;
+    }
+}
@@ -0,0 +1,154 @@
+package edu.uw.ztianai.todoer;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+
+import edu.uw.todoer.metrics.Metrics;
+import edu.uw.todoer.provider.TodoListProvider;
+
+/**
+ * Keeps the StatsWidgets up to date as tasks change. Each change notification asks for a refresh,
+ * and refreshes run at most once every MIN_INTERVAL: one asked for sooner waits out the interval,
+ * and any asked for while it waits are covered by it. So a burst of writes, e.g. an import,
+ * costs one query of STATS_URI and one widget update, not one per write.
+ *
+ * Everything runs on one background thread, which is also where the change notifications arrive.
+ */
+public class StatsWidgetUpdater {
+
+    private static final String TAG = "StatsWidgetUpdater";
+
+    @VisibleForTesting
+    static final long MIN_INTERVAL = 1000; //ms from one refresh to the next
+
+    private static final String[] COLUMNS = {TodoListProvider.COUNT_TODO, TodoListProvider.COUNT_OVERDUE,
+            TodoListProvider.COUNT_COMPLETED};
+
+    private static StatsWidgetUpdater instance;
+
+    private final Context context;
+    private final Handler worker;
+    private boolean observing; //whether the observer is registered
+    private boolean scheduled; //whether a refresh is waiting to run
+    private long lastRefresh = -MIN_INTERVAL; //uptime of the last refresh
+
+    private final ContentObserver observer;
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            lastRefresh = SystemClock.uptimeMillis();
+            update();
+        }
+    };
+
+    public static synchronized StatsWidgetUpdater getInstance(Context context) {
+        if(instance == null){
+            instance = new StatsWidgetUpdater(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private StatsWidgetUpdater(Context context) {
+        this(context, newWorker());
+    }
+
+    //runs on the given handler's thread instead of its own
+    @VisibleForTesting
+    StatsWidgetUpdater(Context context, Handler worker) {
+        this.context = context;
+        this.worker = worker;
+        observer = new ContentObserver(worker) { //called on the worker thread
+            @Override
+            public void onChange(boolean selfChange) {
+                Metrics.count("widget.changes");
+                requestRefresh();
+            }
+        };
+    }
+
+    private static Handler newWorker() {
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        return new Handler(thread.getLooper());
+    }
+
+    //Start refreshing the widgets as tasks change, if not already
+    public void start() {
+        worker.post(new Runnable() {
+            @Override
+            public void run() {
+                if(!observing){
+                    context.getContentResolver().registerContentObserver(TodoListProvider.CHANGES_URI, false, observer);
+                    observing = true;
+                }
+            }
+        });
+    }
+
+    //Stop, once the last widget is gone
+    public void stop() {
+        worker.post(new Runnable() {
+            @Override
+            public void run() {
+                if(observing){
+                    context.getContentResolver().unregisterContentObserver(observer);
+                    observing = false;
+                }
+                worker.removeCallbacks(refresh);
+                scheduled = false;
+            }
+        });
+    }
+
+    //Refresh the widgets as soon as the interval allows
+    public void refreshSoon() {
+        worker.post(new Runnable() {
+            @Override
+            public void run() {
+                requestRefresh();
+            }
+        });
+    }
+
+    //on the worker thread
+    private void requestRefresh() {
+        if(scheduled){ //that refresh will see this change too
+            return;
+        }
+        scheduled = true;
+        worker.postDelayed(refresh, Math.max(0, lastRefresh + MIN_INTERVAL - SystemClock.uptimeMillis()));
+    }
+
+    private void update() {
+        AppWidgetManager manager = AppWidgetManager.getInstance(context);
+        int[] ids = manager.getAppWidgetIds(new ComponentName(context, StatsWidget.class));
+        if(ids.length == 0){
+            return;
+        }
+        long start = Metrics.begin("widget.refresh");
+        try {
+            Cursor c = context.getContentResolver().query(TodoListProvider.STATS_URI, COLUMNS, null, null, null);
+            if(c == null){
+                return;
+            }
+            try {
+                if(c.moveToFirst()){
+                    manager.updateAppWidget(ids, StatsWidget.views(context, c.getInt(0), c.getInt(1), c.getInt(2)));
+                }
+            } finally {
+                c.close();
+            }
+        } finally {
+            Metrics.end("widget.refresh", start);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package edu.uw.ztianai.todoer;
+
+import android.database.Cursor;
+
+import edu.uw.todoer.provider.TodoItem;
+import edu.uw.todoer.provider.TodoListProvider;
+
+/**
+ * An immutable snapshot of the task fields shown in the lists
+ */
+public class Task {
+
+    public final long id;
+    public final String title;
+    public final long deadline; //TodoListProvider.NO_DEADLINE if it has none
+    public final long createdAt;
+    public final boolean completed;
+
+    public Task(long id, String title, long deadline, long createdAt, boolean completed) {
+        this.id = id;
+        this.title = title;
+        this.deadline = deadline;
+        this.createdAt = createdAt;
+        this.completed = completed;
+    }
+
+    //The value of the given sort column (TodoItem.DEADLINE or TodoItem.TIME_CREATED)
+    public long sortKey(String sortColumn) {
+        return TodoItem.DEADLINE.equals(sortColumn) ? deadline : createdAt;
+    }
+
+    //Whether this task comes before the other when sorted by the given column, ties broken by id
+    public boolean isBefore(Task other, String sortColumn) {
+        long key = sortKey(sortColumn);
+        long otherKey = other.sortKey(sortColumn);
+        return key < otherKey || (key == otherKey && id < other.id);
+    }
+
+    //Whether the two snapshots would show the same thing
+    public boolean sameContent(Task other) {
+        return deadline == other.deadline && createdAt == other.createdAt && completed == other.completed
+                && (title == null ? other.title == null : title.equals(other.title));
+    }
+
+    /**
+     * Reads Tasks out of a cursor, looking the columns up once rather than for every row.
+     * The cursor must include the id, title, deadline, created time and completed columns.
+     */
+    public static class Reader {
+        private final int idColumn, titleColumn, deadlineColumn, createdColumn, completedColumn;
+
+        public Reader(Cursor cursor) {
+            idColumn = cursor.getColumnIndexOrThrow(TodoItem.ID);
+            titleColumn = cursor.getColumnIndexOrThrow(TodoItem.TITLE);
+            deadlineColumn = cursor.getColumnIndexOrThrow(TodoItem.DEADLINE);
+            createdColumn = cursor.getColumnIndexOrThrow(TodoItem.TIME_CREATED);
+            completedColumn = cursor.getColumnIndexOrThrow(TodoItem.COMPLETED);
+        }
+
+        //The task at the cursor's current position
+        public Task read(Cursor cursor) {
+            return new Task(
+                    cursor.getLong(idColumn),
+                    cursor.getString(titleColumn),
+                    cursor.isNull(deadlineColumn) ? TodoListProvider.NO_DEADLINE : cursor.getLong(deadlineColumn),
+                    cursor.getLong(createdColumn),
+                    cursor.getInt(completedColumn) == 1
+            );
+        }
+    }
+}
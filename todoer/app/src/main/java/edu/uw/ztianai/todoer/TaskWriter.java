@@ -0,0 +1,149 @@
+package edu.uw.ztianai.todoer;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.v4.util.LongSparseArray;
+import android.util.Log;
+
+import edu.uw.todoer.provider.TodoItem;
+import edu.uw.todoer.provider.TodoListProvider;
+
+/**
+ * Writes tasks to the TodoListProvider on a background thread, so the UI can show a change
+ * right away and never waits on the database. Repeated completion toggles of the same task
+ * made in quick succession are written once, with the last value.
+ */
+public class TaskWriter {
+
+    private static final String TAG = "TaskWriter";
+
+    private static final long COALESCE_DELAY = 300; //ms to wait for further toggles of a task before writing
+
+    private static TaskWriter instance;
+
+    /**
+     * Called on the main thread when a write could not be made, so the UI can undo its change
+     */
+    public interface Callback {
+        public void onWriteFailed();
+    }
+
+    //the latest requested state of a task whose completion toggle has not been written yet
+    private static class PendingToggle {
+        boolean completed;
+        Callback callback;
+    }
+
+    private final ContentResolver resolver;
+    private final Handler worker;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LongSparseArray<PendingToggle> pendingToggles = new LongSparseArray<PendingToggle>(); //by task id
+
+    public static synchronized TaskWriter getInstance(Context context) {
+        if(instance == null){
+            instance = new TaskWriter(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private TaskWriter(Context context) {
+        resolver = context.getContentResolver();
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        worker = new Handler(thread.getLooper());
+    }
+
+    //Add a new task
+    public void insert(final ContentValues values, final Callback callback) {
+        worker.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resolver.insert(TodoListProvider.CONTENT_URI, values);
+                } catch (SQLException e) {
+                    Log.e(TAG, "Failed to add task", e);
+                    reportFailure(callback);
+                }
+            }
+        });
+    }
+
+    //Mark a task as completed or not; toggles made within COALESCE_DELAY of each other are written once
+    public void setCompleted(final long taskId, boolean completed, Callback callback) {
+        synchronized (pendingToggles) {
+            PendingToggle pending = pendingToggles.get(taskId);
+            if(pending != null){ //a write for this task is already waiting, just change what it will write
+                pending.completed = completed;
+                pending.callback = callback;
+                return;
+            }
+            pending = new PendingToggle();
+            pending.completed = completed;
+            pending.callback = callback;
+            pendingToggles.put(taskId, pending);
+        }
+
+        worker.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                writeCompleted(taskId);
+            }
+        }, COALESCE_DELAY);
+    }
+
+    private void writeCompleted(long taskId) {
+        PendingToggle pending;
+        synchronized (pendingToggles) {
+            pending = pendingToggles.get(taskId);
+            pendingToggles.remove(taskId);
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.COMPLETED, pending.completed ? 1 : 0); //1 - completed, 0 - uncompleted
+        Uri task = ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, taskId); //only this task's observers are notified
+
+        boolean written;
+        try {
+            written = resolver.update(task, values, null, null) > 0;
+        } catch (SQLException e) {
+            Log.e(TAG, "Failed to update task " + taskId, e);
+            written = false;
+        }
+        if(!written){
+            reportFailure(pending.callback);
+        }
+    }
+
+    //Move tasks completed long ago out of the lists' table; they still show in the completed list
+    public void archiveOldTasks() {
+        worker.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resolver.call(TodoListProvider.CONTENT_URI, TodoListProvider.METHOD_ARCHIVE, null, null);
+                } catch (SQLException e) {
+                    Log.e(TAG, "Failed to archive tasks", e); //tried again next launch
+                }
+            }
+        });
+    }
+
+    private void reportFailure(final Callback callback) {
+        if(callback == null){
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onWriteFailed();
+            }
+        });
+    }
+}
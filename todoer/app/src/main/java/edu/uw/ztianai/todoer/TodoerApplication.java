@@ -0,0 +1,18 @@
+package edu.uw.ztianai.todoer;
+
+import android.app.Application;
+
+/**
+ * Starts following task changes for the home-screen widgets whenever the app's process starts,
+ * so writes made before the widgets' next periodic update still show on them.
+ */
+public class TodoerApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if(StatsWidget.hasWidgets(this)){
+            StatsWidgetUpdater.getInstance(this).start();
+        }
+    }
+}
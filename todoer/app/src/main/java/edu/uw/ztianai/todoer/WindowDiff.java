@@ -0,0 +1,69 @@
+package edu.uw.ztianai.todoer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Works out how a window of list rows changed between two loads, so only those rows are updated.
+ */
+public final class WindowDiff {
+
+    //kinds of update
+    public static final int OP_INSERT = 0;
+    public static final int OP_REMOVE = 1;
+    public static final int OP_CHANGE = 2;
+
+    //class cannot be instantiated
+    private WindowDiff(){}
+
+    /**
+     * Compares an old window with a reloaded one starting at the same task. Both are sorted by the
+     * same key, so a single merge pass finds each inserted, removed and changed row.
+     *
+     * @param oldReachesEnd whether the old rows ran to the end of the list
+     * @param newReachesEnd whether the new rows run to the end of the list
+     * @param start the list position of the first row
+     * @param matched set to how many of the new rows the comparison covered
+     * @return the updates as {op, position} pairs in the order they should be dispatched, or null if
+     * the new rows do not cover the old ones and the whole list has to be rebound
+     */
+    public static List<int[]> diff(List<Task> oldRows, boolean oldReachesEnd, List<Task> newRows, boolean newReachesEnd,
+                                   int start, String sortColumn, int[] matched) {
+        List<int[]> ops = new ArrayList<int[]>();
+        int i = 0, j = 0, position = start;
+        while(i < oldRows.size() || j < newRows.size()){
+            if(j == newRows.size()){ //reloaded rows ran out first
+                if(!newReachesEnd){
+                    return null;
+                }
+                ops.add(new int[] {OP_REMOVE, position});
+                i++;
+            }else if(i == oldRows.size()){ //old rows ran out first
+                if(!oldReachesEnd){
+                    break; //the rest were never loaded, so are not part of the comparison
+                }
+                ops.add(new int[] {OP_INSERT, position++});
+                j++;
+            }else{
+                Task oldRow = oldRows.get(i);
+                Task newRow = newRows.get(j);
+                if(oldRow.id == newRow.id && oldRow.sortKey(sortColumn) == newRow.sortKey(sortColumn)){
+                    if(!oldRow.sameContent(newRow)){
+                        ops.add(new int[] {OP_CHANGE, position});
+                    }
+                    position++;
+                    i++;
+                    j++;
+                }else if(oldRow.isBefore(newRow, sortColumn)){
+                    ops.add(new int[] {OP_REMOVE, position});
+                    i++;
+                }else{
+                    ops.add(new int[] {OP_INSERT, position++});
+                    j++;
+                }
+            }
+        }
+        matched[0] = j;
+        return ops;
+    }
+}
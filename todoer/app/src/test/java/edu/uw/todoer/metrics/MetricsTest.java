@@ -0,0 +1,59 @@
+package edu.uw.todoer.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import edu.uw.ztianai.todoer.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class MetricsTest {
+
+    @After
+    public void tearDown() {
+        Metrics.reset();
+    }
+
+    @Test
+    public void histogramPercentilesAreWithinABucket() {
+        Histogram histogram = new Histogram();
+        for(int i = 1; i <= 100; i++){
+            histogram.add(i * 1000L); //1us to 100us
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getMeanMicros());
+        assertEquals(100, histogram.getMaxMicros());
+        long p50 = histogram.getPercentileMicros(0.5);
+        assertTrue("p50 " + p50, p50 >= 50 && p50 <= 100);
+        assertEquals(100, histogram.getPercentileMicros(0.99)); //capped at the max, not the bucket's 128us
+        assertEquals(0, new Histogram().getPercentileMicros(0.5));
+    }
+
+    @Test
+    public void recordsAndDumpsSections() {
+        assertNull(Metrics.getLatency("test.section"));
+
+        Metrics.end("test.section", Metrics.begin("test.section"));
+        Metrics.end("test.section", Metrics.begin("test.section"));
+        Metrics.count("test.rows", 3);
+        Metrics.count("test.rows");
+
+        assertEquals(2, Metrics.getLatency("test.section").getCount());
+        assertEquals(4, Metrics.getCount("test.rows"));
+        StringWriter out = new StringWriter();
+        Metrics.dump(new PrintWriter(out));
+        assertTrue(out.toString(), out.toString().contains("count   test.rows 4"));
+        assertTrue(out.toString(), out.toString().contains("latency test.section count=2"));
+    }
+}
@@ -0,0 +1,177 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import edu.uw.ztianai.todoer.BuildConfig;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the deadline reminder alarm, run against the provider with a fake clock and alarm.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class DeadlineRemindersTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    private TodoListProvider provider;
+    private long now = 1000 * MINUTE;
+    private long alarm = DeadlineReminders.NONE;
+    private int alarmsSet;
+
+    @Before
+    public void setUp() {
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null); //also calls onCreate()
+        provider.setReminders(new DeadlineReminders(
+                RuntimeEnvironment.application.getSharedPreferences("reminders-test", Context.MODE_PRIVATE),
+                new DeadlineReminders.Clock() {
+                    @Override
+                    public long currentTimeMillis() {
+                        return now;
+                    }
+                },
+                new DeadlineReminders.Alarm() {
+                    @Override
+                    public void set(long triggerAtMillis) {
+                        alarm = triggerAtMillis;
+                        alarmsSet++;
+                    }
+
+                    @Override
+                    public void cancel() {
+                        alarm = DeadlineReminders.NONE;
+                        alarmsSet++;
+                    }
+                }));
+    }
+
+    @After
+    public void tearDown() {
+        provider.getDatabaseHelper().close();
+    }
+
+    @Test
+    public void alarmFollowsTheEarliestIncompleteDeadline() {
+        insertTask("Later", now + 60 * MINUTE);
+        assertEquals(now + 60 * MINUTE, alarm);
+        Uri first = insertTask("First", now + 30 * MINUTE);
+        assertEquals(now + 30 * MINUTE, alarm);
+        insertTask("Overdue", now - MINUTE); //already past when reminders started, so never reminded of
+        assertEquals(now + 30 * MINUTE, alarm);
+
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.COMPLETED, true);
+        provider.update(first, values, null, null);
+        assertEquals(now + 60 * MINUTE, alarm);
+
+        provider.delete(TodoListProvider.CONTENT_URI, null, null);
+        assertEquals(DeadlineReminders.NONE, alarm);
+    }
+
+    @Test
+    public void onlyWritesThatCanMoveTheAlarmSetIt() {
+        Uri task = insertTask("Task", now + 30 * MINUTE);
+        insertTask("Another", now + 40 * MINUTE);
+        assertEquals(1, alarmsSet);
+
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, "Renamed");
+        provider.update(task, values, null, null);
+        values = new ContentValues();
+        values.put(TodoItem.DEADLINE, now + 30 * MINUTE);
+        provider.update(task, values, null, null); //looked up again, but still the same
+        assertEquals(1, alarmsSet);
+    }
+
+    @Test
+    public void remindsOfTasksDueTogetherAtOnce() {
+        insertTask("Call mom", now + 10 * MINUTE);
+        insertTask("Pay rent", now + 20 * MINUTE); //within the batch window of the first
+        insertTask("Buy groceries", now + 120 * MINUTE);
+
+        now += 10 * MINUTE; //the alarm goes off
+        Bundle due = provider.call(TodoListProvider.METHOD_REMIND, null, null);
+        assertEquals(2, due.getInt(TodoListProvider.REMIND_COUNT));
+        assertArrayEquals(new String[]{"Call mom", "Pay rent"}, due.getStringArray(TodoListProvider.REMIND_TITLES));
+        assertEquals(now + 110 * MINUTE, alarm);
+
+        //an early or repeated alarm reminds of nothing again
+        due = provider.call(TodoListProvider.METHOD_REMIND, null, null);
+        assertEquals(0, due.getInt(TodoListProvider.REMIND_COUNT));
+        assertEquals(now + 110 * MINUTE, alarm);
+
+        now += 110 * MINUTE;
+        due = provider.call(TodoListProvider.METHOD_REMIND, null, null);
+        assertArrayEquals(new String[]{"Buy groceries"}, due.getStringArray(TodoListProvider.REMIND_TITLES));
+        assertEquals(DeadlineReminders.NONE, alarm);
+    }
+
+    @Test
+    public void tasksAddedInsideARemindedWindowAreStillReminded() {
+        insertTask("Stand-up", now + 10 * MINUTE);
+        insertTask("Coffee", now + 14 * MINUTE); //within the batch window of the first
+
+        now += 10 * MINUTE; //the alarm goes off, reminding of both
+        assertEquals(2, provider.call(TodoListProvider.METHOD_REMIND, null, null).getInt(TodoListProvider.REMIND_COUNT));
+        assertEquals(DeadlineReminders.NONE, alarm);
+
+        //added afterwards, due before the window the reminder covered is over: one at the same time as a reminded task
+        insertTask("Call back", now + 2 * MINUTE);
+        assertEquals(now + 2 * MINUTE, alarm);
+        insertTask("Tea", now + 4 * MINUTE);
+        now += 2 * MINUTE;
+        Bundle due = provider.call(TodoListProvider.METHOD_REMIND, null, null);
+        assertArrayEquals(new String[]{"Call back", "Tea"}, due.getStringArray(TodoListProvider.REMIND_TITLES));
+        assertEquals(DeadlineReminders.NONE, alarm);
+
+        //a reminded task moved later is reminded of again at its new deadline
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.DEADLINE, now + 60 * MINUTE);
+        provider.update(TodoListProvider.CONTENT_URI, values, TodoItem.TITLE + "=?", new String[]{"Coffee"});
+        assertEquals(now + 60 * MINUTE, alarm);
+    }
+
+    @Test
+    public void manyTasksDueTogetherAreEachRemindedOnce() {
+        int tasks = 10 * DeadlineReminders.MAX_EARLY; //stepping over each one covered early would be too many SQL variables
+        ContentValues[] values = new ContentValues[tasks];
+        for (int i = 0; i < tasks; i++) {
+            values[i] = new ContentValues();
+            values[i].put(TodoItem.TITLE, "Task " + i);
+            values[i].put(TodoItem.DEADLINE, now + 10 * MINUTE + i); //all within one batch window
+        }
+        provider.bulkInsert(TodoListProvider.CONTENT_URI, values);
+
+        int reminded = 0;
+        int alarms = 0;
+        while (alarm != DeadlineReminders.NONE && alarms++ < tasks) {
+            now = alarm;
+            int count = provider.call(TodoListProvider.METHOD_REMIND, null, null).getInt(TodoListProvider.REMIND_COUNT);
+            assertTrue(count > 0 && count <= 1 + DeadlineReminders.MAX_EARLY);
+            reminded += count;
+        }
+        assertEquals(tasks, reminded);
+    }
+
+    private Uri insertTask(String title, long deadline) {
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, title);
+        values.put(TodoItem.DEADLINE, deadline);
+        return provider.insert(TodoListProvider.CONTENT_URI, values);
+    }
+}
@@ -0,0 +1,82 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentValues;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An in-process sync server for tests and benchmarks, keeping the latest change to each task in
+ * memory and counting the bytes that go each way.
+ */
+class FakeSyncServer implements TaskSync.Server {
+
+    //the latest change to a task, where it is in the feed, and who made it
+    private static class Stored {
+        final ContentValues change;
+        final long position;
+        final String client;
+
+        Stored(ContentValues change, long position, String client) {
+            this.change = change;
+            this.position = position;
+            this.client = client;
+        }
+    }
+
+    private final Map<String, Stored> tasks = new HashMap<String, Stored>(); //by sync id
+    private final TreeMap<Long, String> feed = new TreeMap<Long, String>(); //sync ids by position
+    private long position;
+
+    long bytesIn, bytesOut;
+
+    @Override
+    public synchronized void push(String client, byte[] batch) throws IOException {
+        bytesIn += batch.length;
+        for(ContentValues change : TaskSync.decode(batch).changes){
+            String syncId = change.getAsString(SyncItem.SYNC_ID);
+            Stored old = tasks.get(syncId);
+            if(old != null){
+                if(change.getAsLong(SyncItem.UPDATED_AT) <= old.change.getAsLong(SyncItem.UPDATED_AT)){
+                    continue; //last writer wins, and the first to arrive wins a tie
+                }
+                feed.remove(old.position);
+            }
+            tasks.put(syncId, new Stored(change, ++position, client));
+            feed.put(position, syncId);
+        }
+    }
+
+    @Override
+    public synchronized byte[] pull(String client, long cursor, int max) throws IOException {
+        List<ContentValues> changes = new ArrayList<ContentValues>();
+        Iterator<Map.Entry<Long, String>> entries = feed.tailMap(cursor, false).entrySet().iterator();
+        long next = cursor;
+        while(changes.size() < max && entries.hasNext()){
+            Map.Entry<Long, String> entry = entries.next();
+            Stored stored = tasks.get(entry.getValue());
+            if(!stored.client.equals(client)){ //the client has its own changes
+                changes.add(stored.change);
+            }
+            next = entry.getKey();
+        }
+        byte[] batch = TaskSync.encode(new TaskSync.Batch(changes, next, entries.hasNext()));
+        bytesOut += batch.length;
+        return batch;
+    }
+
+    //the latest change to a task, or null if it was never pushed
+    synchronized ContentValues get(String syncId) {
+        Stored stored = tasks.get(syncId);
+        return stored != null ? stored.change : null;
+    }
+
+    synchronized int size() {
+        return tasks.size();
+    }
+}
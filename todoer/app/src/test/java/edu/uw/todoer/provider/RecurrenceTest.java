@@ -0,0 +1,62 @@
+package edu.uw.todoer.provider;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for expanding recurrence rules.
+ */
+public class RecurrenceTest {
+
+    @Test
+    public void rulesReadBackAsWritten() {
+        assertEquals("FREQ=WEEKLY;INTERVAL=2;COUNT=10", Recurrence.parse("freq=weekly;INTERVAL=2;COUNT=10").toString());
+        assertEquals("FREQ=DAILY", Recurrence.parse("FREQ=DAILY;INTERVAL=1").toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedRulesAreRejected() {
+        Recurrence.parse("FREQ=DAILY;BYDAY=MO");
+    }
+
+    @Test
+    public void monthsKeepTheirDayWhereTheyHaveIt() {
+        long start = time(2026, Calendar.JANUARY, 31);
+        assertArrayEquals(new long[]{time(2026, Calendar.FEBRUARY, 28), time(2026, Calendar.MARCH, 31)},
+                Recurrence.parse("FREQ=MONTHLY").between(start, start + 1, time(2026, Calendar.APRIL, 1), 10));
+    }
+
+    @Test
+    public void windowsFarAheadStartAtTheRightOccurrence() {
+        long start = time(2026, Calendar.JANUARY, 1);
+        Recurrence everyOtherDay = Recurrence.parse("FREQ=DAILY;INTERVAL=2");
+        long from = time(2046, Calendar.MARCH, 10);
+        long[] next = everyOtherDay.between(start, from, Long.MAX_VALUE, 2);
+        assertEquals(2, next.length);
+        assertTrue(next[0] >= from && next[0] < time(2046, Calendar.MARCH, 12));
+        assertTrue(everyOtherDay.occursAt(start, next[1]));
+        assertFalse(everyOtherDay.occursAt(start, next[0] + time(2026, Calendar.JANUARY, 2) - start));
+    }
+
+    @Test
+    public void countsEndTheSeries() {
+        long start = time(2026, Calendar.JANUARY, 1);
+        Recurrence thrice = Recurrence.parse("FREQ=YEARLY;COUNT=3");
+        assertEquals(3, thrice.between(start, start, Long.MAX_VALUE, 10).length);
+        assertFalse(thrice.occursAt(start, time(2029, Calendar.JANUARY, 1)));
+    }
+
+    //nine in the morning, local time
+    private static long time(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day, 9, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,224 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import edu.uw.ztianai.todoer.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for syncing tasks with an in-process server.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TaskSyncTest {
+
+    private static final String OTHER = "other device";
+
+    private TodoListProvider provider;
+    private ContentResolver resolver;
+    private FakeSyncServer server;
+
+    @Before
+    public void setUp() {
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null); //also calls onCreate()
+        ShadowContentResolver.registerProvider(TodoListProvider.CONTENT_URI.getAuthority(), provider);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+        server = new FakeSyncServer();
+    }
+
+    @After
+    public void tearDown() {
+        provider.getDatabaseHelper().close();
+    }
+
+    @Test
+    public void syncsOnlyWhatChanged() throws IOException {
+        long a = insertTask("A");
+        long b = insertTask("B");
+        long c = insertTask("C");
+        assertResult(3, 0, TaskSync.sync(resolver, server));
+        assertResult(0, 0, TaskSync.sync(resolver, server));
+        assertEquals(3, server.size());
+
+        //another device edits one, deletes one and adds one; this one edits another
+        long later = System.currentTimeMillis() + 60000;
+        push(change(syncId(a), later, "A edited"), deletion(syncId(b), later), change("d", later, "D"));
+        setTitle(c, "C edited");
+        assertResult(1, 3, TaskSync.sync(resolver, server));
+
+        assertEquals("A edited\nC edited\nD\n", titles());
+        assertEquals("C edited", server.get(syncId(c)).getAsString(TodoItem.TITLE));
+        assertEquals(0, pending()); //what was pulled is not pushed back
+        assertResult(0, 0, TaskSync.sync(resolver, server));
+    }
+
+    @Test
+    public void theLaterEditWins() throws IOException {
+        long a = insertTask("A");
+        long b = insertTask("B");
+        String syncIdA = syncId(a);
+        TaskSync.sync(resolver, server);
+        long pushedAt = server.get(syncId(a)).getAsLong(SyncItem.UPDATED_AT);
+
+        //edited here after the other device: ours is pushed, and theirs is not pulled over it
+        push(change(syncId(a), pushedAt + 1, "A theirs"));
+        setTitle(a, "A ours");
+        provider.getDatabaseHelper().getWritableDatabase().execSQL("UPDATE tasks SET updated_at=? WHERE _id=?",
+                new Object[]{pushedAt + 2, a});
+        //edited there later: theirs replaces ours, which the server turns down
+        push(change(syncId(b), System.currentTimeMillis() + 60000, "B theirs"));
+        setTitle(b, "B ours");
+        TaskSync.sync(resolver, server);
+
+        assertEquals("A ours\nB theirs\n", titles());
+        assertEquals("A ours", server.get(syncId(a)).getAsString(TodoItem.TITLE));
+        assertEquals("B theirs", server.get(syncId(b)).getAsString(TodoItem.TITLE));
+
+        //a deletion is a change like any other
+        provider.delete(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, a), null, null);
+        assertEquals(1, pending());
+        TaskSync.sync(resolver, server);
+        assertEquals(Boolean.TRUE, server.get(syncIdA).getAsBoolean(SyncItem.DELETED));
+        assertEquals("B theirs\n", titles());
+    }
+
+    @Test
+    public void repeatingTasksSyncWithTheirSeries() throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, "Water plants");
+        values.put(TodoItem.DEADLINE, 1000L);
+        values.put(TodoItem.RECURRENCE, "FREQ=DAILY");
+        long series = ContentUris.parseId(provider.insert(TodoListProvider.CONTENT_URI, values));
+        long day = 24 * 60 * 60 * 1000;
+        ContentValues edited = new ContentValues();
+        edited.put(TodoItem.TITLE, "Water ferns");
+        provider.update(TodoListProvider.occurrenceUri(series, 1000 + day), edited, null, null);
+        long occurrence = TaskOccurrences.find(provider.getDatabaseHelper().getReadableDatabase(), series, 1000 + day);
+        assertResult(2, 0, TaskSync.sync(resolver, server));
+
+        //the series goes with its rule, the occurrence with its time and series
+        assertEquals("FREQ=DAILY", server.get(syncId(series)).getAsString(TodoItem.RECURRENCE));
+        ContentValues pushed = server.get(syncId(occurrence));
+        assertEquals(syncId(series), pushed.getAsString(SyncItem.SERIES));
+        assertEquals(Long.valueOf(1000 + day), pushed.getAsLong(TodoItem.OCCURRENCE));
+        assertNull(pushed.getAsString(TodoItem.RECURRENCE));
+
+        //and another device's occurrence is linked to the series here
+        ContentValues theirs = change("o", System.currentTimeMillis() + 60000, "Water roses");
+        theirs.put(TodoItem.DEADLINE, 1000 + 2 * day);
+        theirs.put(TodoItem.OCCURRENCE, 1000 + 2 * day);
+        theirs.put(SyncItem.SERIES, syncId(series));
+        push(theirs);
+        assertResult(0, 1, TaskSync.sync(resolver, server));
+        long pulled = TaskOccurrences.find(provider.getDatabaseHelper().getReadableDatabase(), series, 1000 + 2 * day);
+        assertEquals("o", syncId(pulled));
+    }
+
+    @Test
+    public void batchesRoundTrip() throws IOException {
+        ContentValues task = change("t", 42, "Caf\u00e9 \u2713");
+        task.putNull(TodoItem.DEADLINE);
+        TaskSync.Batch batch = TaskSync.decode(TaskSync.encode(new TaskSync.Batch(
+                Arrays.asList(task, deletion("u", 43)), 7, true)));
+        assertEquals(7, batch.cursor);
+        assertTrue(batch.more);
+        assertEquals(task, batch.changes.get(0));
+        assertEquals(deletion("u", 43), batch.changes.get(1));
+        assertNull(batch.changes.get(0).getAsLong(TodoItem.DEADLINE));
+    }
+
+    private long insertTask(String title) {
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, title);
+        return ContentUris.parseId(provider.insert(TodoListProvider.CONTENT_URI, values));
+    }
+
+    private void setTitle(long id, String title) {
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, title);
+        provider.update(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, id), values, null, null);
+    }
+
+    private String syncId(long id) {
+        Cursor c = provider.query(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, id),
+                new String[]{SyncItem.SYNC_ID}, null, null, null);
+        try {
+            c.moveToFirst();
+            return c.getString(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    //pushes changes as the other device
+    private void push(ContentValues... changes) throws IOException {
+        server.push(OTHER, TaskSync.encode(new TaskSync.Batch(Arrays.asList(changes), 0, false)));
+    }
+
+    private static ContentValues change(String syncId, long updatedAt, String title) {
+        ContentValues change = deletion(syncId, updatedAt);
+        change.put(SyncItem.DELETED, false);
+        change.put(TodoItem.TITLE, title);
+        change.put(TodoItem.DETAILS, "");
+        change.put(TodoItem.DEADLINE, 1000L);
+        change.put(TodoItem.TIME_CREATED, 1000L);
+        change.put(TodoItem.COMPLETED, 0L);
+        change.putNull(TodoItem.RECURRENCE);
+        change.putNull(TodoItem.OCCURRENCE);
+        change.putNull(SyncItem.SERIES);
+        return change;
+    }
+
+    private static ContentValues deletion(String syncId, long updatedAt) {
+        ContentValues change = new ContentValues();
+        change.put(SyncItem.SYNC_ID, syncId);
+        change.put(SyncItem.UPDATED_AT, updatedAt);
+        change.put(SyncItem.DELETED, true);
+        return change;
+    }
+
+    private static void assertResult(int pushed, int pulled, TaskSync.Result result) {
+        assertEquals("pushed", pushed, result.pushed);
+        assertEquals("pulled", pulled, result.pulled);
+    }
+
+    private String titles() {
+        return rows(provider.query(TodoListProvider.CONTENT_URI, new String[]{TodoItem.TITLE}, null, null, TodoItem.TITLE));
+    }
+
+    //how many changes are waiting to be pushed
+    private int pending() {
+        Cursor c = provider.query(TodoListProvider.SYNC_URI, new String[]{SyncItem.ID}, null, null, null);
+        int count = c.getCount();
+        c.close();
+        return count;
+    }
+
+    private static String rows(Cursor c) {
+        StringBuilder rows = new StringBuilder();
+        while (c.moveToNext()) {
+            rows.append(c.getString(0)).append('\n');
+        }
+        c.close();
+        return rows.toString();
+    }
+}
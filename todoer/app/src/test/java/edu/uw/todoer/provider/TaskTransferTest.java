@@ -0,0 +1,108 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.uw.ztianai.todoer.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * JVM tests for exporting and importing tasks.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TaskTransferTest {
+
+    private static final String[] COLUMNS = {TodoItem.TITLE, TodoItem.DETAILS, TodoItem.DEADLINE,
+            TodoItem.TIME_CREATED, TodoItem.COMPLETED};
+
+    private TodoListProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null); //also calls onCreate()
+        ShadowContentResolver.registerProvider(TodoListProvider.CONTENT_URI.getAuthority(), provider);
+    }
+
+    @After
+    public void tearDown() {
+        provider.getDatabaseHelper().close();
+    }
+
+    @Test
+    public void exportedTasksImportUnchanged() throws IOException {
+        String[] titles = {"Plain", "Commas, \"quotes\"", "Two\nlines", "\u00dcn\u00efc\u00f6d\u00e9 \u2713", ""};
+        ContentValues[] tasks = new ContentValues[TaskTransfer.CHUNK_SIZE + titles.length]; //more than one chunk
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new ContentValues();
+            tasks[i].put(TodoItem.TITLE, i < titles.length ? titles[i] : "Task " + i);
+            tasks[i].put(TodoItem.DETAILS, i % 2 == 0 ? "" : "details\r\n" + i);
+            tasks[i].put(TodoItem.DEADLINE, 1460000000000L + i);
+            tasks[i].put(TodoItem.COMPLETED, i % 3 == 0);
+        }
+        provider.bulkInsert(TodoListProvider.CONTENT_URI, tasks);
+        List<String> original = rows();
+
+        for (TaskTransfer.Format format : TaskTransfer.Format.values()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final List<Long> progress = new ArrayList<Long>();
+            assertEquals(tasks.length, TaskTransfer.exportTasks(RuntimeEnvironment.application.getContentResolver(),
+                    Channels.newChannel(bytes), format, new TaskTransfer.Progress() {
+                        @Override
+                        public void onProgress(long done, long total) {
+                            progress.add(done);
+                        }
+                    }));
+            assertEquals(2, progress.size());
+
+            provider.delete(TodoListProvider.CONTENT_URI, null, null);
+            assertEquals(tasks.length, TaskTransfer.importTasks(RuntimeEnvironment.application.getContentResolver(),
+                    Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())), format, null));
+            assertEquals(format.name(), original, rows());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedRecordsAreRejected() throws IOException {
+        byte[] csv = "title,deadline\nTask,tomorrow\n".getBytes("UTF-8");
+        TaskTransfer.importTasks(RuntimeEnvironment.application.getContentResolver(),
+                Channels.newChannel(new ByteArrayInputStream(csv)), TaskTransfer.Format.CSV, null);
+    }
+
+    //every task's columns, other than its id, in creation order
+    private List<String> rows() {
+        List<String> rows = new ArrayList<String>();
+        Cursor c = provider.query(TodoListProvider.CONTENT_URI, COLUMNS, null, null,
+                TodoItem.TIME_CREATED + "," + TodoItem.DEADLINE);
+        try {
+            while (c.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    row.append(c.getString(i)).append('|');
+                }
+                rows.add(row.toString());
+            }
+        } finally {
+            c.close();
+        }
+        return rows;
+    }
+}
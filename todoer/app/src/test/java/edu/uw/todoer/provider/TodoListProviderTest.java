@@ -0,0 +1,837 @@
+package edu.uw.todoer.provider;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import edu.uw.ztianai.todoer.BuildConfig;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * JVM tests for the TodoListProvider schema and queries.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TodoListProviderTest {
+
+    private TodoListProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null); //also calls onCreate()
+    }
+
+    @After
+    public void tearDown() {
+        provider.getDatabaseHelper().close();
+    }
+
+    @Test
+    public void todoListByDeadlineUsesIndex() {
+        assertListUsesIndex(TaskFilter.todo(), TodoItem.DEADLINE, TodoListProvider.TaskEntry.INDEX_COMPLETED_DEADLINE);
+    }
+
+    @Test
+    public void todoListByCreatedDateUsesIndex() {
+        assertListUsesIndex(TaskFilter.todo(), TodoItem.TIME_CREATED,
+                TodoListProvider.TaskEntry.INDEX_COMPLETED_TIME_CREATED);
+    }
+
+    @Test
+    public void completedListUsesIndex() {
+        assertListUsesIndex(TaskFilter.completed(), TodoItem.TIME_CREATED,
+                TodoListProvider.TaskEntry.INDEX_COMPLETED_TIME_CREATED);
+    }
+
+    @Test
+    public void filteredListUsesIndex() { //a bound condition on top of the list's own
+        assertListUsesIndex(TaskFilter.todo().deadlineBetween(0, 1000), TodoItem.DEADLINE,
+                TodoListProvider.TaskEntry.INDEX_COMPLETED_DEADLINE);
+    }
+
+    @Test
+    public void archiveListUsesIndex() { //each table reads its page along its own index, only the two pages are sorted
+        String[] projection = {TodoItem.ID, TodoItem.TITLE, TodoItem.DEADLINE, TodoItem.COMPLETED, TodoItem.TIME_CREATED};
+        long[] key = {500, 7};
+        Uri[] pages = {TodoListProvider.pageUri(TodoListProvider.ALL_TASKS_URI, 50, null),
+                TodoListProvider.pageUri(TodoListProvider.ALL_TASKS_URI, 50, key),
+                TodoListProvider.pageBeforeUri(TodoListProvider.ALL_TASKS_URI, 50, key)};
+        for (Uri page : pages) {
+            String[][] args = new String[1][];
+            String sql = TodoListProvider.buildAllQuery(page, projection, TaskFilter.completed().getSelection(),
+                    TaskFilter.completed().getSelectionArgs(), TodoItem.TIME_CREATED, args);
+            String plan = explain(sql, args[0]);
+            assertTrue(plan, plan.contains("USING INDEX " + TodoListProvider.TaskEntry.INDEX_COMPLETED_TIME_CREATED));
+            assertTrue(plan, plan.contains("USING INDEX " + TodoListProvider.TaskEntry.INDEX_ARCHIVE_TIME_CREATED));
+            assertEquals(plan, plan.indexOf("TEMP B-TREE"), plan.lastIndexOf("TEMP B-TREE"));
+        }
+    }
+
+    @Test
+    public void upgradeFromVersionOneKeepsTasks() {
+        provider.getDatabaseHelper().close();
+        File path = RuntimeEnvironment.application.getDatabasePath("todolist.db");
+        RuntimeEnvironment.application.deleteDatabase("todolist.db");
+        path.getParentFile().mkdirs();
+
+        //hand-build the original version 1 schema with a task in it
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path.getPath(), null);
+        db.execSQL("CREATE TABLE tasks(_id INTEGER PRIMARY KEY AUTOINCREMENT, created_at INTEGER," +
+                "title TEXT,details TEXT,deadline INTEGER,completed INTEGER)");
+        ContentValues values = new ContentValues();
+        values.put("title", "Survivor");
+        values.put("completed", 0);
+        db.insert("tasks", null, values);
+        db.execSQL("PRAGMA user_version = 1");
+        db.close();
+
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null);
+
+        Cursor c = provider.query(TodoListProvider.CONTENT_URI, new String[]{TodoItem.TITLE}, null, null, null);
+        assertEquals(1, c.getCount());
+        c.moveToFirst();
+        assertEquals("Survivor", c.getString(0));
+        c.close();
+
+        assertListUsesIndex(TaskFilter.todo(), TodoItem.DEADLINE, TodoListProvider.TaskEntry.INDEX_COMPLETED_DEADLINE);
+        assertEquals("Survivor", searchTitles("surv"));
+        assertEquals("Survivor\n", rows(provider.query(TodoListProvider.SYNC_URI, new String[]{TodoItem.TITLE},
+                null, null, null))); //waiting for the first sync
+    }
+
+    @Test
+    public void bulkInsertNotifiesOnce() {
+        ContentValues[] tasks = new ContentValues[100];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new ContentValues();
+            tasks[i].put(TodoItem.TITLE, "Task " + i);
+            tasks[i].put(TodoItem.DEADLINE, 1000L + i);
+        }
+
+        assertEquals(100, provider.bulkInsert(TodoListProvider.CONTENT_URI, tasks));
+        assertEquals(100, countTasks());
+        assertEquals(1, shadowOf(RuntimeEnvironment.application.getContentResolver()).getNotifiedUris().size());
+    }
+
+    @Test
+    public void applyBatchRunsAllOperationsAndNotifiesOnce() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < 10; i++) {
+            operations.add(ContentProviderOperation.newInsert(TodoListProvider.CONTENT_URI)
+                    .withValue(TodoItem.TITLE, "Task " + i)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newUpdate(TodoListProvider.CONTENT_URI)
+                .withValue(TodoItem.COMPLETED, 1)
+                .build());
+
+        ContentProviderResult[] results = provider.applyBatch(operations);
+
+        assertEquals(11, results.length);
+        assertEquals(10, (int) results[10].count);
+        assertEquals(10, countTasks());
+        assertEquals(1, shadowOf(RuntimeEnvironment.application.getContentResolver()).getNotifiedUris().size());
+    }
+
+    @Test
+    public void updateNotifiesEachRowAndTheCollectionWithTheirIds() {
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, "Done");
+        long done = ContentUris.parseId(provider.insert(TodoListProvider.CONTENT_URI, values));
+        values = new ContentValues();
+        values.put(TodoItem.TITLE, "Not done");
+        provider.insert(TodoListProvider.CONTENT_URI, values);
+        List<ShadowContentResolver.NotifiedUri> notified =
+                shadowOf(RuntimeEnvironment.application.getContentResolver()).getNotifiedUris();
+        notified.clear();
+
+        values = new ContentValues();
+        values.put(TodoItem.COMPLETED, 1);
+        assertEquals(1, provider.update(TodoListProvider.CONTENT_URI, values, TodoItem.TITLE + "=?", new String[]{"Done"}));
+
+        assertEquals(2, notified.size());
+        assertEquals(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, done), notified.get(0).uri);
+        assertArrayEquals(new long[]{done}, TodoListProvider.changedIds(notified.get(1).uri));
+    }
+
+    @Test
+    public void largeChangesNotifyEverything() {
+        ContentValues[] tasks = new ContentValues[100];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new ContentValues();
+        }
+        provider.bulkInsert(TodoListProvider.CONTENT_URI, tasks);
+
+        Uri uri = shadowOf(RuntimeEnvironment.application.getContentResolver()).getNotifiedUris().get(0).uri;
+        assertEquals(TodoListProvider.CONTENT_URI, uri);
+        assertNull(TodoListProvider.changedIds(uri));
+    }
+
+    @Test
+    public void pagesWalkTheWholeListInOrder() {
+        ContentValues[] tasks = new ContentValues[120];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new ContentValues();
+            tasks[i].put(TodoItem.TITLE, "Task " + i);
+            tasks[i].put(TodoItem.DEADLINE, 1000L + i / 3); //ties on deadline straddle page boundaries
+        }
+        provider.bulkInsert(TodoListProvider.CONTENT_URI, tasks);
+
+        String[] projection = {TodoItem.ID, TodoItem.DEADLINE};
+        long[] after = null;
+        long lastDeadline = Long.MIN_VALUE;
+        long lastId = Long.MIN_VALUE;
+        int seen = 0;
+        int pages = 0;
+        while (true) {
+            Cursor page = provider.query(TodoListProvider.pageUri(50, after), projection,
+                    TodoItem.COMPLETED + "=0", null, TodoItem.DEADLINE);
+            if (page.getCount() == 0) {
+                page.close();
+                break;
+            }
+            pages++;
+            while (page.moveToNext()) {
+                long deadline = page.getLong(1);
+                long id = page.getLong(0);
+                assertTrue(deadline > lastDeadline || (deadline == lastDeadline && id > lastId));
+                lastDeadline = deadline;
+                lastId = id;
+                seen++;
+            }
+            after = new long[]{lastDeadline, lastId};
+            page.close();
+        }
+
+        assertEquals(120, seen);
+        assertEquals(3, pages);
+    }
+
+    @Test
+    public void tasksWithoutDeadlinesArePagedFirst() {
+        ContentValues[] tasks = new ContentValues[10];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new ContentValues();
+            tasks[i].put(TodoItem.TITLE, "Task " + i);
+            if (i % 2 == 0) {
+                tasks[i].put(TodoItem.DEADLINE, 2000L - i);
+            } else {
+                tasks[i].putNull(TodoItem.DEADLINE);
+            }
+        }
+        provider.bulkInsert(TodoListProvider.CONTENT_URI, tasks);
+        String all = "2\n4\n6\n8\n10\n9\n7\n5\n3\n1\n"; //no deadline by id, then by deadline
+
+        //forwards, with pages ending among the tasks with no deadline and crossing into the rest
+        String[] projection = {TodoItem.ID, TodoItem.DEADLINE};
+        StringBuilder ids = new StringBuilder();
+        long[] key = null;
+        for (int pages = 0; pages < 5; pages++) {
+            Cursor page = provider.query(TodoListProvider.pageUri(3, key), projection,
+                    TodoItem.COMPLETED + "=0", null, TodoItem.DEADLINE);
+            while (page.moveToNext()) {
+                ids.append(page.getLong(0)).append('\n');
+                key = new long[]{page.isNull(1) ? TodoListProvider.NO_DEADLINE : page.getLong(1), page.getLong(0)};
+            }
+            page.close();
+        }
+        assertEquals(all, ids.toString());
+
+        //and backwards from the last task, nearest first
+        StringBuilder back = new StringBuilder();
+        key = new long[]{2000, 1};
+        for (int pages = 0; pages < 5; pages++) {
+            Cursor page = provider.query(TodoListProvider.pageBeforeUri(3, key), projection,
+                    TodoItem.COMPLETED + "=0", null, TodoItem.DEADLINE);
+            while (page.moveToNext()) {
+                back.insert(0, page.getLong(0) + "\n");
+                key = new long[]{page.isNull(1) ? TodoListProvider.NO_DEADLINE : page.getLong(1), page.getLong(0)};
+            }
+            page.close();
+        }
+        assertEquals(all.substring(0, all.length() - 2), back.toString());
+
+        //the sort columns are added to a projection without them, as the two ranges are merged on them
+        assertEquals("Task 9,null,10\nTask 7,null,8\n", rows(provider.query(TodoListProvider.pageBeforeUri(2, new long[]{1992, 9}),
+                new String[]{TodoItem.TITLE}, null, null, TodoItem.DEADLINE)));
+    }
+
+    @Test
+    public void filtersBindTheirValuesAlongsideThePageKey() {
+        ContentValues[] tasks = new ContentValues[10];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new ContentValues();
+            tasks[i].put(TodoItem.TITLE, "Task " + i);
+            tasks[i].put(TodoItem.DEADLINE, 1000L + i);
+        }
+        provider.bulkInsert(TodoListProvider.CONTENT_URI, tasks);
+
+        TaskFilter due = TaskFilter.todo().deadlineBetween(1002, 1008);
+        assertEquals("completed=0 AND (deadline>=? AND deadline<?) [1002, 1008]", due.toString());
+        String[] projection = {TodoItem.ID, TodoItem.DEADLINE};
+        Cursor page = provider.query(TodoListProvider.pageUri(2, new long[]{1003, 4}), projection,
+                due.getSelection(), due.getSelectionArgs(), TodoItem.DEADLINE);
+        assertEquals("5,1004\n6,1005\n", rows(page));
+
+        TaskFilter some = TaskFilter.all().ids(2, 5, 9);
+        assertEquals(4, some.getSelectionArgs().length); //padded to a power of two
+        assertEquals("2\n5\n9\n", rows(provider.query(TodoListProvider.CONTENT_URI, new String[]{TodoItem.ID},
+                some.getSelection(), some.getSelectionArgs(), TodoItem.ID)));
+        assertEquals("", rows(provider.query(TodoListProvider.CONTENT_URI, new String[]{TodoItem.ID},
+                TaskFilter.all().ids().getSelection(), null, null)));
+    }
+
+    @Test
+    public void dueListsAndCountsFollowTheDeadlineRanges() {
+        long now = System.currentTimeMillis();
+        long[] today = TodoListProvider.dueRange(TodoListProvider.DUE_TODAY, now);
+        long[] week = TodoListProvider.dueRange(TodoListProvider.DUE_WEEK, now);
+        assertEquals(today[0], week[0]);
+        long yesterday = insertDue("Yesterday", today[0] - 1, 0);
+        long tonight = insertDue("Tonight", today[1] - 1, 0);
+        long sunday = insertDue("This week", week[1] - 1, 0);
+        insertDue("Next week", week[1], 0);
+        insertDue("Done today", today[1] - 1, 1);
+
+        String[] projection = {TodoItem.ID};
+        assertEquals(yesterday + "\n", rows(provider.query(TodoListProvider.dueUri(TodoListProvider.DUE_OVERDUE),
+                projection, null, null, TodoItem.DEADLINE)));
+        assertEquals(tonight + "\n" + sunday + "\n", rows(provider.query(
+                TodoListProvider.pageUri(TodoListProvider.dueUri(TodoListProvider.DUE_WEEK), 10, null),
+                projection, null, null, TodoItem.DEADLINE)));
+        assertEquals(tonight + "\n", rows(provider.query(TodoListProvider.dueUri(today[0], today[1]),
+                projection, null, null, TodoItem.DEADLINE)));
+
+        Uri nextPage = TodoListProvider.pageUri(TodoListProvider.dueUri(TodoListProvider.DUE_WEEK), 10,
+                new long[]{today[1] - 1, tonight});
+        assertEquals(sunday + "\n", rows(provider.query(nextPage, projection, null, null, TodoItem.DEADLINE)));
+
+        Cursor counts = provider.query(TodoListProvider.COUNTS_URI, null, null, null, null);
+        assertEquals("1,1,2,4,1\n", rows(counts)); //overdue, today, week, todo, completed
+        String[][] args = new String[1][];
+        String sql = TodoListProvider.buildListQuery(nextPage, projection, null, null, TodoItem.DEADLINE, args);
+        assertUsesIndex(sql, args[0], TodoListProvider.TaskEntry.INDEX_COMPLETED_DEADLINE);
+    }
+
+    @Test
+    public void statsCountersFollowEveryWrite() {
+        long now = System.currentTimeMillis();
+        long late = insertDue("Late", now - 1000, 0);
+        insertDue("Later", now + 100000, 0);
+        long done = insertDue("Done", now - 1000, 1);
+        long gone = insertTask("Gone", null);
+        String[] stats = {TodoListProvider.COUNT_TODO, TodoListProvider.COUNT_OVERDUE, TodoListProvider.COUNT_COMPLETED};
+        assertEquals("3,1,1\n", rows(provider.query(TodoListProvider.STATS_URI, stats, null, null, null)));
+
+        ContentValues complete = new ContentValues();
+        complete.put(TodoItem.COMPLETED, 1);
+        provider.update(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, late), complete, null, null);
+        provider.delete(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, gone), null, null);
+        assertEquals("1,0,2\n", rows(provider.query(TodoListProvider.STATS_URI, stats, null, null, null)));
+
+        provider.getDatabaseHelper().getWritableDatabase()
+                .execSQL("UPDATE tasks SET completed_at=0 WHERE _id=" + done); //long ago
+        assertEquals(1, provider.call(TodoListProvider.METHOD_ARCHIVE, null, null).getInt(TodoListProvider.ARCHIVED_COUNT));
+        assertEquals("1,0,2\n", rows(provider.query(TodoListProvider.STATS_URI, stats, null, null, null)));
+    }
+
+    @Test
+    public void tagsListTheirTasksAndKeepCounts() {
+        ContentValues tag = new ContentValues();
+        tag.put(TagItem.NAME, "Work");
+        long work = ContentUris.parseId(provider.insert(TodoListProvider.TAGS_URI, tag));
+        tag.put(TagItem.NAME, "work ");
+        assertEquals(work, ContentUris.parseId(provider.insert(TodoListProvider.TAGS_URI, tag)));
+
+        long later = insertDue("Later", 30, 0);
+        long sooner = insertDue("Sooner", 20, 0);
+        long done = insertDue("Done", 10, 1);
+        insertDue("Untagged", 5, 0);
+        Uri tagged = TodoListProvider.tagTasksUri(work);
+        for (long id : new long[]{later, sooner, done, sooner}) {
+            ContentValues link = new ContentValues();
+            link.put(TodoListProvider.TAGGED_TASK_ID, id);
+            provider.insert(tagged, link);
+        }
+
+        String[] projection = {TodoItem.TITLE};
+        String todo = TodoItem.COMPLETED + "=0";
+        assertEquals("Sooner\nLater\n", rows(provider.query(TodoListProvider.pageUri(tagged, 10, null),
+                projection, todo, null, TodoItem.DEADLINE)));
+        String[] counts = {TagItem.NAME, TagItem.TASK_COUNT, TagItem.TODO_COUNT};
+        assertEquals("Work,3,2\n", rows(provider.query(TodoListProvider.TAGS_URI, counts, null, null, null)));
+        assertEquals("Work\n", rows(provider.query(TodoListProvider.taskTagsUri(sooner),
+                new String[]{TagItem.NAME}, null, null, null)));
+
+        //the links follow edits and deletes of their tasks
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.COMPLETED, 1);
+        provider.update(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, sooner), values, null, null);
+        provider.delete(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, done), null, null);
+        assertEquals("Later\n", rows(provider.query(TodoListProvider.pageUri(tagged, 10, null),
+                projection, todo, null, TodoItem.DEADLINE)));
+        assertEquals("Work,2,1\n", rows(provider.query(TodoListProvider.TAGS_URI, counts, null, null, null)));
+
+        //a tag can change the case of its own name, but not take another tag's
+        tag.put(TagItem.NAME, "Home");
+        provider.insert(TodoListProvider.TAGS_URI, tag);
+        Uri workTag = ContentUris.withAppendedId(TodoListProvider.TAGS_URI, work);
+        ContentValues rename = new ContentValues();
+        rename.put(TagItem.NAME, "HOME");
+        try {
+            provider.update(workTag, rename, null, null);
+            fail("renamed to another tag's name");
+        } catch (IllegalArgumentException expected) {
+        }
+        rename.put(TagItem.NAME, " work ");
+        assertEquals(1, provider.update(workTag, rename, null, null));
+        assertEquals("work\n", rows(provider.query(TodoListProvider.taskTagsUri(later),
+                new String[]{TagItem.NAME}, null, null, null)));
+
+        //and deleting the tag removes them
+        assertEquals(1, provider.delete(ContentUris.withAppendedId(TodoListProvider.TAGS_URI, work), null, null));
+        assertEquals("", rows(provider.query(tagged, projection, null, null, null)));
+        assertUsesIndex("SELECT _id, title FROM " + TaskTags.TAGGED_TASKS + " WHERE completed=0 ORDER BY deadline",
+                new String[]{String.valueOf(work)}, TodoListProvider.TagEntry.INDEX_LINK_DEADLINE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pagesRequireAKeysetSortOrder() {
+        provider.query(TodoListProvider.pageUri(50, null), null, null, null, TodoItem.TITLE);
+    }
+
+    @Test
+    public void queryByTaskUriReturnsThatTask() {
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, "First");
+        provider.insert(TodoListProvider.CONTENT_URI, values);
+        values = new ContentValues();
+        values.put(TodoItem.TITLE, "Second");
+        values.put(TodoItem.DETAILS, "Some details");
+        Uri second = provider.insert(TodoListProvider.CONTENT_URI, values);
+
+        Cursor c = provider.query(second, new String[]{TodoItem.ID, TodoItem.TITLE, TodoItem.DETAILS}, null, null, null);
+        assertEquals(1, c.getCount());
+        c.moveToFirst();
+        assertEquals(ContentUris.parseId(second), c.getLong(0));
+        assertEquals("Second", c.getString(1));
+        assertEquals("Some details", c.getString(2));
+        c.close();
+    }
+
+    @Test
+    public void searchRanksTitleMatchesFirst() {
+        insertTask("Groceries", "milk and eggs");
+        insertTask("Call mom", "ask about the milk man and the milk truck");
+        insertTask("Buy milk", "");
+        insertTask("Laundry", "");
+
+        assertEquals("Buy milk,Call mom,Groceries", searchTitles("MIL"));
+        assertEquals("Call mom", searchTitles("milk truck"));
+        assertEquals("", searchTitles("\"*)("));
+    }
+
+    @Test
+    public void searchFollowsEditsAndDeletes() {
+        long id = insertTask("Old title", "");
+        Uri task = ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, id);
+
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, "New title");
+        provider.update(task, values, null, null);
+        assertEquals("", searchTitles("old"));
+        assertEquals("New title", searchTitles("new"));
+
+        provider.delete(task, null, null);
+        assertEquals("", searchTitles("new"));
+    }
+
+    @Test
+    public void searchTermsAreQuotedPrefixes() {
+        assertEquals("\"buy*\" \"milk*\"", TodoListProvider.toMatchQuery(" buy-milk\" "));
+        assertNull(TodoListProvider.toMatchQuery("*\" -"));
+    }
+
+    @Test
+    public void cachedQueriesMatchTheDatabase() {
+        ContentValues[] tasks = new ContentValues[120];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new ContentValues();
+            tasks[i].put(TodoItem.TITLE, "Task " + i);
+            tasks[i].put(TodoItem.DEADLINE, 1000L + (i * 7) % 40); //plenty of ties
+            tasks[i].put(TodoItem.COMPLETED, i % 4 == 0);
+        }
+        provider.bulkInsert(TodoListProvider.CONTENT_URI, tasks);
+
+        String[] projection = {TodoItem.ID, TodoItem.TITLE, TodoItem.DEADLINE, TodoItem.COMPLETED};
+        for (String sort : new String[]{TodoItem.DEADLINE, TodoItem.TIME_CREATED}) {
+            long[] key = {1010, 60};
+            for (Uri uri : new Uri[]{TodoListProvider.pageUri(50, null), TodoListProvider.pageUri(30, key),
+                    TodoListProvider.pageBeforeUri(30, key), TodoListProvider.pageBeforeUri(0, key)}) {
+                //the same query, but with a selection argument the cache doesn't take
+                assertEquals(rows(provider.query(uri, projection, TodoItem.COMPLETED + "=?", new String[]{"0"}, sort)),
+                        rows(provider.query(uri, projection, TodoItem.COMPLETED + "=0", null, sort)));
+                assertEquals(rows(provider.query(uri, new String[]{"count(*)"}, TodoItem.COMPLETED + "=?", new String[]{"1"}, sort)),
+                        rows(provider.query(uri, new String[]{"count(*)"}, TodoItem.COMPLETED + "=1", null, sort)));
+            }
+        }
+
+        Bundle stats = provider.call(TodoListProvider.METHOD_CACHE_STATS, null, null);
+        assertEquals(16, stats.getLong(TodoListProvider.STAT_CACHE_HITS));
+        assertEquals(16, stats.getLong(TodoListProvider.STAT_CACHE_MISSES));
+    }
+
+    @Test
+    public void sortedViewsFollowWrites() {
+        for (int i = 0; i < 20; i++) {
+            ContentValues values = new ContentValues();
+            values.put(TodoItem.TITLE, "Task " + i);
+            values.put(TodoItem.DEADLINE, 1000L + i % 5);
+            provider.insert(TodoListProvider.CONTENT_URI, values);
+        }
+        assertListsMatchTheDatabase(); //builds the views
+
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.DEADLINE, 1003L);
+        provider.update(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, 2), values, null, null);
+        assertListsMatchTheDatabase();
+
+        values = new ContentValues();
+        values.put(TodoItem.COMPLETED, true);
+        provider.update(TodoListProvider.CONTENT_URI, values, TodoItem.DEADLINE + "=1004", null);
+        assertListsMatchTheDatabase();
+
+        provider.delete(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, 7), null, null);
+        insertTask("New", "");
+        assertListsMatchTheDatabase();
+    }
+
+    @Test
+    public void cacheKeepsTheStartOfLongLists() {
+        int size = TaskCache.WINDOW + 100;
+        ContentValues[] tasks = new ContentValues[size];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new ContentValues();
+            tasks[i].put(TodoItem.TITLE, "Task " + i);
+            tasks[i].put(TodoItem.DEADLINE, 1000L + i);
+        }
+        provider.bulkInsert(TodoListProvider.CONTENT_URI, tasks);
+
+        long[] start = {1000 + 100, 101};
+        long[] end = {1000 + TaskCache.WINDOW - 20, TaskCache.WINDOW - 19};
+        assertPageMatchesTheDatabase(TodoListProvider.pageUri(50, null), true);
+        assertPageMatchesTheDatabase(TodoListProvider.pageUri(50, start), true);
+        assertPageMatchesTheDatabase(TodoListProvider.pageBeforeUri(50, end), true);
+        assertPageMatchesTheDatabase(TodoListProvider.pageUri(50, end), false); //reaches past the rows kept
+        assertPageMatchesTheDatabase(TodoListProvider.CONTENT_URI, false);
+
+        //a task sorting first pushes the last one out, and moving it past the end takes it out again
+        long first = insertDue("First", 1, 0);
+        assertPageMatchesTheDatabase(TodoListProvider.pageUri(50, null), true);
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.DEADLINE, 1000L + size);
+        provider.update(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, first), values, null, null);
+        assertPageMatchesTheDatabase(TodoListProvider.pageBeforeUri(50, end), true);
+
+        //a task from past the end moves in, which the cache can't follow without its other columns
+        values.put(TodoItem.DEADLINE, 2L);
+        provider.update(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, size - 1), values, null, null);
+        assertPageMatchesTheDatabase(TodoListProvider.pageUri(50, null), true); //read in again
+        assertPageMatchesTheDatabase(TodoListProvider.pageUri(50, start), true);
+    }
+
+    //the to-do list page, by deadline, the same from the cache as from SQLite, answered by the cache if hit
+    private void assertPageMatchesTheDatabase(Uri page, boolean hit) {
+        String[] projection = {TodoItem.ID, TodoItem.TITLE, TodoItem.DEADLINE};
+        long hits = provider.call(TodoListProvider.METHOD_CACHE_STATS, null, null).getLong(TodoListProvider.STAT_CACHE_HITS);
+        String cached = rows(provider.query(page, projection, TodoItem.COMPLETED + "=0", null, TodoItem.DEADLINE));
+        long answered = provider.call(TodoListProvider.METHOD_CACHE_STATS, null, null).getLong(TodoListProvider.STAT_CACHE_HITS) - hits;
+        assertEquals(rows(provider.query(page, projection, TodoItem.COMPLETED + "=?", new String[]{"0"}, TodoItem.DEADLINE)),
+                cached);
+        assertEquals(page.toString(), hit ? 1 : 0, answered);
+    }
+
+    //every list, in both orders, the same from the cache as from SQLite
+    private void assertListsMatchTheDatabase() {
+        String[] projection = {TodoItem.ID, TodoItem.DEADLINE, TodoItem.COMPLETED};
+        for (String sort : new String[]{TodoItem.DEADLINE, TodoItem.TIME_CREATED}) {
+            for (String completed : new String[]{"0", "1"}) {
+                assertEquals(rows(provider.query(TodoListProvider.CONTENT_URI, projection, TodoItem.COMPLETED + "=?",
+                                new String[]{completed}, sort)),
+                        rows(provider.query(TodoListProvider.CONTENT_URI, projection, TodoItem.COMPLETED + "=" + completed,
+                                null, sort)));
+            }
+        }
+    }
+
+    @Test
+    public void cacheServesFromMemoryAndWritesThrough() {
+        long id = insertTask("Cached", "");
+        Uri task = ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, id);
+        rows(provider.query(TodoListProvider.CONTENT_URI, new String[]{TodoItem.ID}, TodoItem.COMPLETED + "=0", null,
+                TodoItem.DEADLINE)); //warms the cache up, as showing the list does
+
+        //changed behind the provider's back, so only seen if read from disk
+        provider.getDatabaseHelper().getWritableDatabase().execSQL("UPDATE tasks SET title='Disk'");
+        assertEquals("Cached", title(task));
+
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, "Written");
+        provider.update(task, values, null, null);
+        assertEquals("Written", title(task));
+
+        provider.delete(task, null, null);
+        Cursor c = provider.query(task, null, null, null, null);
+        assertEquals(0, c.getCount());
+        c.close();
+    }
+
+    @Test
+    public void archivedTasksAreStillListedFoundAndEditable() {
+        ContentValues[] tasks = new ContentValues[10];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new ContentValues();
+            tasks[i].put(TodoItem.TITLE, "Task " + i);
+            tasks[i].put(TodoItem.TIME_CREATED, 1000L + i);
+            tasks[i].put(TodoItem.COMPLETED, i % 2 == 0);
+        }
+        provider.bulkInsert(TodoListProvider.IMPORT_URI, tasks);
+        provider.getDatabaseHelper().getWritableDatabase()
+                .execSQL("UPDATE tasks SET completed_at=0 WHERE completed=1 AND created_at<1006"); //long ago
+
+        assertEquals(3, provider.call(TodoListProvider.METHOD_ARCHIVE, null, null).getInt(TodoListProvider.ARCHIVED_COUNT));
+        assertEquals(0, provider.call(TodoListProvider.METHOD_ARCHIVE, null, null).getInt(TodoListProvider.ARCHIVED_COUNT));
+        String completed = TodoItem.COMPLETED + "=1";
+        String[] count = {"count(*)"};
+        assertEquals("2\n", rows(provider.query(TodoListProvider.CONTENT_URI, count, completed, null, null)));
+        assertEquals("5\n", rows(provider.query(TodoListProvider.ALL_TASKS_URI, count, completed, null, null)));
+
+        //pages merge the two tables in order
+        String[] projection = {TodoItem.ID, TodoItem.TIME_CREATED, TodoItem.TITLE};
+        List<Long> ids = new ArrayList<Long>();
+        StringBuilder titles = new StringBuilder();
+        long[] after = null;
+        Cursor page;
+        do {
+            page = provider.query(TodoListProvider.pageUri(TodoListProvider.ALL_TASKS_URI, 2, after), projection,
+                    completed, null, TodoItem.TIME_CREATED);
+            while (page.moveToNext()) {
+                ids.add(page.getLong(0));
+                titles.append(titles.length() > 0 ? "," : "").append(page.getString(2));
+                after = new long[]{page.getLong(1), page.getLong(0)};
+            }
+            page.close();
+        } while (page.getCount() == 2);
+        assertEquals("Task 0,Task 2,Task 4,Task 6,Task 8", titles.toString());
+        assertEquals("Task 4\nTask 2\n", rows(provider.query(
+                TodoListProvider.pageBeforeUri(TodoListProvider.ALL_TASKS_URI, 2, new long[]{1006, ids.get(3)}),
+                new String[]{TodoItem.TITLE}, completed, null, TodoItem.TIME_CREATED)));
+
+        //an archived task is found by its Uri and by search, and editing brings it back
+        Uri archived = ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, ids.get(0));
+        assertEquals("Task 0", title(archived));
+        assertEquals("Task 0", searchTitles("task 0"));
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.COMPLETED, 0);
+        assertEquals(1, provider.update(archived, values, null, null));
+        assertEquals("6\n", rows(provider.query(TodoListProvider.CONTENT_URI, count, TodoItem.COMPLETED + "=0", null, null)));
+        assertEquals("4\n", rows(provider.query(TodoListProvider.ALL_TASKS_URI, count, completed, null, null)));
+        assertEquals("Task 0", searchTitles("task 0"));
+
+        //and deleting one removes it everywhere
+        assertEquals(1, provider.delete(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, ids.get(1)), null, null));
+        assertEquals("3\n", rows(provider.query(TodoListProvider.ALL_TASKS_URI, count, completed, null, null)));
+        assertEquals("", searchTitles("task 2"));
+    }
+
+    @Test
+    public void repeatingTasksStoreOnlyTheirExceptions() {
+        Calendar day = Calendar.getInstance();
+        day.set(2026, Calendar.JANUARY, 5, 9, 0, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        long[] days = new long[8];
+        for(int i = 0; i < days.length; i++){
+            days[i] = day.getTimeInMillis();
+            day.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, "Water plants");
+        values.put(TodoItem.DEADLINE, days[0]);
+        values.put(TodoItem.RECURRENCE, "FREQ=DAILY");
+        long series = ContentUris.parseId(provider.insert(TodoListProvider.CONTENT_URI, values));
+        long plain = insertDue("Plain", days[0] + 1, 0);
+
+        Uri week = TodoListProvider.occurrencesUri(days[0], days[7]);
+        String[] projection = {TodoItem.ID, TodoItem.DEADLINE, TodoItem.SERIES_ID};
+        String rows = rows(provider.query(week, projection, null, null, null));
+        assertEquals(8, rows.split("\n").length);
+        assertTrue(rows, rows.startsWith(series + "," + days[0] + "," + series + "\n" + plain + "," + (days[0] + 1) + ",null\n"));
+        assertEquals(2, countTasks());
+
+        //completing or editing an occurrence stores it, once; the week shows the edited row instead
+        ContentValues completed = new ContentValues();
+        completed.put(TodoItem.COMPLETED, 1);
+        assertEquals(1, provider.update(TodoListProvider.occurrenceUri(series, days[1]), completed, null, null));
+        ContentValues edited = new ContentValues();
+        edited.put(TodoItem.TITLE, "Water ferns");
+        assertEquals(1, provider.update(TodoListProvider.occurrenceUri(series, days[2]), edited, null, null));
+        assertEquals(1, provider.update(TodoListProvider.occurrenceUri(series, days[2]), edited, null, null));
+        assertEquals(0, provider.update(TodoListProvider.occurrenceUri(series, days[2] + 1), edited, null, null));
+        assertEquals(4, countTasks());
+        Cursor titles = provider.query(week, new String[]{TodoItem.TITLE, TodoItem.OCCURRENCE}, null, null, null);
+        assertEquals(7, titles.getCount());
+        titles.moveToPosition(2); //the first occurrence and the plain task, then the third occurrence
+        assertEquals("Water ferns", titles.getString(0));
+        assertEquals(days[2], titles.getLong(1));
+        titles.close();
+
+        //pages pick up after their key, and a window years ahead costs the same
+        Cursor first = provider.query(TodoListProvider.pageUri(week, 3, null), projection, null, null, null);
+        first.moveToLast();
+        long[] key = {first.getLong(1), first.getLong(0)};
+        first.close();
+        String rest = rows(provider.query(TodoListProvider.pageUri(week, 0, key), projection, null, null, null));
+        assertEquals(4, rest.split("\n").length);
+        day.add(Calendar.YEAR, 10);
+        assertEquals(3, rows(provider.query(TodoListProvider.pageUri(TodoListProvider.occurrencesUri(day.getTimeInMillis(),
+                Long.MAX_VALUE), 3, null), projection, null, null, null)).split("\n").length);
+
+        //each series is found along the recurrence index, and its occurrences' rows along the series indexes
+        assertUsesIndex(TaskOccurrences.SERIES, new String[]{String.valueOf(days[7])},
+                TodoListProvider.TaskEntry.INDEX_RECURRENCE);
+        String[] occurrence = {String.valueOf(series), String.valueOf(days[2])};
+        assertUsesIndex(TaskOccurrences.FIND, occurrence, TodoListProvider.TaskEntry.INDEX_SERIES);
+        assertUsesIndex(TaskOccurrences.FIND, occurrence, TodoListProvider.TaskEntry.INDEX_ARCHIVE_SERIES);
+        String[] window = {String.valueOf(series), String.valueOf(days[0]), String.valueOf(days[7])};
+        assertUsesIndex(TaskOccurrences.EXCEPTIONS, window, TodoListProvider.TaskEntry.INDEX_SERIES);
+        assertUsesIndex(TaskOccurrences.EXCEPTIONS, window, TodoListProvider.TaskEntry.INDEX_ARCHIVE_SERIES);
+    }
+
+    @Test
+    public void queryByMissingTaskUriIsEmpty() {
+        Cursor c = provider.query(ContentUris.withAppendedId(TodoListProvider.CONTENT_URI, 42), null, null, null, null);
+        assertEquals(0, c.getCount());
+        c.close();
+    }
+
+    private long insertTask(String title, String details) {
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, title);
+        values.put(TodoItem.DETAILS, details);
+        return ContentUris.parseId(provider.insert(TodoListProvider.CONTENT_URI, values));
+    }
+
+    private long insertDue(String title, long deadline, int completed) {
+        ContentValues values = new ContentValues();
+        values.put(TodoItem.TITLE, title);
+        values.put(TodoItem.DEADLINE, deadline);
+        values.put(TodoItem.COMPLETED, completed);
+        return ContentUris.parseId(provider.insert(TodoListProvider.CONTENT_URI, values));
+    }
+
+    //the titles of the tasks a search finds, in order
+    private String searchTitles(String text) {
+        Cursor c = provider.query(TodoListProvider.searchUri(text, 0), new String[]{TodoItem.TITLE}, null, null, null);
+        StringBuilder titles = new StringBuilder();
+        while (c.moveToNext()) {
+            titles.append(titles.length() > 0 ? "," : "").append(c.getString(0));
+        }
+        c.close();
+        return titles.toString();
+    }
+
+    private String title(Uri task) {
+        Cursor c = provider.query(task, new String[]{TodoItem.TITLE}, null, null, null);
+        c.moveToFirst();
+        String title = c.getString(0);
+        c.close();
+        return title;
+    }
+
+    //the rows of a cursor as a string, for comparing whole results
+    private static String rows(Cursor c) {
+        StringBuilder rows = new StringBuilder();
+        while (c.moveToNext()) {
+            for (int i = 0; i < c.getColumnCount(); i++) {
+                rows.append(c.getString(i)).append(i + 1 < c.getColumnCount() ? "," : "\n");
+            }
+        }
+        c.close();
+        return rows.toString();
+    }
+
+    private int countTasks() {
+        Cursor c = provider.query(TodoListProvider.CONTENT_URI, new String[]{TodoItem.ID}, null, null, null);
+        int count = c.getCount();
+        c.close();
+        return count;
+    }
+
+    //explains the provider's own query of the first page of a list and of those either side of a key, as PagedTaskAdapter
+    //loads them; in the deadline order, a key with no deadline or a page before one is two index ranges merged
+    private void assertListUsesIndex(TaskFilter filter, String sortOrder, String index) {
+        String[] projection = {TodoItem.ID, TodoItem.TITLE, TodoItem.DEADLINE, TodoItem.COMPLETED, TodoItem.TIME_CREATED};
+        long[][] keys = {{500, 7}, {TodoListProvider.NO_DEADLINE, 7}};
+        Uri[] pages = {TodoListProvider.pageUri(50, null), TodoListProvider.pageUri(50, keys[0]),
+                TodoListProvider.pageUri(50, keys[1]), TodoListProvider.pageBeforeUri(50, keys[0]),
+                TodoListProvider.pageBeforeUri(50, keys[1])};
+        for (Uri page : pages) {
+            String[][] args = new String[1][];
+            String sql = TodoListProvider.buildListQuery(page, projection,
+                    filter.getSelection(), filter.getSelectionArgs(), sortOrder, args);
+            assertUsesIndex(sql, args[0], index);
+        }
+    }
+
+    private void assertUsesIndex(String sql, String index) {
+        assertUsesIndex(sql, null, index);
+    }
+
+    //runs EXPLAIN QUERY PLAN and checks the index is used for both the filter and the sort
+    private void assertUsesIndex(String sql, String[] args, String index) {
+        String result = explain(sql, args);
+        assertTrue(result, result.contains("INDEX " + index)); //USING INDEX, or USING COVERING INDEX
+        assertFalse(result, result.contains("TEMP B-TREE"));
+    }
+
+    //the EXPLAIN QUERY PLAN details, a line each
+    private String explain(String sql, String[] args) {
+        SQLiteDatabase db = provider.getDatabaseHelper().getReadableDatabase();
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        StringBuilder details = new StringBuilder();
+        int detailColumn = plan.getColumnIndexOrThrow("detail");
+        while (plan.moveToNext()) {
+            details.append(plan.getString(detailColumn)).append('\n');
+        }
+        plan.close();
+        return details.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package edu.uw.ztianai.todoer;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DeadlineFormatTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void formatsLikeSimpleDateFormat() {
+        SimpleDateFormat expected = new SimpleDateFormat("MM/dd/yyyy hh:mm");
+        long start = 1460700000000L;
+        for (long t = start; t < start + 1000 * MINUTE; t += 7 * MINUTE + 13) {
+            assertEquals(expected.format(new Date(t)), DeadlineFormat.format(t));
+        }
+    }
+
+    @Test
+    public void reusesStringWithinAMinute() {
+        long minute = 1460700000000L / MINUTE * MINUTE;
+        assertSame(DeadlineFormat.format(minute), DeadlineFormat.format(minute + 59 * 1000));
+    }
+
+    @Test
+    public void collidingMinutesDoNotShareAString() {
+        long minute = 1460700000000L / MINUTE * MINUTE;
+        long sameSlot = minute + 256 * MINUTE; //maps to the same cache slot
+        assertEquals(new SimpleDateFormat("MM/dd/yyyy hh:mm").format(new Date(sameSlot)), DeadlineFormat.format(sameSlot));
+        assertEquals(new SimpleDateFormat("MM/dd/yyyy hh:mm").format(new Date(minute)), DeadlineFormat.format(minute));
+    }
+
+    @Test
+    public void parsesPickerInput() throws Exception {
+        long millis = DeadlineFormat.parse("4-15-2016 09:30");
+        assertEquals("04/15/2016 09:30", DeadlineFormat.format(millis));
+    }
+}
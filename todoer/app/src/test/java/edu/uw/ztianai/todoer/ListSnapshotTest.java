@@ -0,0 +1,62 @@
+package edu.uw.ztianai.todoer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.uw.todoer.provider.TodoItem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ListSnapshotTest {
+
+    private final ListSnapshot snapshot = new ListSnapshot(RuntimeEnvironment.application, "completed=0",
+            TodoItem.DEADLINE);
+
+    @Test
+    public void readsBackWhatWasWritten() {
+        assertNull(snapshot.read());
+
+        List<Task> rows = Arrays.asList(new Task(3, "Pay rent", 100, 10, false),
+                new Task(1, "\u00dcn\u00efc\u00f6d\u00e9", 200, 20, true), new Task(2, null, 300, 30, false));
+        snapshot.write(rows, 42);
+        Robolectric.flushBackgroundThreadScheduler();
+
+        ListSnapshot.Contents contents = snapshot.read();
+        assertEquals(42, contents.count);
+        assertEquals(rows.size(), contents.rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(rows.get(i).id, contents.rows.get(i).id);
+            assertTrue(rows.get(i).sameContent(contents.rows.get(i)));
+        }
+    }
+
+    @Test
+    public void ignoresDamagedFiles() throws IOException {
+        snapshot.write(Arrays.asList(new Task(1, "Task", 100, 10, false)), 1);
+        Robolectric.flushBackgroundThreadScheduler();
+
+        File[] files = RuntimeEnvironment.application.getCacheDir().listFiles();
+        assertEquals(1, files.length);
+        RandomAccessFile file = new RandomAccessFile(files[0], "rw");
+        try {
+            file.setLength(file.length() - 3); //cut short mid-title
+        } finally {
+            file.close();
+        }
+        assertNull(snapshot.read());
+    }
+}
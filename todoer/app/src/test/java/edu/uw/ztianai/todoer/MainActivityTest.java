@@ -0,0 +1,112 @@
+package edu.uw.ztianai.todoer;
+
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.fakes.RoboMenuItem;
+import org.robolectric.shadows.ShadowContentResolver;
+import org.robolectric.util.ActivityController;
+
+import edu.uw.todoer.metrics.Metrics;
+import edu.uw.todoer.provider.TodoListProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class MainActivityTest {
+
+    private TodoListProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null); //also calls onCreate()
+        ShadowContentResolver.registerProvider(TodoListProvider.CONTENT_URI.getAuthority(), provider);
+        Metrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        RuntimeEnvironment.setQualifiers("");
+        provider.shutdown();
+    }
+
+    @Test
+    public void showingAListAgainPopsBackToIt() {
+        MainActivity activity = Robolectric.buildActivity(MainActivity.class).setup().get();
+        FragmentManager fm = activity.getSupportFragmentManager();
+
+        select(activity, R.id.overdue_menu_item);
+        select(activity, R.id.due_today_menu_item);
+        assertEquals(2, fm.getBackStackEntryCount());
+        select(activity, R.id.overdue_menu_item); //back to it, rather than on top
+        assertEquals(1, fm.getBackStackEntryCount());
+        assertShown(fm, R.id.container, MasterList.OVERDUE);
+
+        select(activity, R.id.overdue_menu_item); //already shown
+        assertEquals(1, fm.getBackStackEntryCount());
+        assertEquals(1, Metrics.getCount("fragment.alreadyShown"));
+
+        select(activity, R.id.to_do_menu_item); //shown first, so everything pops
+        assertEquals(0, fm.getBackStackEntryCount());
+        assertShown(fm, R.id.container, MasterList.TODO);
+    }
+
+    @Test
+    public void rotatingToTwoPanesStartsAgainFromTheToDoList() {
+        ActivityController<MainActivity> portrait = Robolectric.buildActivity(MainActivity.class).setup();
+        select(portrait.get(), R.id.overdue_menu_item);
+
+        FragmentManager fm = rotate(portrait, "land").getSupportFragmentManager();
+        assertEquals(0, fm.getBackStackEntryCount());
+        assertShown(fm, R.id.container_left, MasterList.TODO);
+        assertNull(fm.findFragmentById(R.id.container_right));
+        assertNull(fm.findFragmentById(R.id.container));
+    }
+
+    @Test
+    public void rotatingToOnePaneStartsAgainFromTheToDoList() {
+        RuntimeEnvironment.setQualifiers("land");
+        ActivityController<MainActivity> landscape = Robolectric.buildActivity(MainActivity.class).setup();
+        select(landscape.get(), R.id.completed_menu_item);
+        assertShown(landscape.get().getSupportFragmentManager(), R.id.container_right, MasterList.COMPLETED);
+
+        FragmentManager fm = rotate(landscape, "").getSupportFragmentManager();
+        assertEquals(0, fm.getBackStackEntryCount());
+        assertShown(fm, R.id.container, MasterList.TODO);
+        assertNull(fm.findFragmentById(R.id.container_left));
+        assertNull(fm.findFragmentById(R.id.container_right));
+    }
+
+    //picks a menu item, and lets the fragment transactions it starts run
+    private static void select(MainActivity activity, int item) {
+        activity.onOptionsItemSelected(new RoboMenuItem(item));
+        activity.getSupportFragmentManager().executePendingTransactions();
+    }
+
+    //recreates the activity from its saved state, as a rotation to the layout of the given qualifiers does
+    private static MainActivity rotate(ActivityController<MainActivity> controller, String qualifiers) {
+        Bundle state = new Bundle();
+        controller.saveInstanceState(state).pause().stop().destroy();
+        RuntimeEnvironment.setQualifiers(qualifiers);
+        MainActivity activity = Robolectric.buildActivity(MainActivity.class).setup(state).get();
+        activity.getSupportFragmentManager().executePendingTransactions();
+        return activity;
+    }
+
+    private static void assertShown(FragmentManager fm, int pane, int list) {
+        Fragment shown = fm.findFragmentById(pane);
+        assertEquals(MainActivity.listTag(list), shown != null ? shown.getTag() : null);
+    }
+}
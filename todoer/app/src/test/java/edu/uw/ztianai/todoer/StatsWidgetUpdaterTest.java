@@ -0,0 +1,63 @@
+package edu.uw.ztianai.todoer;
+
+import android.appwidget.AppWidgetManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+import org.robolectric.shadows.ShadowLooper;
+
+import edu.uw.todoer.metrics.Metrics;
+import edu.uw.todoer.provider.TodoListProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class StatsWidgetUpdaterTest {
+
+    private TodoListProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = new TodoListProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null); //also calls onCreate()
+        ShadowContentResolver.registerProvider(TodoListProvider.CONTENT_URI.getAuthority(), provider);
+        shadowOf(AppWidgetManager.getInstance(RuntimeEnvironment.application))
+                .createWidget(StatsWidget.class, R.layout.widget_stats);
+        StatsWidgetUpdater.getInstance(RuntimeEnvironment.application).stop(); //the widget's own, which would count too
+        Metrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void aBurstOfChangesRefreshesOnce() {
+        StatsWidgetUpdater updater = new StatsWidgetUpdater(RuntimeEnvironment.application,
+                new Handler(Looper.getMainLooper()));
+        updater.start();
+
+        //every notification arrives within MIN_INTERVAL, before the refresh they ask for has run
+        ShadowLooper.pauseMainLooper();
+        for (int i = 0; i < 20; i++) {
+            RuntimeEnvironment.application.getContentResolver().notifyChange(TodoListProvider.CHANGES_URI, null);
+        }
+        ShadowLooper.runUiThreadTasks();
+
+        assertEquals(20, Metrics.getCount("widget.changes"));
+        assertEquals(1, Metrics.getLatency("widget.refresh").getCount());
+        updater.stop();
+        ShadowLooper.unPauseMainLooper();
+    }
+}
@@ -0,0 +1,54 @@
+package edu.uw.ztianai.todoer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.uw.todoer.provider.TodoItem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WindowDiffTest {
+
+    private static Task task(long id, long createdAt) {
+        return new Task(id, "task " + id, 0, createdAt, false);
+    }
+
+    private static List<int[]> diff(List<Task> oldRows, List<Task> newRows, boolean newReachesEnd, int[] matched) {
+        return WindowDiff.diff(oldRows, true, newRows, newReachesEnd, 10, TodoItem.TIME_CREATED, matched);
+    }
+
+    @Test
+    public void findsInsertedRemovedAndChangedRows() {
+        List<Task> oldRows = Arrays.asList(task(1, 100), task(2, 200), task(3, 300));
+        List<Task> newRows = Arrays.asList(task(1, 100), task(4, 150),
+                new Task(3, "renamed", 0, 300, false));
+
+        int[] matched = new int[1];
+        List<int[]> ops = diff(oldRows, newRows, true, matched);
+
+        assertEquals(3, ops.size());
+        assertArrayEquals(new int[] {WindowDiff.OP_INSERT, 11}, ops.get(0));
+        assertArrayEquals(new int[] {WindowDiff.OP_REMOVE, 12}, ops.get(1));
+        assertArrayEquals(new int[] {WindowDiff.OP_CHANGE, 12}, ops.get(2));
+        assertEquals(3, matched[0]);
+    }
+
+    @Test
+    public void unchangedRowsNeedNoUpdates() {
+        List<Task> rows = Arrays.asList(task(1, 100), task(2, 200));
+        int[] matched = new int[1];
+        assertEquals(0, diff(rows, rows, true, matched).size());
+        assertEquals(2, matched[0]);
+    }
+
+    @Test
+    public void rebindsWhenNewRowsStopShort() {
+        List<Task> oldRows = Arrays.asList(task(1, 100), task(2, 200), task(3, 300));
+        List<Task> newRows = Arrays.asList(task(1, 100), task(2, 200));
+        assertNull(diff(oldRows, newRows, false, new int[1]));
+    }
+}